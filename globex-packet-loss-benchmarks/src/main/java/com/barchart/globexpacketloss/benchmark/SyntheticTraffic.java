@@ -0,0 +1,151 @@
+package com.barchart.globexpacketloss.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Pre-generated A/B packet arrival pattern. Each pass over the pattern covers
+ * {@link #getSpan()} sequence numbers; {@link #next()} keeps advancing the
+ * sequence numbers across passes so the stream never goes backwards.
+ */
+public final class SyntheticTraffic {
+
+	public static final byte FEED_A = 'A';
+
+	public static final byte FEED_B = 'B';
+
+	private static final int POOL_SIZE = 2048;
+
+	private static final int MAX_PACKET_SIZE = 1500;
+
+	private final byte[] feeds;
+
+	private final int[] sequences;
+
+	private final int span;
+
+	private final ByteBuffer[] pool;
+
+	private int index;
+
+	private int poolIndex;
+
+	private long base;
+
+	private byte feed;
+
+	private long sequence;
+
+	private SyntheticTraffic(byte[] feeds, int[] sequences, int span, int packetSize) {
+		this.feeds = feeds;
+		this.sequences = sequences;
+		this.span = span;
+		this.pool = new ByteBuffer[POOL_SIZE];
+		for (int i = 0; i < pool.length; i++) {
+			pool[i] = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			pool[i].limit(packetSize);
+		}
+		this.base = 1;
+	}
+
+	/**
+	 * @param span
+	 *            sequence numbers per pass
+	 * @param lossRate
+	 *            probability a loss burst starts on a line at any sequence
+	 * @param burstLength
+	 *            consecutive sequences lost per burst
+	 * @param reorderRate
+	 *            probability a packet swaps places with the next one on its
+	 *            line
+	 * @param duplicateRate
+	 *            probability a packet is delivered twice on its line
+	 */
+	public static SyntheticTraffic generate(int span, double lossRate, int burstLength, double reorderRate, double duplicateRate, int packetSize, long seed) {
+		Random random = new Random(seed);
+		int[] a = line(random, span, lossRate, burstLength, reorderRate, duplicateRate);
+		int[] b = line(random, span, lossRate, burstLength, reorderRate, duplicateRate);
+		byte[] feeds = new byte[a.length + b.length];
+		int[] sequences = new int[a.length + b.length];
+		int ai = 0;
+		int bi = 0;
+		int i = 0;
+		while (ai < a.length || bi < b.length) {
+			if (bi >= b.length || (ai < a.length && random.nextBoolean())) {
+				feeds[i] = FEED_A;
+				sequences[i++] = a[ai++];
+			} else {
+				feeds[i] = FEED_B;
+				sequences[i++] = b[bi++];
+			}
+		}
+		return new SyntheticTraffic(feeds, sequences, span, packetSize);
+	}
+
+	private static int[] line(Random random, int span, double lossRate, int burstLength, double reorderRate, double duplicateRate) {
+		int[] line = new int[span * 2];
+		int count = 0;
+		int lost = 0;
+		for (int seq = 0; seq < span; seq++) {
+			if (lost > 0) {
+				lost--;
+				continue;
+			}
+			if (random.nextDouble() < lossRate) {
+				lost = burstLength - 1;
+				continue;
+			}
+			line[count++] = seq;
+			if (random.nextDouble() < duplicateRate) {
+				line[count++] = seq;
+			}
+		}
+		for (int i = 0; i < count - 1; i++) {
+			if (random.nextDouble() < reorderRate) {
+				int tmp = line[i];
+				line[i] = line[i + 1];
+				line[i + 1] = tmp;
+				i++;
+			}
+		}
+		int[] trimmed = new int[count];
+		System.arraycopy(line, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Advances to the next packet and returns its buffer, with the sequence
+	 * number written at offset 0.
+	 */
+	public ByteBuffer next() {
+		if (index == feeds.length) {
+			index = 0;
+			base += span;
+		}
+		feed = feeds[index];
+		sequence = base + sequences[index];
+		index++;
+		ByteBuffer buffer = pool[poolIndex];
+		poolIndex = (poolIndex + 1) & (POOL_SIZE - 1);
+		buffer.putInt(0, (int) sequence);
+		return buffer;
+	}
+
+	public byte getFeed() {
+		return feed;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getSpan() {
+		return span;
+	}
+
+	public int getPacketCount() {
+		return feeds.length;
+	}
+
+}
@@ -0,0 +1,216 @@
+package com.barchart.globexpacketloss.multticast;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+import com.barchart.globexpacketloss.multticast.arbitrage.CmeArbitrageur;
+
+/**
+ * Selector loop against a blocking receive thread per socket. Each operation
+ * sends the next sequence number on the A and B socket of every channel over
+ * loopback and waits until every channel has arbitrated it, so it measures
+ * the whole wakeup, receive and dispatch path for one packet per channel.
+ * <code>virtual</code> needs a build and JVM of Java 21 or later and falls
+ * back to platform threads otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveModeBenchmark {
+
+	private static final int POOL_SIZE = 16;
+
+	private static final int PACKET_SIZE = 64;
+
+	@Param({ "16", "128", "512" })
+	public int channels;
+
+	@Param({ "selector", "virtual", "platform" })
+	public String mode;
+
+	private CountingArbitrageur[] arbitrageurs;
+
+	private DatagramChannel[] sockets;
+
+	private SocketAddress[] addresses;
+
+	private DatagramChannel sender;
+
+	private ByteBuffer packet;
+
+	private Selector selector;
+
+	private Thread selectorThread;
+
+	private volatile boolean running;
+
+	private int sequence;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		boolean threads = !mode.equals("selector");
+		ThreadFactory threadFactory = null;
+		if (mode.equals("virtual")) {
+			threadFactory = ReceiveThreads.newThreadFactory();
+		} else if (mode.equals("platform")) {
+			threadFactory = ReceiveThreads.newPlatformThreadFactory();
+		}
+		Clock selectorClock = new Clock();
+		arbitrageurs = new CountingArbitrageur[channels];
+		sockets = new DatagramChannel[channels * 2];
+		addresses = new SocketAddress[channels * 2];
+		selector = Selector.open();
+		for (int i = 0; i < channels; i++) {
+			Clock clock = threads ? new Clock() : selectorClock;
+			final CountingArbitrageur arbitrageur = new CountingArbitrageur(clock, i);
+			if (threads) {
+				arbitrageur.enableLocking();
+			}
+			arbitrageurs[i] = arbitrageur;
+			PoolingMulticastReceiver a = new PoolingMulticastReceiver(POOL_SIZE, PACKET_SIZE, ByteOrder.LITTLE_ENDIAN) {
+				@Override
+				protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+					arbitrageur.receiveOnAFeed(buffer);
+				}
+			};
+			PoolingMulticastReceiver b = new PoolingMulticastReceiver(POOL_SIZE, PACKET_SIZE, ByteOrder.LITTLE_ENDIAN) {
+				@Override
+				protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+					arbitrageur.receiveOnBFeed(buffer);
+				}
+			};
+			open(2 * i, a, threadFactory, arbitrageur, clock);
+			open(2 * i + 1, b, threadFactory, arbitrageur, clock);
+		}
+		running = true;
+		if (!threads) {
+			startSelectorLoop(selectorClock);
+		}
+		sender = DatagramChannel.open();
+		packet = ByteBuffer.allocateDirect(PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		sequence = 0;
+	}
+
+	private void open(int index, PoolingMulticastReceiver receiver, ThreadFactory threadFactory, CmeArbitrageur arbitrageur, Clock clock)
+			throws IOException {
+		DatagramChannel socket = DatagramChannel.open();
+		socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		sockets[index] = socket;
+		addresses[index] = socket.getLocalAddress();
+		if (threadFactory != null) {
+			new BlockingReceiveLoop(socket, receiver, arbitrageur.getLock(), clock).start(threadFactory, "receive-" + index, null);
+		} else {
+			socket.configureBlocking(false);
+			socket.register(selector, SelectionKey.OP_READ, receiver);
+		}
+	}
+
+	private void startSelectorLoop(final Clock clock) {
+		selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (running) {
+						if (selector.select() > 0) {
+							clock.update();
+							Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+							while (iter.hasNext()) {
+								SelectionKey key = iter.next();
+								((MulticastReceiver) key.attachment()).receiveFrom((DatagramChannel) key.channel());
+								iter.remove();
+							}
+						}
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, "selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		running = false;
+		if (selectorThread != null) {
+			selector.wakeup();
+			selectorThread.join();
+		}
+		for (DatagramChannel socket : sockets) {
+			socket.close();
+		}
+		selector.close();
+		sender.close();
+	}
+
+	@Benchmark
+	public int sendAndArbitrate() throws Exception {
+		int seq = ++sequence;
+		for (int i = 0; i < addresses.length; i++) {
+			packet.clear();
+			packet.putInt(0, seq);
+			sender.send(packet, addresses[i]);
+		}
+		for (CountingArbitrageur arbitrageur : arbitrageurs) {
+			// the first copy of each is enough, the other line is a duplicate.
+			// Yield rather than spin, so receivers get the core on small hosts
+			while (arbitrageur.dispatched < seq) {
+				Thread.yield();
+			}
+		}
+		return seq;
+	}
+
+	private static final class CountingArbitrageur extends CmeArbitrageur {
+
+		private volatile int dispatched;
+
+		CountingArbitrageur(Clock clock, int channelId) {
+			super(clock, POOL_SIZE, channelId);
+		}
+
+		@Override
+		protected void dispatch(ByteBuffer buffer) {
+			dispatched = buffer.getInt(0);
+		}
+
+		@Override
+		protected void reportPacketLoss(long firstMissingSequence, int missingCount) {
+		}
+
+		@Override
+		protected void reportIdleChannel(long millisSinceLastMessage) {
+		}
+
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.barchart.globexpacketloss.benchmark.SyntheticTraffic;
+
+/**
+ * Cost per packet of the A/B arbitrage, one A or B packet per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CmeArbitrageurBenchmark {
+
+	private static final int CACHE_SIZE = 4096;
+
+	@Param({ "0", "0.001", "0.01" })
+	public double lossRate;
+
+	@Param({ "1", "16" })
+	public int burstLength;
+
+	@Param({ "0", "0.01" })
+	public double reorderRate;
+
+	@Param({ "0", "0.01" })
+	public double duplicateRate;
+
+	private SyntheticTraffic traffic;
+
+	private Clock clock;
+
+	private CmeArbitrageur arbitrageur;
+
+	private long dispatched;
+
+	@Setup
+	public void setup() {
+		traffic = SyntheticTraffic.generate(1 << 16, lossRate, burstLength, reorderRate, duplicateRate, 200, 42);
+		clock = new Clock();
+		clock.update();
+		arbitrageur = new CmeArbitrageur(clock, CACHE_SIZE, 1) {
+			@Override
+			protected void dispatch(ByteBuffer buffer) {
+				dispatched++;
+			}
+
+			@Override
+			protected void reportPacketLoss(long firstMissingSequence, int missingCount) {
+			}
+
+			@Override
+			protected void reportIdleChannel(long millisSinceLastMessage) {
+			}
+		};
+	}
+
+	@Benchmark
+	public long handlePacket() throws Exception {
+		ByteBuffer buffer = traffic.next();
+		if (traffic.getFeed() == SyntheticTraffic.FEED_A) {
+			return arbitrageur.receiveOnAFeed(buffer);
+		} else {
+			return arbitrageur.receiveOnBFeed(buffer);
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A sliding reorder window: every operation copies one future packet into the
+ * cache and removes the oldest one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCacheBenchmark {
+
+	private static final int CACHE_SIZE = 65536;
+
+	@Param({ "16", "256", "2048", "30000" })
+	public int window;
+
+	@Param({ "64", "1400" })
+	public int packetSize;
+
+	private PacketCache cache;
+
+	private ByteBuffer buffer;
+
+	private long sequence;
+
+	@Setup
+	public void setup() {
+		cache = new PacketCache(CACHE_SIZE);
+		buffer = ByteBuffer.allocateDirect(1500);
+		buffer.limit(packetSize);
+		sequence = 1;
+		for (int i = 0; i < window; i++) {
+			cache.put(sequence + i, buffer);
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer putRemove() {
+		cache.put(sequence + window, buffer);
+		return cache.remove(sequence++);
+	}
+
+}
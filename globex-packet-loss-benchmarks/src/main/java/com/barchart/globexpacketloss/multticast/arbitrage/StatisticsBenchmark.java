@@ -0,0 +1,61 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.barchart.globexpacketloss.benchmark.SyntheticTraffic;
+
+/**
+ * Per line sequence accounting (<code>LineStats.receive</code>), one A or B
+ * packet per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+	@Param({ "0", "0.001", "0.01" })
+	public double lossRate;
+
+	@Param({ "1", "16" })
+	public int burstLength;
+
+	@Param({ "0", "0.01" })
+	public double reorderRate;
+
+	private SyntheticTraffic traffic;
+
+	private Statistics statistics;
+
+	@Setup
+	public void setup() {
+		traffic = SyntheticTraffic.generate(1 << 16, lossRate, burstLength, reorderRate, 0.0, 64, 42);
+		statistics = new Statistics(1);
+	}
+
+	@Benchmark
+	public Statistics lineStatsReceive() {
+		traffic.next();
+		if (traffic.getFeed() == SyntheticTraffic.FEED_A) {
+			statistics.aFeedReceived(traffic.getSequence());
+		} else {
+			statistics.bFeedReceived(traffic.getSequence());
+		}
+		return statistics;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walking the SBE messages of one MDP packet per operation. Run with
+ * <code>-prof gc</code> to confirm the decoder does not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MdpPacketDecoderBenchmark {
+
+	private static final int PACKETS = 1024;
+
+	private static final int MAX_PACKET_SIZE = 1472;
+
+	private static final int[] TEMPLATES = { 32, 42, 43, 46, 47, 48 };
+
+	@Param({ "1", "4", "16" })
+	public int messagesPerPacket;
+
+	private ByteBuffer[] packets;
+
+	private MdpPacketDecoder decoder;
+
+	private MessageStats stats;
+
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		int maxMessageSize = (MAX_PACKET_SIZE - MdpPacketDecoder.PACKET_HEADER_SIZE) / messagesPerPacket;
+		packets = new ByteBuffer[PACKETS];
+		for (int i = 0; i < PACKETS; i++) {
+			ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			packet.putInt(0, i);
+			packet.putLong(4, System.nanoTime());
+			int offset = MdpPacketDecoder.PACKET_HEADER_SIZE;
+			for (int m = 0; m < messagesPerPacket; m++) {
+				int size = SbeMessageFlyweight.HEADER_LENGTH + random.nextInt(Math.min(120, maxMessageSize - SbeMessageFlyweight.HEADER_LENGTH) + 1);
+				packet.putShort(offset, (short) size);
+				packet.putShort(offset + 2, (short) (size - SbeMessageFlyweight.HEADER_LENGTH));
+				packet.putShort(offset + 4, (short) TEMPLATES[random.nextInt(TEMPLATES.length)]);
+				packet.putShort(offset + 6, (short) 1);
+				packet.putShort(offset + 8, (short) 9);
+				offset += size;
+			}
+			packet.limit(offset);
+			packets[i] = packet;
+		}
+		stats = new MessageStats();
+		decoder = new MdpPacketDecoder(stats, null);
+	}
+
+	@Benchmark
+	public int decode() {
+		ByteBuffer packet = packets[index];
+		index = (index + 1) & (PACKETS - 1);
+		return decoder.decode(packet);
+	}
+
+}
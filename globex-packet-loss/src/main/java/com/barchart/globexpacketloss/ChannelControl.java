@@ -0,0 +1,142 @@
+package com.barchart.globexpacketloss;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line based command socket on the loopback interface for changing the
+ * channel set while the detector runs, e.g. <code>echo "add 310-312" | nc
+ * localhost 9999</code>. Commands:
+ * <p>
+ * <code>add &lt;channelIds&gt;</code> - join channels<br>
+ * <code>remove &lt;channelIds&gt;</code> - leave channels<br>
+ * <code>list</code> - joined channels
+ * <p>
+ * Channel ids take the same forms as on the command line. Each command is
+ * answered with one <code>OK</code> or <code>ERROR</code> line per channel.
+ * Connections are served one at a time.
+ */
+final class ChannelControl implements Runnable {
+
+	private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+	private final PacketLossDetector detector;
+
+	private final CmeXmlConfig xmlConfig;
+
+	private final ServerSocket serverSocket;
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+	ChannelControl(PacketLossDetector detector, CmeXmlConfig xmlConfig, int port) throws IOException {
+		this.detector = detector;
+		this.xmlConfig = xmlConfig;
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	public void start() {
+		thread = new Thread(this, "channel-control");
+		thread.setDaemon(true);
+		thread.start();
+		System.out.println("Accepting channel commands on " + serverSocket.getLocalSocketAddress());
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			System.err.println("Problem closing control socket: " + e);
+		}
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try (Socket socket = serverSocket.accept()) {
+				socket.setSoTimeout(READ_TIMEOUT);
+				serve(socket);
+			} catch (SocketException e) {
+				if (running) {
+					System.err.println("Control connection failed: " + e);
+				}
+			} catch (IOException e) {
+				System.err.println("Control connection failed: " + e);
+			}
+		}
+	}
+
+	private void serve(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (!line.isEmpty()) {
+				execute(line, out);
+			}
+		}
+	}
+
+	private void execute(String line, PrintWriter out) {
+		String[] parts = line.split("\\s+", 2);
+		String command = parts[0].toLowerCase();
+		try {
+			switch (command) {
+			case "list":
+				out.println("OK " + detector.getChannelIds());
+				break;
+			case "add":
+			case "remove":
+				if (parts.length < 2) {
+					out.println("ERROR " + command + " needs channel ids");
+					break;
+				}
+				List<Integer> channelIds = xmlConfig.selectChannels(parts[1]);
+				if (channelIds.isEmpty()) {
+					out.println("ERROR no channels selected by " + parts[1]);
+				}
+				for (Integer channelId : channelIds) {
+					change(command, channelId, out);
+				}
+				break;
+			default:
+				out.println("ERROR unknown command: " + command + ".  Expected add, remove or list");
+			}
+		} catch (IllegalArgumentException e) {
+			out.println("ERROR " + e.getMessage());
+		}
+	}
+
+	private void change(String command, int channelId, PrintWriter out) {
+		try {
+			if (command.equals("add")) {
+				detector.addChannel(channelId);
+				out.println("OK added " + channelId);
+			} else {
+				detector.removeChannel(channelId);
+				out.println("OK removed " + channelId);
+			}
+		} catch (Exception e) {
+			out.println("ERROR " + channelId + ": " + e.getMessage());
+		}
+	}
+
+}
@@ -7,11 +7,18 @@ import java.util.List;
 
 import org.ietf.jgss.ChannelBinding;
 
-import com.barchart.globexpacketloss.multticast.MulticastReceiver;
+import com.barchart.globexpacketloss.capture.CaptureJournal;
+import com.barchart.globexpacketloss.kernel.SocketBacklog;
+import com.barchart.globexpacketloss.multticast.BatchStats;
 import com.barchart.globexpacketloss.multticast.PoolingMulticastReceiver;
 import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
 import com.barchart.globexpacketloss.multticast.arbitrage.CmeArbitrageur;
+import com.barchart.globexpacketloss.multticast.arbitrage.RaceStats;
+import com.barchart.globexpacketloss.multticast.arbitrage.RollingWindow;
 import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+import com.barchart.globexpacketloss.sbe.InstrumentGapTracker;
+import com.barchart.globexpacketloss.sbe.MdpPacketDecoder;
+import com.barchart.globexpacketloss.sbe.MessageStats;
 import com.google.common.net.HostAndPort;
 
 public final class ChannelTracker extends CmeArbitrageur {
@@ -24,43 +31,115 @@ public final class ChannelTracker extends CmeArbitrageur {
 
 	private static final int POOL_SIZE = 2048;
 
-	private static final int PACKET_CACHE_SIZE = 4096;
-
 	private final int channelId;
 
 	private final boolean packetLossLogging;
 
-	private final MulticastReceiver aFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN) {
-		@Override
-		protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
-			receiveOnAFeed(buffer);
-		}
-	};
+	private final PoolingMulticastReceiver aFeedReceiver;
 
-	private final MulticastReceiver bFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN) {
-		@Override
-		protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
-			receiveOnBFeed(buffer);
-		}
-	};
+	private final PoolingMulticastReceiver bFeedReceiver;
+
+	private final Statistics snapshot;
+
+	private final BatchStats aBatchSnapshot;
+
+	private final BatchStats bBatchSnapshot;
+
+	private final RaceStats raceSnapshot;
+
+	private final MdpPacketDecoder decoder;
+
+	private final MessageStats messageStats;
+
+	private final MessageStats messageSnapshot;
+
+	private final InstrumentGapTracker instruments;
+
+	private final InstrumentGapTracker instrumentSnapshot;
+
+	private final SocketBacklog aSocketBacklog;
+
+	private final SocketBacklog bSocketBacklog;
+
+	private int reorderHighWaterSnapshot;
+
+	private long reorderOverflowSnapshot;
 
 	private HostAndPort feedAHostAndPort;
 
 	private HostAndPort feedBHostAndPort;
 
 	public ChannelTracker(Clock clock, Integer channelId, HostAndPort feedAHostAndPort, HostAndPort feedBHostAndPort, boolean packetLossLogging) {
-		super(clock, PACKET_CACHE_SIZE, channelId);
+		this(clock, channelId, feedAHostAndPort, feedBHostAndPort, packetLossLogging, new DetectorOptions());
+	}
+
+	public ChannelTracker(Clock clock, Integer channelId, HostAndPort feedAHostAndPort, HostAndPort feedBHostAndPort, boolean packetLossLogging,
+			DetectorOptions options) {
+		super(clock, options.getReorderCapacity(), channelId);
 		this.packetLossLogging = packetLossLogging;
 		this.channelId = channelId;
+		setIdleTimeout(options.getIdleTimeoutMillis());
 		this.feedAHostAndPort = feedAHostAndPort;
 		this.feedBHostAndPort = feedBHostAndPort;
+		this.aFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN, options.getReceiveBatch()) {
+			@Override
+			protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+				receiveOnAFeed(buffer);
+			}
+
+			@Override
+			protected void receiveBatch(ByteBuffer[] batch, int count) throws Exception {
+				receiveBatchOnAFeed(batch, count);
+			}
+		};
+		this.bFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN, options.getReceiveBatch()) {
+			@Override
+			protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+				receiveOnBFeed(buffer);
+			}
+
+			@Override
+			protected void receiveBatch(ByteBuffer[] batch, int count) throws Exception {
+				receiveBatchOnBFeed(batch, count);
+			}
+		};
+		if (clock.isPrecise()) {
+			aFeedReceiver.setReceiveClock(clock);
+			bFeedReceiver.setReceiveClock(clock);
+		}
+		this.snapshot = new Statistics(channelId);
+		this.aBatchSnapshot = new BatchStats();
+		this.bBatchSnapshot = new BatchStats();
+		if (options.getRaceRingSize() > 0) {
+			enableRaceStats(options.getRaceRingSize());
+			this.raceSnapshot = new RaceStats(options.getRaceRingSize());
+		} else {
+			this.raceSnapshot = null;
+		}
+		if (options.isDecode()) {
+			this.messageStats = new MessageStats();
+			this.messageSnapshot = new MessageStats();
+		} else {
+			this.messageStats = null;
+			this.messageSnapshot = null;
+		}
+		if (options.getInstrumentCapacity() > 0) {
+			this.instruments = new InstrumentGapTracker(options.getInstrumentCapacity());
+			this.instrumentSnapshot = new InstrumentGapTracker(0);
+		} else {
+			this.instruments = null;
+			this.instrumentSnapshot = null;
+		}
+		this.decoder = messageStats != null || instruments != null ? new MdpPacketDecoder(messageStats, instruments) : null;
+		this.aSocketBacklog = new SocketBacklog();
+		this.bSocketBacklog = new SocketBacklog();
 	}
 
-	public MulticastReceiver getFeedReceiverA() {
+	public PoolingMulticastReceiver getFeedReceiverA() {
 		return aFeedReceiver;
 	}
 
-	public MulticastReceiver getFeedReceiverB() {
+	public PoolingMulticastReceiver getFeedReceiverB() {
 		return bFeedReceiver;
 	}
 
@@ -72,16 +151,60 @@ public final class ChannelTracker extends CmeArbitrageur {
 		return feedBHostAndPort;
 	}
 
+	/**
+	 * Loss percentage per line and arbitrated packet rate over the rolling
+	 * windows.
+	 */
+	public String toWindowSnapshotString() {
+		return formatWindows(snapshot);
+	}
+
+	public String toWindowString() {
+		return formatWindows(getStatistics());
+	}
+
+	private String formatWindows(Statistics stats) {
+		StringBuilder builder = new StringBuilder(channelId > 0 ? String.format("Channel %3d", channelId) : "Total      ");
+		for (int window = 0; window < RollingWindow.getWindowCount(); window++) {
+			builder.append(String.format(" | %s A %6.3f%% B %6.3f%% C %6.3f%% %9.0f/s", RollingWindow.getName(window), stats.getAFeedWindow()
+					.getPercentageMissed(window), stats.getBFeedWindow().getPercentageMissed(window), stats.getCombinedFeedWindow()
+					.getPercentageMissed(window), stats.getCombinedFeedWindow().getRate(window)));
+		}
+		return builder.append(" |").toString();
+	}
+
+	/**
+	 * Receive time minus MDP sending time per line, in microseconds.
+	 */
+	public String toLatencySnapshotString() {
+		return formatLatency(snapshot);
+	}
+
+	public String toLatencyString() {
+		return formatLatency(getStatistics());
+	}
+
+	private String formatLatency(Statistics stats) {
+		String name = channelId > 0 ? String.format("Channel %3d", channelId) : "Total      ";
+		return String.format("%s | A latency %s | B latency %s |", name, stats.getAFeedLatency(), stats.getBFeedLatency());
+	}
+
 	@Override
 	public String toString() {
+		return format(getStatistics());
+	}
+
+	public String toSnapshotString() {
+		return format(snapshot);
+	}
+
+	private String format(Statistics stats) {
 		List<Object> parts = new ArrayList<Object>();
 		if (channelId > 0) {
 			parts.add(String.format("Channel %3d", channelId));
 		} else {
 			parts.add("Total      ");
 		}
-		
-		Statistics stats = getStatistics();
 
 		parts.add(stats.getAFeedReceivedCount());
 		parts.add(stats.getAFeedMissedCount());
@@ -103,20 +226,144 @@ public final class ChannelTracker extends CmeArbitrageur {
 
 	@Override
 	protected void dispatch(ByteBuffer buffer) throws Exception {
-
+		if (decoder != null) {
+			decoder.decode(buffer);
+		}
 	}
 
 	@Override
 	protected void reportPacketLoss(long firstMissingSequence, int missingCount) throws Exception {
+		// counted and logged by the combined line statistics as the gap closes
 	}
 
 	@Override
 	protected void reportIdleChannel(long millisSinceLastMessage) {
+		getStatistics().getGapEvents().offerIdle(Statistics.LINE_COMBINED, millisSinceLastMessage, getClock().getTimestampNanos());
+	}
 
+	@Override
+	protected void reportIdleLine(byte line, long millisSinceLastMessage) {
+		getStatistics().getGapEvents().offerIdle(line, millisSinceLastMessage, getClock().getTimestampNanos());
 	}
 
 	public void reset() {
 		getStatistics().reset();
+		aFeedReceiver.getBatchStats().reset();
+		bFeedReceiver.getBatchStats().reset();
+		if (getRaceStats() != null) {
+			getRaceStats().reset();
+		}
+		if (messageStats != null) {
+			messageStats.reset();
+		}
+		if (instruments != null) {
+			instruments.reset();
+		}
+	}
+
+	/**
+	 * Must be called from the thread that receives for this tracker.
+	 */
+	public void takeSnapshot() {
+		getStatistics().advanceWindows();
+		snapshot.copyFrom(getStatistics());
+		aBatchSnapshot.copyFrom(aFeedReceiver.getBatchStats());
+		bBatchSnapshot.copyFrom(bFeedReceiver.getBatchStats());
+		reorderHighWaterSnapshot = getReorderHighWater();
+		reorderOverflowSnapshot = getReorderOverflowCount();
+		if (raceSnapshot != null) {
+			raceSnapshot.copyFrom(getRaceStats());
+		}
+		if (messageSnapshot != null) {
+			messageSnapshot.copyFrom(messageStats);
+		}
+		if (instrumentSnapshot != null) {
+			instrumentSnapshot.copyFrom(instruments);
+		}
+	}
+
+	public Statistics getSnapshot() {
+		return snapshot;
+	}
+
+	public BatchStats getABatchSnapshot() {
+		return aBatchSnapshot;
+	}
+
+	public BatchStats getBBatchSnapshot() {
+		return bBatchSnapshot;
+	}
+
+	public int getReorderHighWaterSnapshot() {
+		return reorderHighWaterSnapshot;
+	}
+
+	public long getReorderOverflowSnapshot() {
+		return reorderOverflowSnapshot;
+	}
+
+	public String toReorderSnapshotString() {
+		return String.format("Channel %3d | reorder high water %6d of %6d | overflow %9d", channelId, reorderHighWaterSnapshot, getReorderCapacity(),
+				reorderOverflowSnapshot);
+	}
+
+	/**
+	 * @return null unless race stats are enabled
+	 */
+	public RaceStats getRaceSnapshot() {
+		return raceSnapshot;
+	}
+
+	public String toRaceSnapshotString() {
+		return String.format("Channel %3d | %s", channelId, raceSnapshot);
+	}
+
+	/**
+	 * @return null unless message decoding is enabled
+	 */
+	public MessageStats getMessageSnapshot() {
+		return messageSnapshot;
+	}
+
+	public String toMessageSnapshotString() {
+		return String.format("Channel %3d | %s", channelId, messageSnapshot);
+	}
+
+	/**
+	 * @return null unless instrument gap tracking is enabled
+	 */
+	public InstrumentGapTracker getInstrumentSnapshot() {
+		return instrumentSnapshot;
+	}
+
+	public String toInstrumentSnapshotString() {
+		return String.format("Channel %3d | %s", channelId, instrumentSnapshot);
+	}
+
+	public void setCaptureJournal(CaptureJournal journal, Clock clock) {
+		aFeedReceiver.setCaptureJournal(journal, clock, channelId, (byte) 'A');
+		bFeedReceiver.setCaptureJournal(journal, clock, channelId, (byte) 'B');
+	}
+
+	/**
+	 * Kernel view of the A socket, kept current by the kernel UDP sampler when
+	 * it runs.
+	 */
+	public SocketBacklog getSocketBacklogA() {
+		return aSocketBacklog;
+	}
+
+	public SocketBacklog getSocketBacklogB() {
+		return bSocketBacklog;
+	}
+
+	public String toKernelSnapshotString() {
+		return String.format("Channel %3d | A gaps %9d kernel %s | B gaps %9d kernel %s", channelId, snapshot.getAFeedMissedCount(), aSocketBacklog,
+				snapshot.getBFeedMissedCount(), bSocketBacklog);
+	}
+
+	public String toBatchSnapshotString() {
+		return String.format("Channel %3d | A %s | B %s", channelId, aBatchSnapshot, bBatchSnapshot);
 	}
 
 	public int getChannelId() {
@@ -0,0 +1,74 @@
+package com.barchart.globexpacketloss;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+
+/**
+ * Realigns the clocks of the selector threads with the wall clock on a
+ * background thread, so the receive threads never read the wall clock for
+ * precise stamps and latency follows wall clock adjustments in either mode. In
+ * thread receive mode every channel has a clock of its own; those take over
+ * the first shard's offset rather than each measuring it.
+ */
+final class ClockCalibrator implements Runnable {
+
+	private final List<SelectorShard> shards;
+
+	private final List<ChannelTracker> trackers;
+
+	private final long intervalMillis;
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+	ClockCalibrator(List<SelectorShard> shards, long intervalMillis) {
+		this(shards, Collections.<ChannelTracker> emptyList(), intervalMillis);
+	}
+
+	/**
+	 * @param trackers
+	 *            trackers with clocks of their own, safe to iterate while
+	 *            channels are added and removed
+	 */
+	ClockCalibrator(List<SelectorShard> shards, List<ChannelTracker> trackers, long intervalMillis) {
+		this.shards = shards;
+		this.trackers = trackers;
+		this.intervalMillis = intervalMillis;
+	}
+
+	public void start() {
+		thread = new Thread(this, "clock-calibrator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException e) {
+				break;
+			}
+			for (SelectorShard shard : shards) {
+				shard.getClock().calibrate();
+			}
+			Clock reference = shards.get(0).getClock();
+			for (ChannelTracker tracker : trackers) {
+				tracker.getClock().calibrate(reference);
+			}
+		}
+	}
+
+}
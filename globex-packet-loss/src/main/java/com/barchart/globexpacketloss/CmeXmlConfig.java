@@ -3,19 +3,26 @@ package com.barchart.globexpacketloss;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.google.common.net.HostAndPort;
 
+/**
+ * The channels and connections of a CME MDP 3.0 <code>config.xml</code>,
+ * read in one streaming pass into an index of channel id to connection id to
+ * host and port. Everything else in the file is skipped.
+ */
 public final class CmeXmlConfig {
 
 	private static final String INCREMENTAL_A = "IA";
@@ -30,72 +37,166 @@ public final class CmeXmlConfig {
 
 	private static final String SNAPSHOT_B = "SB";
 
-	private final XPath xpath;
+	private static final String ALL = "all";
+
+	private final NavigableMap<Integer, Channel> channels;
 
-	private final Document document;
+	private CmeXmlConfig(NavigableMap<Integer, Channel> channels) {
+		this.channels = channels;
+	}
 
-	public CmeXmlConfig(Document document, XPath xPath) {
-		this.document = document;
-		this.xpath = xPath;
+	public String getChannelDescription(int channelId) {
+		Channel channel = channels.get(channelId);
+		return channel == null ? "" : channel.label;
 	}
 
-	public String getChannelDescription(int channelId) throws Exception {
-		return evaluate("/configuration/channel[@id=" + channelId + "]/@label");
+	/**
+	 * Every channel in the config, in ascending order.
+	 */
+	public List<Integer> getChannelIds() {
+		return new ArrayList<Integer>(channels.keySet());
 	}
 
-	public HostAndPort getIncrementalFeedA(int channelId) throws Exception {
+	public HostAndPort getIncrementalFeedA(int channelId) {
 		return getHostAndPort(channelId, channelId + INCREMENTAL_A);
 	}
 
-	public HostAndPort getIncrementalFeedB(int channelId) throws Exception {
+	public HostAndPort getIncrementalFeedB(int channelId) {
 		return getHostAndPort(channelId, channelId + INCREMENTAL_B);
 	}
 
-	public HostAndPort getInstrumentFeedA(int channelId) throws Exception {
+	public HostAndPort getInstrumentFeedA(int channelId) {
 		return getHostAndPort(channelId, channelId + INSTRUMENT_A);
 	}
 
-	public HostAndPort getInstrumentFeedB(int channelId) throws Exception {
+	public HostAndPort getInstrumentFeedB(int channelId) {
 		return getHostAndPort(channelId, channelId + INSTRUMENT_B);
 	}
 
-	public HostAndPort getSnapshotFeedA(int channelId) throws Exception {
+	public HostAndPort getSnapshotFeedA(int channelId) {
 		return getHostAndPort(channelId, channelId + SNAPSHOT_A);
 	}
 
-	public HostAndPort getSnapshotFeedB(int channelId) throws Exception {
+	public HostAndPort getSnapshotFeedB(int channelId) {
 		return getHostAndPort(channelId, channelId + SNAPSHOT_B);
 	}
 
-	private HostAndPort getHostAndPort(int channelId, String connectionId) throws Exception {
-		String host = evaluate("/configuration/channel[@id=" + channelId + "]/connections/connection[@id='" + connectionId + "']/ip");
-		String port = evaluate("/configuration/channel[@id=" + channelId + "]/connections/connection[@id='" + connectionId + "']/port");
-		return HostAndPort.fromString(host + ":" + port);
+	private HostAndPort getHostAndPort(int channelId, String connectionId) {
+		Channel channel = channels.get(channelId);
+		if (channel == null) {
+			throw new IllegalArgumentException("No channel " + channelId + " in config.");
+		}
+		HostAndPort hostAndPort = channel.connections.get(connectionId);
+		if (hostAndPort == null) {
+			throw new IllegalArgumentException("No connection " + connectionId + " for channel " + channelId + " in config.");
+		}
+		return hostAndPort;
 	}
 
-	private String evaluate(String expression) throws Exception {
-		XPathExpression xPathExpression = xpath.compile(expression);
-		String result = xPathExpression.evaluate(document);
-		return result;
+	/**
+	 * Resolves a channel selection: <code>all</code>, or a comma separated list
+	 * of channel ids and inclusive ranges, e.g. <code>7,8,310-320</code>. A
+	 * range only selects the channels of the config within it; listed ids are
+	 * taken as given.
+	 */
+	public List<Integer> selectChannels(String selection) {
+		if (selection.trim().equalsIgnoreCase(ALL)) {
+			return getChannelIds();
+		}
+		List<Integer> list = new ArrayList<Integer>();
+		for (String s : selection.split(",")) {
+			s = s.trim();
+			int dash = s.indexOf('-', 1);
+			if (dash < 0) {
+				add(list, Integer.parseInt(s));
+			} else {
+				int from = Integer.parseInt(s.substring(0, dash).trim());
+				int to = Integer.parseInt(s.substring(dash + 1).trim());
+				if (from > to) {
+					throw new IllegalArgumentException("Bad channel range: " + s + ".  Expected <from>-<to>");
+				}
+				for (Integer channelId : channels.subMap(from, true, to, true).keySet()) {
+					add(list, channelId);
+				}
+			}
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	private static void add(List<Integer> list, Integer channelId) {
+		if (!list.contains(channelId)) {
+			list.add(channelId);
+		}
 	}
 
-	public static CmeXmlConfig parse(URL url) throws IOException, SAXException, ParserConfigurationException {
+	public static CmeXmlConfig parse(URL url) throws IOException, XMLStreamException {
 		try (InputStream is = url.openStream()) {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setValidating(false);
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			Document document = builder.parse(is);
-			XPathFactory xPathFactory = XPathFactory.newInstance();
-			XPath xPath = xPathFactory.newXPath();
-			return new CmeXmlConfig(document, xPath);
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			XMLStreamReader reader = factory.createXMLStreamReader(is);
+			try {
+				return new CmeXmlConfig(read(reader));
+			} finally {
+				reader.close();
+			}
 		}
 	}
 
+	private static NavigableMap<Integer, Channel> read(XMLStreamReader reader) throws XMLStreamException {
+		NavigableMap<Integer, Channel> channels = new TreeMap<Integer, Channel>();
+		Channel channel = null;
+		String connectionId = null;
+		String ip = null;
+		String port = null;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = reader.getLocalName();
+				if (name.equals("channel")) {
+					channel = new Channel(reader.getAttributeValue(null, "label"));
+					channels.put(Integer.parseInt(reader.getAttributeValue(null, "id").trim()), channel);
+				} else if (name.equals("connection") && channel != null) {
+					connectionId = reader.getAttributeValue(null, "id");
+					ip = null;
+					port = null;
+				} else if (name.equals("ip") && connectionId != null) {
+					ip = reader.getElementText().trim();
+				} else if (name.equals("port") && connectionId != null) {
+					port = reader.getElementText().trim();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = reader.getLocalName();
+				if (name.equals("connection") && connectionId != null) {
+					if (ip != null && port != null) {
+						channel.connections.put(connectionId, HostAndPort.fromParts(ip, Integer.parseInt(port)));
+					}
+					connectionId = null;
+				} else if (name.equals("channel")) {
+					channel = null;
+				}
+			}
+		}
+		return channels;
+	}
+
 	@Override
 	public String toString() {
-		return "CmeChannelConfig [document=" + document + "]";
+		return "CmeChannelConfig [channels=" + channels.keySet() + "]";
+	}
+
+	private static final class Channel {
+
+		private final String label;
+
+		private final Map<String, HostAndPort> connections;
+
+		Channel(String label) {
+			this.label = label == null ? "" : label;
+			this.connections = new HashMap<String, HostAndPort>();
+		}
+
 	}
 
-	
-	
 }
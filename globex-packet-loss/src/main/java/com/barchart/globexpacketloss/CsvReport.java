@@ -0,0 +1,56 @@
+package com.barchart.globexpacketloss;
+
+import java.io.PrintStream;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.RollingWindow;
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+
+/**
+ * One row per channel per interval, plus a total row with an empty channel.
+ * The header is written before the first report.
+ */
+final class CsvReport implements ReportFormat {
+
+	static final String HEADER = "time,channel,a_received,a_missed,a_incidents,a_old,b_received,b_missed,b_incidents,b_old,"
+			+ "c_received,c_missed,c_incidents,c_old,a_loss_pct_1m,b_loss_pct_1m,c_loss_pct_1m,c_rate_1m,a_loss_pct_5m,b_loss_pct_5m,c_loss_pct_5m,"
+			+ "c_rate_5m,a_loss_pct_1h,b_loss_pct_1h,c_loss_pct_1h,c_rate_1h,a_latency_p50_ns,a_latency_p99_ns,b_latency_p50_ns,b_latency_p99_ns";
+
+	private final StringBuilder builder = new StringBuilder();
+
+	private boolean headerWritten;
+
+	@Override
+	public void write(Report report, PrintStream out) {
+		if (!headerWritten) {
+			out.println(HEADER);
+			headerWritten = true;
+		}
+		long time = report.getTime().getTime();
+		for (ChannelTracker tracker : report.getTrackers()) {
+			writeRow(out, time, Integer.toString(tracker.getChannelId()), tracker.getSnapshot());
+		}
+		writeRow(out, time, "", report.getTotal().getStatistics());
+		out.flush();
+	}
+
+	private void writeRow(PrintStream out, long time, String channel, Statistics stats) {
+		builder.setLength(0);
+		builder.append(time).append(',').append(channel);
+		builder.append(',').append(stats.getAFeedReceivedCount()).append(',').append(stats.getAFeedMissedCount());
+		builder.append(',').append(stats.getAFeedIncidentCount()).append(',').append(stats.getAFeedOldCount());
+		builder.append(',').append(stats.getBFeedReceivedCount()).append(',').append(stats.getBFeedMissedCount());
+		builder.append(',').append(stats.getBFeedIncidentCount()).append(',').append(stats.getBFeedOldCount());
+		builder.append(',').append(stats.getCombinedFeedReceivedCount()).append(',').append(stats.getCombinedFeedMissedCount());
+		builder.append(',').append(stats.getCombinedFeedIncidentCount()).append(',').append(stats.getCombinedFeedOldCount());
+		for (int window = 0; window < RollingWindow.getWindowCount(); window++) {
+			builder.append(',').append(stats.getAFeedWindow().getPercentageMissed(window));
+			builder.append(',').append(stats.getBFeedWindow().getPercentageMissed(window));
+			builder.append(',').append(stats.getCombinedFeedWindow().getPercentageMissed(window));
+			builder.append(',').append(Math.round(stats.getCombinedFeedWindow().getRate(window)));
+		}
+		builder.append(',').append(stats.getAFeedLatency().getValueAtPercentile(50)).append(',').append(stats.getAFeedLatency().getValueAtPercentile(99));
+		builder.append(',').append(stats.getBFeedLatency().getValueAtPercentile(50)).append(',').append(stats.getBFeedLatency().getValueAtPercentile(99));
+		out.println(builder);
+	}
+
+}
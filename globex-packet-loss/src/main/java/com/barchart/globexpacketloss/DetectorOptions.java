@@ -0,0 +1,492 @@
+package com.barchart.globexpacketloss;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.incident.LossCorrelator;
+
+public final class DetectorOptions {
+
+	private static final String PREFIX = "globex.";
+
+	public enum ReceiveMode {
+		SELECTOR, THREADS
+	}
+
+	private int shardCount = 1;
+
+	private Map<Integer, Integer> shardAssignment = Collections.emptyMap();
+
+	private int receiveBatch = 1;
+
+	private IdleStrategy.Mode pollMode = IdleStrategy.Mode.BLOCK;
+
+	private ReceiveMode receiveMode = ReceiveMode.SELECTOR;
+
+	private int pollSpins = 100;
+
+	private int pollYields = 100;
+
+	private long pollParkMinNanos = TimeUnit.MICROSECONDS.toNanos(1);
+
+	private long pollParkMaxNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private boolean preciseClock;
+
+	private long clockCalibrationMillis = TimeUnit.SECONDS.toMillis(1);
+
+	private File captureDirectory;
+
+	private int captureSegmentSize = 256 * 1024 * 1024;
+
+	private File incidentDirectory;
+
+	private int raceRingSize;
+
+	private int reorderCapacity = 4096;
+
+	private long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+
+	private long correlationWindowMillis = 1;
+
+	private String report = "table";
+
+	private boolean decode;
+
+	private int instrumentCapacity;
+
+	private int recoveryShards;
+
+	private long kernelSampleMillis;
+
+	private int controlPort;
+
+	private int metricsPort;
+
+	private boolean jmx;
+
+	private long metricsIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public void setShardCount(int shardCount) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("Shard count must be positive.  Not: " + shardCount);
+		}
+		this.shardCount = shardCount;
+	}
+
+	public Map<Integer, Integer> getShardAssignment() {
+		return shardAssignment;
+	}
+
+	public void setShardAssignment(Map<Integer, Integer> shardAssignment) {
+		this.shardAssignment = shardAssignment;
+	}
+
+	public int getReceiveBatch() {
+		return receiveBatch;
+	}
+
+	public void setReceiveBatch(int receiveBatch) {
+		if (receiveBatch <= 0) {
+			throw new IllegalArgumentException("Receive batch must be positive.  Not: " + receiveBatch);
+		}
+		this.receiveBatch = receiveBatch;
+	}
+
+	public void setPollMode(String pollMode) {
+		this.pollMode = IdleStrategy.Mode.valueOf(pollMode.toUpperCase());
+	}
+
+	public ReceiveMode getReceiveMode() {
+		return receiveMode;
+	}
+
+	/**
+	 * <code>selector</code> reads every socket of a shard from its selector
+	 * thread; <code>threads</code> reads each socket on a thread of its own.
+	 */
+	public void setReceiveMode(String receiveMode) {
+		this.receiveMode = ReceiveMode.valueOf(receiveMode.toUpperCase());
+	}
+
+	public void setPollBackoff(int spins, int yields, long parkMinNanos, long parkMaxNanos) {
+		this.pollSpins = spins;
+		this.pollYields = yields;
+		this.pollParkMinNanos = parkMinNanos;
+		this.pollParkMaxNanos = parkMaxNanos;
+	}
+
+	IdleStrategy createIdleStrategy() {
+		return new IdleStrategy(pollMode, pollSpins, pollYields, pollParkMinNanos, pollParkMaxNanos);
+	}
+
+	/**
+	 * Stamp every packet with the monotonic clock as it is received, with the
+	 * wall clock offset recalibrated in the background.
+	 */
+	public boolean isPreciseClock() {
+		return preciseClock;
+	}
+
+	public void setPreciseClock(boolean preciseClock) {
+		this.preciseClock = preciseClock;
+	}
+
+	public long getClockCalibrationMillis() {
+		return clockCalibrationMillis;
+	}
+
+	public void setClockCalibrationMillis(long clockCalibrationMillis) {
+		if (clockCalibrationMillis <= 0) {
+			throw new IllegalArgumentException("Clock calibration interval must be positive.  Not: " + clockCalibrationMillis);
+		}
+		this.clockCalibrationMillis = clockCalibrationMillis;
+	}
+
+	public File getCaptureDirectory() {
+		return captureDirectory;
+	}
+
+	public void setCaptureDirectory(File captureDirectory) {
+		this.captureDirectory = captureDirectory;
+	}
+
+	public File getIncidentDirectory() {
+		return incidentDirectory;
+	}
+
+	public void setIncidentDirectory(File incidentDirectory) {
+		this.incidentDirectory = incidentDirectory;
+	}
+
+	public int getCaptureSegmentSize() {
+		return captureSegmentSize;
+	}
+
+	public void setCaptureSegmentSize(int captureSegmentSize) {
+		this.captureSegmentSize = captureSegmentSize;
+	}
+
+	/**
+	 * @return 0 when A/B race stats are disabled
+	 */
+	public int getRaceRingSize() {
+		return raceRingSize;
+	}
+
+	public void setRaceRingSize(int raceRingSize) {
+		if (raceRingSize < 0 || (raceRingSize > 0 && Integer.bitCount(raceRingSize) != 1)) {
+			throw new IllegalArgumentException("Race ring size must be 0 or a power of two.  Not: " + raceRingSize);
+		}
+		this.raceRingSize = raceRingSize;
+	}
+
+	/**
+	 * Packets per channel that can be held waiting for a gap to fill. The
+	 * gap is given up on once half of them are in use.
+	 */
+	public int getReorderCapacity() {
+		return reorderCapacity;
+	}
+
+	public void setReorderCapacity(int reorderCapacity) {
+		if (reorderCapacity <= 0) {
+			throw new IllegalArgumentException("Reorder capacity must be positive.  Not: " + reorderCapacity);
+		}
+		this.reorderCapacity = reorderCapacity;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * @param idleTimeoutMillis
+	 *            0 disables idle detection
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Idle timeout must not be negative.  Not: " + idleTimeoutMillis);
+		}
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public long getCorrelationWindowMillis() {
+		return correlationWindowMillis;
+	}
+
+	/**
+	 * 0 disables correlation.
+	 */
+	public void setCorrelationWindowMillis(long correlationWindowMillis) {
+		if (correlationWindowMillis < 0 || correlationWindowMillis > LossCorrelator.MAX_WINDOW_MILLIS) {
+			throw new IllegalArgumentException("Correlation window must be between 0 and " + LossCorrelator.MAX_WINDOW_MILLIS + ".  Not: "
+					+ correlationWindowMillis);
+		}
+		this.correlationWindowMillis = correlationWindowMillis;
+	}
+
+	/**
+	 * Comma separated report outputs, each <code>format[:file]</code> where
+	 * format is <code>table</code>, <code>jsonl</code> or <code>csv</code>.
+	 * Outputs without a file go to stdout.
+	 */
+	public String getReport() {
+		return report;
+	}
+
+	public void setReport(String report) {
+		this.report = report;
+	}
+
+	/**
+	 * Walk the SBE messages of every arbitrated packet and count them per
+	 * template.
+	 */
+	public boolean isDecode() {
+		return decode;
+	}
+
+	public void setDecode(boolean decode) {
+		this.decode = decode;
+	}
+
+	/**
+	 * Securities per channel to size RptSeq tracking for, 0 to not track
+	 * instrument gaps.
+	 */
+	public int getInstrumentCapacity() {
+		return instrumentCapacity;
+	}
+
+	public void setInstrumentCapacity(int instrumentCapacity) {
+		if (instrumentCapacity < 0) {
+			throw new IllegalArgumentException("Instrument capacity must not be negative.  Not: " + instrumentCapacity);
+		}
+		this.instrumentCapacity = instrumentCapacity;
+	}
+
+	/**
+	 * Extra selector threads for the snapshot and instrument definition feeds,
+	 * 0 to not monitor them. They are kept off the incremental shards.
+	 */
+	public int getRecoveryShards() {
+		return recoveryShards;
+	}
+
+	public void setRecoveryShards(int recoveryShards) {
+		if (recoveryShards < 0) {
+			throw new IllegalArgumentException("Recovery shards must not be negative.  Not: " + recoveryShards);
+		}
+		this.recoveryShards = recoveryShards;
+	}
+
+	/**
+	 * How often socket backlogs and drops are read from <code>/proc</code>, 0
+	 * to not read them.
+	 */
+	public long getKernelSampleMillis() {
+		return kernelSampleMillis;
+	}
+
+	public void setKernelSampleMillis(long kernelSampleMillis) {
+		if (kernelSampleMillis < 0) {
+			throw new IllegalArgumentException("Kernel sample interval must not be negative.  Not: " + kernelSampleMillis);
+		}
+		this.kernelSampleMillis = kernelSampleMillis;
+	}
+
+	/**
+	 * Loopback port accepting <code>add</code>, <code>remove</code> and
+	 * <code>list</code> channel commands, 0 for none.
+	 */
+	public int getControlPort() {
+		return controlPort;
+	}
+
+	public void setControlPort(int controlPort) {
+		if (controlPort < 0 || controlPort > 65535) {
+			throw new IllegalArgumentException("Control port must be between 0 and 65535.  Not: " + controlPort);
+		}
+		this.controlPort = controlPort;
+	}
+
+	/**
+	 * Port of the Prometheus <code>/metrics</code> endpoint, 0 for none.
+	 */
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+
+	public void setMetricsPort(int metricsPort) {
+		if (metricsPort < 0 || metricsPort > 65535) {
+			throw new IllegalArgumentException("Metrics port must be between 0 and 65535.  Not: " + metricsPort);
+		}
+		this.metricsPort = metricsPort;
+	}
+
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	public void setJmx(boolean jmx) {
+		this.jmx = jmx;
+	}
+
+	/**
+	 * How often counters are copied out of the selector threads for the
+	 * metrics endpoints. Reports still use their own interval.
+	 */
+	public long getMetricsIntervalMillis() {
+		return metricsIntervalMillis;
+	}
+
+	public void setMetricsIntervalMillis(long metricsIntervalMillis) {
+		if (metricsIntervalMillis <= 0) {
+			throw new IllegalArgumentException("Metrics interval must be positive.  Not: " + metricsIntervalMillis);
+		}
+		this.metricsIntervalMillis = metricsIntervalMillis;
+	}
+
+	public boolean isMetricsEnabled() {
+		return metricsPort > 0 || jmx;
+	}
+
+	public int getShardFor(int channelId, int position) {
+		Integer shard = shardAssignment.get(channelId);
+		if (shard != null) {
+			if (shard < 0 || shard >= shardCount) {
+				throw new IllegalArgumentException("Channel " + channelId + " assigned to shard " + shard + ", but only " + shardCount + " shards configured.");
+			}
+			return shard;
+		}
+		return position % shardCount;
+	}
+
+	/**
+	 * Reads options from <code>-Dglobex.*</code> system properties.
+	 * <p>
+	 * <code>globex.shards</code> - number of selector threads (default 1)<br>
+	 * <code>globex.shardAssignment</code> - explicit channel to shard mapping,
+	 * e.g. <code>310=0,311=0,312=1</code>. Unlisted channels are assigned round
+	 * robin.<br>
+	 * <code>globex.receiveBatch</code> - maximum datagrams drained per socket
+	 * wakeup (default 1, no batching)<br>
+	 * <code>globex.pollMode</code> - <code>block</code> (default),
+	 * <code>spin</code>, <code>yield</code> or <code>park</code><br>
+	 * <code>globex.pollSpins</code>, <code>globex.pollYields</code>,
+	 * <code>globex.pollParkMinNanos</code>, <code>globex.pollParkMaxNanos</code>
+	 * - idle backoff for the polling modes<br>
+	 * <code>globex.receiveMode</code> - <code>selector</code> (default) or
+	 * <code>threads</code>, a blocking receive thread per socket<br>
+	 * <code>globex.preciseClock</code> - stamp each packet with nanosecond
+	 * resolution as it is received instead of once per wakeup in milliseconds<br>
+	 * <code>globex.clockCalibrationMillis</code> - how often the clock offset
+	 * used for latency and precise stamps is realigned with the wall clock
+	 * (default 1000)<br>
+	 * <code>globex.captureDir</code> - record every received datagram to memory
+	 * mapped journal segments in this directory<br>
+	 * <code>globex.captureSegmentMB</code> - journal segment size (default 256)<br>
+	 * <code>globex.incidentDir</code> - append every gap and idle incident to a
+	 * memory mapped incident log in this directory<br>
+	 * <code>globex.raceStats</code> - record A/B race winners and arrival skew
+	 * per channel<br>
+	 * <code>globex.raceRingSize</code> - sequence numbers remembered per channel
+	 * for matching A and B copies (default 16384)<br>
+	 * <code>globex.reorderCapacity</code> - packets per channel held while
+	 * waiting for a gap to fill (default 4096)<br>
+	 * <code>globex.idleTimeoutMillis</code> - report a channel or line that
+	 * receives nothing for this long, 0 to disable (default 60000)<br>
+	 * <code>globex.correlationWindowMillis</code> - group losses of different
+	 * channels that began within this window into one event, 0 to disable
+	 * (default 1)<br>
+	 * <code>globex.report</code> - report outputs, e.g.
+	 * <code>table,jsonl:/var/log/globex.jsonl</code> (default table)<br>
+	 * <code>globex.decode</code> - count SBE messages per packet and per
+	 * template id<br>
+	 * <code>globex.instrumentGaps</code> - track RptSeq gaps per SecurityID<br>
+	 * <code>globex.instrumentCapacity</code> - securities per channel to size
+	 * the RptSeq map for (default 32768)<br>
+	 * <code>globex.recoveryFeeds</code> - also monitor the snapshot and
+	 * instrument definition feeds of every channel<br>
+	 * <code>globex.recoveryShards</code> - selector threads for those feeds
+	 * (default 1)<br>
+	 * <code>globex.kernelStats</code> - sample receive queues and drops of the
+	 * detector's sockets from <code>/proc/net/udp</code> and host UDP errors
+	 * from <code>/proc/net/snmp</code> (Linux)<br>
+	 * <code>globex.kernelSampleMillis</code> - how often (default 1000)<br>
+	 * <code>globex.controlPort</code> - accept channel add and remove commands on
+	 * this loopback port<br>
+	 * <code>globex.metricsPort</code> - serve Prometheus metrics on this port<br>
+	 * <code>globex.jmx</code> - register a channel MBean per channel<br>
+	 * <code>globex.metricsIntervalMillis</code> - how often metrics are
+	 * refreshed (default 5000)
+	 */
+	public static DetectorOptions fromSystemProperties() {
+		DetectorOptions options = new DetectorOptions();
+		options.setShardCount(Integer.getInteger(PREFIX + "shards", 1));
+		options.setShardAssignment(parseAssignment(System.getProperty(PREFIX + "shardAssignment", "")));
+		options.setReceiveBatch(Integer.getInteger(PREFIX + "receiveBatch", 1));
+		options.setPollMode(System.getProperty(PREFIX + "pollMode", "block"));
+		options.setReceiveMode(System.getProperty(PREFIX + "receiveMode", "selector"));
+		options.setPollBackoff(Integer.getInteger(PREFIX + "pollSpins", options.pollSpins), Integer.getInteger(PREFIX + "pollYields", options.pollYields),
+				Long.getLong(PREFIX + "pollParkMinNanos", options.pollParkMinNanos), Long.getLong(PREFIX + "pollParkMaxNanos", options.pollParkMaxNanos));
+		options.setPreciseClock(Boolean.getBoolean(PREFIX + "preciseClock"));
+		options.setClockCalibrationMillis(Long.getLong(PREFIX + "clockCalibrationMillis", options.clockCalibrationMillis));
+		String captureDir = System.getProperty(PREFIX + "captureDir");
+		if (captureDir != null) {
+			options.setCaptureDirectory(new File(captureDir));
+		}
+		options.setCaptureSegmentSize(Integer.getInteger(PREFIX + "captureSegmentMB", 256) * 1024 * 1024);
+		String incidentDir = System.getProperty(PREFIX + "incidentDir");
+		if (incidentDir != null) {
+			options.setIncidentDirectory(new File(incidentDir));
+		}
+		if (Boolean.getBoolean(PREFIX + "raceStats")) {
+			options.setRaceRingSize(Integer.getInteger(PREFIX + "raceRingSize", 16384));
+		}
+		options.setReorderCapacity(Integer.getInteger(PREFIX + "reorderCapacity", options.reorderCapacity));
+		options.setIdleTimeoutMillis(Long.getLong(PREFIX + "idleTimeoutMillis", options.idleTimeoutMillis));
+		options.setCorrelationWindowMillis(Long.getLong(PREFIX + "correlationWindowMillis", options.correlationWindowMillis));
+		options.setReport(System.getProperty(PREFIX + "report", options.report));
+		options.setDecode(Boolean.getBoolean(PREFIX + "decode"));
+		if (Boolean.getBoolean(PREFIX + "instrumentGaps")) {
+			options.setInstrumentCapacity(Integer.getInteger(PREFIX + "instrumentCapacity", 32768));
+		}
+		if (Boolean.getBoolean(PREFIX + "recoveryFeeds")) {
+			options.setRecoveryShards(Integer.getInteger(PREFIX + "recoveryShards", 1));
+		}
+		if (Boolean.getBoolean(PREFIX + "kernelStats")) {
+			options.setKernelSampleMillis(Long.getLong(PREFIX + "kernelSampleMillis", 1000));
+		}
+		options.setControlPort(Integer.getInteger(PREFIX + "controlPort", options.controlPort));
+		options.setMetricsPort(Integer.getInteger(PREFIX + "metricsPort", options.metricsPort));
+		options.setJmx(Boolean.getBoolean(PREFIX + "jmx"));
+		options.setMetricsIntervalMillis(Long.getLong(PREFIX + "metricsIntervalMillis", options.metricsIntervalMillis));
+		return options;
+	}
+
+	static Map<Integer, Integer> parseAssignment(String str) {
+		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+		for (String entry : str.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			String[] parts = entry.split("=");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Bad shard assignment: " + entry + ".  Expected <channelId>=<shard>");
+			}
+			map.put(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.barchart.globexpacketloss;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.incident.IncidentLog;
+import com.barchart.globexpacketloss.incident.LossCorrelator;
+import com.barchart.globexpacketloss.multticast.arbitrage.GapEventRing;
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+
+/**
+ * Drains the gap and idle incident rings of every tracker on a background thread and
+ * prints them, so the receive threads never block on stdout. With an
+ * {@link IncidentLog} every incident is also appended to it. With a
+ * {@link LossCorrelator} loss that hits several channels at once is also
+ * printed, and logged, as one event.
+ */
+public final class GapEventLogger implements Runnable, GapEventRing.Handler, LossCorrelator.Handler {
+
+	private static final long DRAIN_INTERVAL = 10;
+
+	private final List<GapEventRing> rings;
+
+	private final SimpleDateFormat dateFormat;
+
+	private final StringBuilder builder;
+
+	private IncidentLog incidentLog;
+
+	private LossCorrelator correlator;
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+	public GapEventLogger() {
+		this.rings = new CopyOnWriteArrayList<GapEventRing>();
+		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("America/Chicago"));
+		this.builder = new StringBuilder();
+	}
+
+	/**
+	 * Set before the first drain. The log is closed by {@link #stop()} or
+	 * {@link #close()}.
+	 */
+	public void setIncidentLog(IncidentLog incidentLog) {
+		this.incidentLog = incidentLog;
+	}
+
+	/**
+	 * Set before the first drain.
+	 */
+	public void enableCorrelation(long windowMillis) {
+		this.correlator = new LossCorrelator(windowMillis, this);
+	}
+
+	public LossCorrelator getCorrelator() {
+		return correlator;
+	}
+
+	public void register(GapEventRing ring) {
+		rings.add(ring);
+	}
+
+	public void unregister(GapEventRing ring) {
+		rings.remove(ring);
+	}
+
+	public void start() {
+		thread = new Thread(this, "gap-event-logger");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			drain();
+			if (correlator != null) {
+				// closes events once no more of their incidents can be in flight
+				correlator.advance(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+				print();
+			}
+			try {
+				Thread.sleep(DRAIN_INTERVAL);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		drain();
+		close();
+	}
+
+	/**
+	 * Reports the events still open and closes the incident log, if any.
+	 * Only needed when draining without {@link #start()}.
+	 */
+	public void close() {
+		if (correlator != null) {
+			correlator.flush();
+			print();
+		}
+		if (incidentLog != null) {
+			incidentLog.close();
+			incidentLog = null;
+		}
+	}
+
+	/**
+	 * Prints everything currently in the rings. Only one thread may drain.
+	 */
+	public int drain() {
+		int count = 0;
+		for (GapEventRing ring : rings) {
+			count += ring.drain(this);
+			long overflow = ring.takeNewOverflow();
+			if (overflow > 0) {
+				builder.append("WARNING: Dropped ").append(overflow).append(" gap incidents on channel ").append(ring.getChannelId())
+						.append(", gap event ring full.\n");
+			}
+		}
+		print();
+		return count;
+	}
+
+	private void print() {
+		if (builder.length() > 0) {
+			System.out.print(builder);
+			builder.setLength(0);
+		}
+	}
+
+	@Override
+	public void onGap(int channelId, byte line, long expected, long received, long epochNanos, long durationNanos) {
+		if (incidentLog != null) {
+			try {
+				incidentLog.appendGap(epochNanos, channelId, line, expected, received - expected, durationNanos);
+			} catch (IOException e) {
+				incidentLogFailed(e);
+			}
+		}
+		if (correlator != null) {
+			correlator.onLoss(channelId, line, epochNanos - durationNanos, epochNanos, received - expected);
+		}
+		appendTime(epochNanos);
+		builder.append(" - Packet loss on ").append(channelId).append('-').append((char) line)
+				.append(". Received: ").append(received).append(", expected: ").append(expected).append(", missing: ").append(received - expected)
+				.append('\n');
+	}
+
+	@Override
+	public void onIdle(int channelId, byte line, long idleMillis, long epochNanos) {
+		if (incidentLog != null) {
+			try {
+				incidentLog.appendIdle(epochNanos, channelId, line, TimeUnit.MILLISECONDS.toNanos(idleMillis));
+			} catch (IOException e) {
+				incidentLogFailed(e);
+			}
+		}
+		appendTime(epochNanos);
+		if (line == Statistics.LINE_COMBINED) {
+			builder.append(" - Channel ").append(channelId).append(" idle for ").append(idleMillis).append(" ms, no packets on either line.\n");
+		} else {
+			builder.append(" - Line ").append(channelId).append('-').append((char) line).append(" idle for ").append(idleMillis)
+					.append(" ms, other line still receiving.\n");
+		}
+	}
+
+	@Override
+	public void onLossEvent(LossCorrelator.Event event) {
+		if (event.getScope() == LossCorrelator.Scope.CHANNEL) {
+			// already printed as the channel's own incidents
+			return;
+		}
+		boolean host = event.getScope() == LossCorrelator.Scope.HOST;
+		if (incidentLog != null) {
+			try {
+				incidentLog.appendEvent(event.getStartNanos(), host ? IncidentLog.HOST_LINE : event.getLine(), event.getChannelCount(),
+						event.getIncidentCount(), event.getMissingCount(), event.getEndNanos() - event.getStartNanos());
+			} catch (IOException e) {
+				incidentLogFailed(e);
+			}
+		}
+		appendTime(event.getStartNanos());
+		if (host) {
+			builder.append(" - Host-wide loss on ");
+		} else {
+			builder.append(" - Line ").append((char) event.getLine()).append(" loss on ");
+		}
+		builder.append(event.getChannelCount()).append(event.hasMoreChannels() ? "+" : "").append(" channels (");
+		for (int i = 0; i < event.getChannelCount(); i++) {
+			builder.append(i == 0 ? "" : ",").append(event.getChannel(i));
+		}
+		builder.append(event.hasMoreChannels() ? ",...), lines " : "), lines ");
+		appendLine(event, Statistics.LINE_A);
+		appendLine(event, Statistics.LINE_B);
+		appendLine(event, Statistics.LINE_COMBINED);
+		builder.append(", ").append(event.getIncidentCount()).append(" incidents, ").append(event.getMissingCount()).append(" missing, began within ")
+				.append(TimeUnit.NANOSECONDS.toMicros(event.getEndNanos() - event.getStartNanos())).append(" us.\n");
+	}
+
+	private void appendLine(LossCorrelator.Event event, byte line) {
+		if (event.hasLine(line)) {
+			builder.append((char) line);
+		}
+	}
+
+	private void incidentLogFailed(IOException e) {
+		builder.append("ERROR: Cannot write the incident log, no longer logging incidents to it: ").append(e).append('\n');
+		incidentLog.close();
+		incidentLog = null;
+	}
+
+	private void appendTime(long epochNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(epochNanos) % 1000;
+		builder.append(dateFormat.format(new Date(TimeUnit.NANOSECONDS.toMillis(epochNanos))));
+		builder.append(micros < 100 ? (micros < 10 ? "00" : "0") : "").append(micros);
+	}
+
+}
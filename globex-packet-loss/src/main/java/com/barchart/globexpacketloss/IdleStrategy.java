@@ -0,0 +1,84 @@
+package com.barchart.globexpacketloss;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how a selector loop waits for traffic. BLOCK is the classic
+ * <code>select(timeout)</code>; the others poll with <code>selectNow()</code>
+ * and back off through spinning, yielding and parking when idle.
+ */
+final class IdleStrategy {
+
+	enum Mode {
+		BLOCK, SPIN, YIELD, PARK
+	}
+
+	private final Mode mode;
+
+	private final int maxSpins;
+
+	private final int maxYields;
+
+	private final long minParkNanos;
+
+	private final long maxParkNanos;
+
+	private int spins;
+
+	private int yields;
+
+	private long parkNanos;
+
+	IdleStrategy(Mode mode, int maxSpins, int maxYields, long minParkNanos, long maxParkNanos) {
+		if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+			throw new IllegalArgumentException("Bad park range: " + minParkNanos + " - " + maxParkNanos);
+		}
+		this.mode = mode;
+		this.maxSpins = maxSpins;
+		this.maxYields = maxYields;
+		this.minParkNanos = minParkNanos;
+		this.maxParkNanos = maxParkNanos;
+		reset();
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public boolean isBlocking() {
+		return mode == Mode.BLOCK;
+	}
+
+	public void idle() {
+		switch (mode) {
+		case BLOCK:
+		case SPIN:
+			break;
+		case YIELD:
+			if (spins < maxSpins) {
+				spins++;
+			} else {
+				Thread.yield();
+			}
+			break;
+		case PARK:
+			if (spins < maxSpins) {
+				spins++;
+			} else if (yields < maxYields) {
+				yields++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+			}
+			break;
+		}
+	}
+
+	public void reset() {
+		spins = 0;
+		yields = 0;
+		parkNanos = minParkNanos;
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.barchart.globexpacketloss;
+
+import java.io.PrintStream;
+
+import com.barchart.globexpacketloss.kernel.KernelUdpSampler;
+import com.barchart.globexpacketloss.kernel.SocketBacklog;
+import com.barchart.globexpacketloss.multticast.CycleStats;
+import com.barchart.globexpacketloss.multticast.arbitrage.LatencyStats;
+import com.barchart.globexpacketloss.multticast.arbitrage.RaceStats;
+import com.barchart.globexpacketloss.multticast.arbitrage.RollingWindow;
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+import com.barchart.globexpacketloss.sbe.InstrumentGapTracker;
+import com.barchart.globexpacketloss.sbe.MessageStats;
+
+/**
+ * One JSON object per line: a <code>"channel"</code> record per tracker, a
+ * <code>"total"</code> record, a <code>"recovery"</code> record per monitored
+ * snapshot or instrument definition feed and a <code>"shard"</code> record per
+ * selector thread.
+ */
+final class JsonLinesReport implements ReportFormat {
+
+	private static final int TOP_INSTRUMENTS = 10;
+
+	private final StringBuilder builder = new StringBuilder();
+
+	@Override
+	public void write(Report report, PrintStream out) {
+		long time = report.getTime().getTime();
+		for (ChannelTracker tracker : report.getTrackers()) {
+			begin("channel", time);
+			builder.append(",\"channel\":").append(tracker.getChannelId());
+			appendStatistics(tracker.getSnapshot());
+			builder.append(",\"reorder\":{\"highWater\":").append(tracker.getReorderHighWaterSnapshot());
+			builder.append(",\"overflow\":").append(tracker.getReorderOverflowSnapshot()).append('}');
+			RaceStats race = tracker.getRaceSnapshot();
+			if (race != null) {
+				builder.append(",\"race\":{\"aWins\":").append(race.getAWins());
+				builder.append(",\"bWins\":").append(race.getBWins());
+				builder.append(",\"aOnly\":").append(race.getAOnlyCount());
+				builder.append(",\"bOnly\":").append(race.getBOnlyCount());
+				builder.append(",\"late\":").append(race.getLateCount());
+				builder.append(",\"aFirstSkewP50Nanos\":").append(race.getAFirstSkew().getValueAtPercentile(50));
+				builder.append(",\"aFirstSkewP99Nanos\":").append(race.getAFirstSkew().getValueAtPercentile(99));
+				builder.append(",\"bFirstSkewP50Nanos\":").append(race.getBFirstSkew().getValueAtPercentile(50));
+				builder.append(",\"bFirstSkewP99Nanos\":").append(race.getBFirstSkew().getValueAtPercentile(99));
+				builder.append('}');
+			}
+			if (report.getKernelSampler() != null) {
+				builder.append(",\"kernel\":{");
+				appendBacklog("a", tracker.getSocketBacklogA());
+				builder.append(',');
+				appendBacklog("b", tracker.getSocketBacklogB());
+				builder.append('}');
+			}
+			MessageStats messages = tracker.getMessageSnapshot();
+			if (messages != null) {
+				appendMessages(messages);
+			}
+			InstrumentGapTracker instruments = tracker.getInstrumentSnapshot();
+			if (instruments != null) {
+				appendInstruments(instruments);
+			}
+			end(out);
+		}
+		begin("total", time);
+		appendStatistics(report.getTotal().getStatistics());
+		KernelUdpSampler kernel = report.getKernelSampler();
+		if (kernel != null) {
+			builder.append(",\"kernel\":{\"rcvbufErrors\":").append(kernel.getRcvbufErrors());
+			builder.append(",\"inErrors\":").append(kernel.getInErrors()).append('}');
+		}
+		end(out);
+		for (RecoveryFeedTracker tracker : report.getRecoveryTrackers()) {
+			begin("recovery", time);
+			builder.append(",\"channel\":").append(tracker.getChannelId());
+			builder.append(",\"feed\":\"").append(tracker.getFeed()).append('"');
+			appendCycles("a", tracker.getASnapshot());
+			appendCycles("b", tracker.getBSnapshot());
+			end(out);
+		}
+		for (SelectorShard shard : report.getShards()) {
+			LoopStats loop = shard.getLoopSnapshot();
+			begin("shard", time);
+			builder.append(",\"shard\":").append(shard.getIndex());
+			builder.append(",\"busyCycles\":").append(loop.getBusyCycles());
+			builder.append(",\"idleCycles\":").append(loop.getIdleCycles());
+			end(out);
+		}
+		out.flush();
+	}
+
+	private void appendBacklog(String line, SocketBacklog backlog) {
+		builder.append('"').append(line).append("\":{\"found\":").append(backlog.isFound());
+		builder.append(",\"rxQueue\":").append(backlog.getRxQueue());
+		builder.append(",\"rxQueueHighWater\":").append(backlog.getRxQueueHighWater());
+		builder.append(",\"drops\":").append(backlog.getDrops());
+		builder.append(",\"sockets\":").append(backlog.getSocketCount()).append('}');
+	}
+
+	private void appendCycles(String line, CycleStats stats) {
+		builder.append(",\"").append(line).append("\":{\"received\":").append(stats.getReceivedCount());
+		builder.append(",\"missed\":").append(stats.getMissedCount());
+		builder.append(",\"old\":").append(stats.getOldCount());
+		builder.append(",\"incidents\":").append(stats.getIncidentCount());
+		builder.append(",\"cycles\":").append(stats.getCycleCount());
+		builder.append(",\"cycleP50Millis\":").append(stats.getCycleMillis().getValueAtPercentile(50));
+		builder.append(",\"cycleMaxMillis\":").append(stats.getCycleMillis().getMax());
+		builder.append(",\"lastCyclePackets\":").append(stats.getLastCyclePackets());
+		builder.append(",\"maxCyclePackets\":").append(stats.getMaxCyclePackets()).append('}');
+	}
+
+	private void begin(String type, long time) {
+		builder.setLength(0);
+		builder.append("{\"type\":\"").append(type).append("\",\"time\":").append(time);
+	}
+
+	private void end(PrintStream out) {
+		builder.append('}');
+		out.println(builder);
+	}
+
+	private void appendMessages(MessageStats messages) {
+		builder.append(",\"messages\":{\"perPacketP50\":").append(messages.getMessagesPerPacket().getValueAtPercentile(50));
+		builder.append(",\"perPacketP99\":").append(messages.getMessagesPerPacket().getValueAtPercentile(99));
+		builder.append(",\"perPacketMax\":").append(messages.getMessagesPerPacket().getMax());
+		builder.append(",\"malformed\":").append(messages.getMalformedCount());
+		builder.append(",\"templates\":{");
+		boolean first = true;
+		for (int templateId : messages.getTemplatesByCount()) {
+			builder.append(first ? "" : ",").append('"').append(templateId).append("\":{\"messages\":").append(messages.getTemplateMessages(templateId));
+			builder.append(",\"bytes\":").append(messages.getTemplateBytes(templateId)).append('}');
+			first = false;
+		}
+		builder.append("},\"otherMessages\":").append(messages.getOtherMessages());
+		builder.append(",\"otherBytes\":").append(messages.getOtherBytes());
+		builder.append('}');
+	}
+
+	private void appendInstruments(InstrumentGapTracker instruments) {
+		builder.append(",\"instruments\":{\"tracked\":").append(instruments.getSecurityCount());
+		builder.append(",\"affected\":").append(instruments.getAffectedCount());
+		builder.append(",\"incidents\":").append(instruments.getIncidentCount());
+		builder.append(",\"missed\":").append(instruments.getMissedCount());
+		builder.append(",\"top\":[");
+		int[] top = instruments.getMostAffected(TOP_INSTRUMENTS);
+		for (int i = 0; i < top.length; i++) {
+			builder.append(i > 0 ? "," : "").append("{\"securityId\":").append(instruments.getSecurityId(top[i]));
+			builder.append(",\"missed\":").append(instruments.getMissed(top[i]));
+			builder.append(",\"incidents\":").append(instruments.getIncidents(top[i])).append('}');
+		}
+		builder.append("]}");
+	}
+
+	private void appendStatistics(Statistics stats) {
+		appendLine("a", stats.getAFeedReceivedCount(), stats.getAFeedMissedCount(), stats.getAFeedIncidentCount(), stats.getAFeedOldCount(),
+				stats.getAFeedWindow(), stats.getAFeedLatency());
+		appendLine("b", stats.getBFeedReceivedCount(), stats.getBFeedMissedCount(), stats.getBFeedIncidentCount(), stats.getBFeedOldCount(),
+				stats.getBFeedWindow(), stats.getBFeedLatency());
+		appendLine("c", stats.getCombinedFeedReceivedCount(), stats.getCombinedFeedMissedCount(), stats.getCombinedFeedIncidentCount(),
+				stats.getCombinedFeedOldCount(), stats.getCombinedFeedWindow(), null);
+	}
+
+	private void appendLine(String line, long received, long missed, long incidents, long old, RollingWindow windows,
+			LatencyStats latency) {
+		builder.append(",\"").append(line).append("\":{\"received\":").append(received);
+		builder.append(",\"missed\":").append(missed);
+		builder.append(",\"incidents\":").append(incidents);
+		builder.append(",\"old\":").append(old);
+		builder.append(",\"windows\":{");
+		for (int window = 0; window < RollingWindow.getWindowCount(); window++) {
+			if (window > 0) {
+				builder.append(',');
+			}
+			builder.append('"').append(RollingWindow.getName(window)).append("\":{\"received\":").append(windows.getReceived(window));
+			builder.append(",\"missed\":").append(windows.getMissed(window));
+			builder.append(",\"incidents\":").append(windows.getIncidents(window));
+			builder.append(",\"seconds\":").append(windows.getSeconds(window));
+			builder.append('}');
+		}
+		builder.append('}');
+		if (latency != null) {
+			builder.append(",\"latency\":{\"count\":").append(latency.getCount());
+			builder.append(",\"p50Nanos\":").append(latency.getValueAtPercentile(50));
+			builder.append(",\"p99Nanos\":").append(latency.getValueAtPercentile(99));
+			builder.append(",\"p999Nanos\":").append(latency.getValueAtPercentile(99.9));
+			builder.append(",\"maxNanos\":").append(latency.getHistogram().getMax());
+			builder.append(",\"negative\":").append(latency.getNegativeCount());
+			builder.append('}');
+		}
+		builder.append('}');
+	}
+
+}
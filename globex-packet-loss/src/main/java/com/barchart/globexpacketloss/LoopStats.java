@@ -0,0 +1,40 @@
+package com.barchart.globexpacketloss;
+
+final class LoopStats {
+
+	private long busyCycles;
+
+	private long idleCycles;
+
+	public void busy() {
+		busyCycles++;
+	}
+
+	public void idle() {
+		idleCycles++;
+	}
+
+	public long getBusyCycles() {
+		return busyCycles;
+	}
+
+	public long getIdleCycles() {
+		return idleCycles;
+	}
+
+	public double getBusyPercentage() {
+		long total = busyCycles + idleCycles;
+		return total == 0 ? 0.0 : (busyCycles / (double) total) * 100.0;
+	}
+
+	public void copyFrom(LoopStats other) {
+		this.busyCycles = other.busyCycles;
+		this.idleCycles = other.idleCycles;
+	}
+
+	public void reset() {
+		this.busyCycles = 0L;
+		this.idleCycles = 0L;
+	}
+
+}
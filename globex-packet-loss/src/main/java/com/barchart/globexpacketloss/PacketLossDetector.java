@@ -9,22 +9,34 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.StandardProtocolFamily;
 import java.net.StandardSocketOptions;
-import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.MembershipKey;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.management.JMException;
+
+import com.barchart.globexpacketloss.incident.IncidentLog;
+import com.barchart.globexpacketloss.kernel.KernelUdpSampler;
+import com.barchart.globexpacketloss.metrics.ChannelStatistics;
+import com.barchart.globexpacketloss.metrics.MetricsPublisher;
+import com.barchart.globexpacketloss.metrics.PrometheusEndpoint;
 import com.barchart.globexpacketloss.multticast.MulticastReceiver;
+import com.barchart.globexpacketloss.multticast.ReceiveThreads;
 import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.net.HostAndPort;
@@ -35,154 +47,537 @@ public final class PacketLossDetector {
 
 	private static final long TIMEOUT = 100;
 
-	private static final long LOG_INTERVAL = TimeUnit.SECONDS.toMillis(30);
-
 	private static final long WARMUP_SECONDS = 1;
 
-	private final File configFile;
+	private static final long SHARD_TASK_TIMEOUT = 5;
+
+	private final CmeXmlConfig xmlConfig;
 
 	private final List<Integer> channelIds;
 
 	private final NetworkInterface bindInterface;
 
-	private final Selector selector;
+	private final DetectorOptions options;
+
+	private final List<SelectorShard> shards;
 
 	private final HashBasedTable<HostAndPort, MulticastReceiver, MembershipKey> membershipTable;
 
 	private final List<ChannelTracker> channelTrackers;
 
-	private final boolean packetLogging;
+	private final List<RecoveryFeedTracker> recoveryTrackers;
 
-	private final Clock clock;
+	/**
+	 * Shard of each joined channel, kept on the control side since the
+	 * shards change their own tracker lists on their threads.
+	 */
+	private final Map<Integer, SelectorShard> shardsByChannel;
 
-	private volatile boolean running = true;
+	private final Map<Integer, SelectorShard> recoveryShardsByChannel;
 
-	private long lastLogTime;
+	private final boolean packetLogging;
 
-	private final SimpleDateFormat dateFormat;
+	private volatile boolean running = true;
 
 	private final ChannelTracker totalTracker;
 
-	private final Calendar calendar;
+	private final GapEventLogger gapEventLogger;
+
+	private final MetricsPublisher metricsPublisher;
+
+	private final Map<Integer, ChannelStatistics> mbeans;
+
+	private final KernelUdpSampler kernelSampler;
 
 	public PacketLossDetector(NetworkInterface bindInterface, File configFile, List<Integer> channelIds, boolean packetLogging) throws Exception {
+		this(bindInterface, configFile, channelIds, packetLogging, new DetectorOptions());
+	}
+
+	public PacketLossDetector(NetworkInterface bindInterface, File configFile, List<Integer> channelIds, boolean packetLogging, DetectorOptions options)
+			throws Exception {
+		this(bindInterface, CmeXmlConfig.parse(configFile.toURI().toURL()), channelIds, packetLogging, options);
+	}
+
+	public PacketLossDetector(NetworkInterface bindInterface, CmeXmlConfig xmlConfig, List<Integer> channelIds, boolean packetLogging,
+			DetectorOptions options) throws Exception {
+		if (options.getReceiveMode() == DetectorOptions.ReceiveMode.THREADS && options.getCaptureDirectory() != null) {
+			throw new IllegalArgumentException("Capture is not supported in thread receive mode.");
+		}
 		this.bindInterface = bindInterface;
-		this.configFile = configFile;
+		this.xmlConfig = xmlConfig;
 		this.channelIds = channelIds;
-		this.selector = Selector.open();
+		this.options = options;
+		this.shards = new ArrayList<SelectorShard>();
 		this.membershipTable = HashBasedTable.create();
-		this.channelTrackers = new ArrayList<ChannelTracker>();
+		this.channelTrackers = new CopyOnWriteArrayList<ChannelTracker>();
+		this.recoveryTrackers = new CopyOnWriteArrayList<RecoveryFeedTracker>();
+		this.shardsByChannel = new HashMap<Integer, SelectorShard>();
+		this.recoveryShardsByChannel = new HashMap<Integer, SelectorShard>();
 		this.packetLogging = packetLogging;
-		this.clock = new Clock();
-		this.dateFormat = new SimpleDateFormat("YYYY-MM-dd HH:mm:ss:SSS");
-		this.dateFormat.setTimeZone(TimeZone.getTimeZone("America/Chicago"));
-		this.totalTracker = new ChannelTracker(clock, 0, null, null, packetLogging);
-		this.calendar = Calendar.getInstance();
+		this.totalTracker = new ChannelTracker(new Clock(), 0, null, null, packetLogging);
+		this.gapEventLogger = new GapEventLogger();
+		if (options.getCorrelationWindowMillis() > 0) {
+			gapEventLogger.enableCorrelation(options.getCorrelationWindowMillis());
+		}
+		this.metricsPublisher = options.isMetricsEnabled() ? new MetricsPublisher() : null;
+		this.mbeans = new HashMap<Integer, ChannelStatistics>();
+		this.kernelSampler = createKernelSampler(options);
+	}
+
+	private static KernelUdpSampler createKernelSampler(DetectorOptions options) {
+		if (options.getKernelSampleMillis() == 0) {
+			return null;
+		}
+		KernelUdpSampler sampler = new KernelUdpSampler(options.getKernelSampleMillis());
+		if (!sampler.isAvailable()) {
+			System.out.println("WARNING: Kernel UDP counters are not readable from /proc on this system.  Not sampling them.");
+			return null;
+		}
+		return sampler;
 	}
 
 	public void start() throws Exception {
 		addShutdownHook();
+		createShards();
 		createTrackers();
 		joinTrackers();
-		warmup();
-		while (running) {
-			int numberOfKeys = selector.select(TIMEOUT);
-			clock.update();
-			if (isTimeToLog()) {
-				logTrackers();
+		Reporter reporter = new Reporter(shards, channelTrackers, recoveryTrackers, totalTracker, options, metricsPublisher, kernelSampler);
+		if (kernelSampler != null) {
+			for (ChannelTracker tracker : channelTrackers) {
+				watchSockets(tracker);
+			}
+			kernelSampler.start();
+		}
+		// latency is recorded in every clock mode
+		ClockCalibrator calibrator = isThreadReceive() ? new ClockCalibrator(shards, channelTrackers, options.getClockCalibrationMillis())
+				: new ClockCalibrator(shards, options.getClockCalibrationMillis());
+		calibrator.start();
+		if (options.getIncidentDirectory() != null) {
+			gapEventLogger.setIncidentLog(new IncidentLog(options.getIncidentDirectory()));
+		}
+		gapEventLogger.start();
+		reporter.start();
+		PrometheusEndpoint prometheusEndpoint = null;
+		if (options.getMetricsPort() > 0) {
+			prometheusEndpoint = new PrometheusEndpoint(metricsPublisher, options.getMetricsPort());
+			prometheusEndpoint.start();
+		}
+		for (ChannelTracker tracker : channelTrackers) {
+			registerMBean(tracker.getChannelId());
+		}
+		ChannelControl control = null;
+		if (options.getControlPort() > 0) {
+			control = new ChannelControl(this, xmlConfig, options.getControlPort());
+			control.start();
+		}
+		try {
+			if (shards.size() == 1) {
+				runSingleShard(shards.get(0));
+			} else {
+				runShards();
+			}
+		} finally {
+			if (control != null) {
+				control.stop();
+			}
+			for (ChannelTracker tracker : channelTrackers) {
+				unregisterMBean(tracker.getChannelId());
+			}
+			if (prometheusEndpoint != null) {
+				prometheusEndpoint.stop();
 			}
-			if (numberOfKeys > 0) {
-				processSelectedKeys();
+			reporter.stop();
+			gapEventLogger.stop();
+			calibrator.stop();
+			if (kernelSampler != null) {
+				kernelSampler.stop();
 			}
 		}
 		dropTrackers();
 	}
 
-	private void warmup() throws IOException {
-		System.out.println("Warming up for " + WARMUP_SECONDS + " seconds.");
-		long stopWarmup = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WARMUP_SECONDS);
-		while (System.currentTimeMillis() < stopWarmup) {
-			selector.select(TIMEOUT);
-			Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-			ByteBuffer buffer = ByteBuffer.allocate(1500);
-			while (iter.hasNext()) {
-				SelectionKey key = iter.next();
-				DatagramChannel channel = (DatagramChannel) key.channel();
-				buffer.clear();
-				channel.receive(buffer);
-				iter.remove();
+	private void runSingleShard(SelectorShard shard) throws Exception {
+		shard.warmup();
+		try {
+			while (running) {
+				shard.poll();
 			}
+		} finally {
+			shard.closeCaptureJournal();
 		}
-		System.out.println("Done warming up.");
+	}
+
+	private void runShards() throws Exception {
+		System.out.println("Running " + shards.size() + " selector shards.");
+		for (SelectorShard shard : shards) {
+			shard.start();
+		}
+		for (SelectorShard shard : shards) {
+			shard.awaitWarmup(WARMUP_SECONDS + 1, TimeUnit.SECONDS);
+		}
+		try {
+			while (running) {
+				Thread.sleep(TIMEOUT);
+				checkShards();
+			}
+		} finally {
+			for (SelectorShard shard : shards) {
+				shard.stop();
+			}
+		}
+	}
+
+	private void checkShards() throws Exception {
+		for (SelectorShard shard : shards) {
+			Exception failure = shard.getFailure();
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	private void createShards() throws IOException {
+		String capturePrefix = "capture-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		ThreadFactory receiveThreads = isThreadReceive() ? createReceiveThreads() : null;
+		for (int i = 0; i < options.getShardCount(); i++) {
+			SelectorShard shard;
+			if (receiveThreads == null) {
+				shard = new SelectorShard(i, options.createIdleStrategy(), options.isPreciseClock());
+			} else {
+				// the shard thread only runs timers, tasks and snapshots
+				shard = new SelectorShard(i, new IdleStrategy(IdleStrategy.Mode.BLOCK, 0, 0, 1, 1), options.isPreciseClock());
+				shard.setReceiveThreads(receiveThreads);
+			}
+			if (options.getCaptureDirectory() != null) {
+				shard.openCaptureJournal(options.getCaptureDirectory(), capturePrefix, options.getCaptureSegmentSize());
+			}
+			shards.add(shard);
+		}
+		for (int i = 0; i < options.getRecoveryShards(); i++) {
+			// blocking, these feeds are not latency sensitive
+			shards.add(new SelectorShard(shards.size(), new IdleStrategy(IdleStrategy.Mode.BLOCK, 0, 0, 1, 1), options.isPreciseClock()));
+		}
+	}
+
+	private boolean isThreadReceive() {
+		return options.getReceiveMode() == DetectorOptions.ReceiveMode.THREADS;
+	}
+
+	private static ThreadFactory createReceiveThreads() {
+		ThreadFactory factory = ReceiveThreads.newVirtualThreadFactory();
+		if (factory != null) {
+			System.out.println("Receiving on a virtual thread per socket.");
+			return factory;
+		}
+		System.out.println("WARNING: Virtual threads need Java 21 and a build with the jdk21 profile.  Receiving on a platform thread per socket.");
+		return ReceiveThreads.newPlatformThreadFactory();
 	}
 
 	private void createTrackers() throws Exception {
-		CmeXmlConfig xmlConfig = CmeXmlConfig.parse(configFile.toURI().toURL());
-		for (Integer channelId : channelIds) {
-			HostAndPort incrementalFeedA = xmlConfig.getIncrementalFeedA(channelId);
-			HostAndPort incrementalFeedB = xmlConfig.getIncrementalFeedB(channelId);
-			ChannelTracker channelTracker = new ChannelTracker(clock, channelId, incrementalFeedA, incrementalFeedB, packetLogging);
+		for (int i = 0; i < channelIds.size(); i++) {
+			Integer channelId = channelIds.get(i);
+			SelectorShard shard = shards.get(options.getShardFor(channelId, i));
+			ChannelTracker channelTracker = createTracker(shard, channelId);
 			channelTrackers.add(channelTracker);
+			shardsByChannel.put(channelId, shard);
+			shard.addTracker(channelTracker);
+			gapEventLogger.register(channelTracker.getStatistics().getGapEvents());
+			if (options.getRecoveryShards() > 0) {
+				SelectorShard recoveryShard = getRecoveryShard(i);
+				recoveryShardsByChannel.put(channelId, recoveryShard);
+				for (RecoveryFeedTracker tracker : createRecoveryTrackers(recoveryShard, channelId)) {
+					recoveryTrackers.add(tracker);
+					recoveryShard.addRecoveryTracker(tracker);
+				}
+			}
+		}
+	}
+
+	/**
+	 * In thread receive mode the tracker gets a clock of its own and a lock
+	 * for its receive threads, instead of sharing the shard's clock.
+	 */
+	private ChannelTracker createTracker(SelectorShard shard, int channelId) {
+		HostAndPort incrementalFeedA = xmlConfig.getIncrementalFeedA(channelId);
+		HostAndPort incrementalFeedB = xmlConfig.getIncrementalFeedB(channelId);
+		if (!shard.isThreadReceive()) {
+			return new ChannelTracker(shard.getClock(), channelId, incrementalFeedA, incrementalFeedB, packetLogging, options);
 		}
+		Clock clock = new Clock(options.isPreciseClock());
+		clock.update();
+		ChannelTracker tracker = new ChannelTracker(clock, channelId, incrementalFeedA, incrementalFeedB, packetLogging, options);
+		tracker.enableLocking();
+		return tracker;
+	}
+
+	private SelectorShard getRecoveryShard(int position) {
+		return shards.get(options.getShardCount() + position % options.getRecoveryShards());
 	}
 
-	private void logTrackers() {
-		totalTracker.reset();
-		StringBuilder builder = new StringBuilder();
-		Date now = new Date();
+	private RecoveryFeedTracker[] createRecoveryTrackers(SelectorShard shard, int channelId) {
+		return new RecoveryFeedTracker[] {
+				new RecoveryFeedTracker(shard.getClock(), channelId, "snapshot", xmlConfig.getSnapshotFeedA(channelId), xmlConfig.getSnapshotFeedB(channelId),
+						options),
+				new RecoveryFeedTracker(shard.getClock(), channelId, "instrument", xmlConfig.getInstrumentFeedA(channelId),
+						xmlConfig.getInstrumentFeedB(channelId), options) };
+	}
+
+	/**
+	 * Joins a channel while the shards are running. The sockets are opened and
+	 * joined on the calling thread; each shard registers them with its selector
+	 * on its own thread, so no other channel is paused.
+	 */
+	public synchronized void addChannel(int channelId) throws Exception {
+		if (findTracker(channelId) != null) {
+			throw new IllegalArgumentException("Channel " + channelId + " is already joined.");
+		}
+		int position = channelTrackers.size();
+		final SelectorShard shard = shards.get(options.getShardFor(channelId, position));
+		final ChannelTracker tracker = createTracker(shard, channelId);
+		RecoveryFeedTracker[] recovery = null;
+		SelectorShard recoveryShard = null;
+		if (options.getRecoveryShards() > 0) {
+			recoveryShard = getRecoveryShard(position);
+			recovery = createRecoveryTrackers(recoveryShard, channelId);
+		}
+		if (shard.isThreadReceive()) {
+			attachReceiving(shard, tracker);
+		} else {
+			attach(shard, tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA(), tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB(),
+					new Runnable() {
+						@Override
+						public void run() {
+							shard.addTracker(tracker);
+						}
+					});
+		}
+		channelTrackers.add(tracker);
+		shardsByChannel.put(channelId, shard);
+		gapEventLogger.register(tracker.getStatistics().getGapEvents());
+		registerMBean(channelId);
+		if (kernelSampler != null) {
+			watchSockets(tracker);
+		}
+		System.out.println("Added channel " + channelId + " (shard " + shard.getIndex() + "): " + tracker.getFeedAHostAndPort() + ", "
+				+ tracker.getFeedBHostAndPort());
+		if (recovery != null) {
+			recoveryShardsByChannel.put(channelId, recoveryShard);
+			for (final RecoveryFeedTracker recoveryTracker : recovery) {
+				final SelectorShard targetShard = recoveryShard;
+				attach(targetShard, recoveryTracker.getFeedAHostAndPort(), recoveryTracker.getFeedReceiverA(), recoveryTracker.getFeedBHostAndPort(),
+						recoveryTracker.getFeedReceiverB(), new Runnable() {
+							@Override
+							public void run() {
+								targetShard.addRecoveryTracker(recoveryTracker);
+							}
+						});
+				recoveryTrackers.add(recoveryTracker);
+			}
+		}
+	}
 
-		String dateString = dateFormat.format(now);
-		builder.append(dateString + " - " + ChannelTracker.HEADER).append("\n");
+	/**
+	 * Leaves a channel while the shards are running. Its counters drop out of
+	 * the reports and totals.
+	 */
+	public synchronized void removeChannel(int channelId) throws Exception {
+		final ChannelTracker tracker = findTracker(channelId);
+		if (tracker == null) {
+			throw new IllegalArgumentException("Channel " + channelId + " is not joined.");
+		}
+		final SelectorShard shard = shardsByChannel.get(channelId);
+		detach(shard, tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA(), tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB(),
+				new Runnable() {
+					@Override
+					public void run() {
+						shard.removeTracker(tracker);
+					}
+				});
+		channelTrackers.remove(tracker);
+		shardsByChannel.remove(channelId);
+		gapEventLogger.unregister(tracker.getStatistics().getGapEvents());
+		unregisterMBean(channelId);
+		if (kernelSampler != null) {
+			kernelSampler.unwatch(tracker.getSocketBacklogA());
+			kernelSampler.unwatch(tracker.getSocketBacklogB());
+		}
+		final SelectorShard recoveryShard = recoveryShardsByChannel.remove(channelId);
+		for (final RecoveryFeedTracker recoveryTracker : recoveryTrackers) {
+			if (recoveryTracker.getChannelId() == channelId) {
+				detach(recoveryShard, recoveryTracker.getFeedAHostAndPort(), recoveryTracker.getFeedReceiverA(), recoveryTracker.getFeedBHostAndPort(),
+						recoveryTracker.getFeedReceiverB(), new Runnable() {
+							@Override
+							public void run() {
+								recoveryShard.removeRecoveryTracker(recoveryTracker);
+							}
+						});
+				recoveryTrackers.remove(recoveryTracker);
+			}
+		}
+		System.out.println("Removed channel " + channelId + ".");
+	}
 
+	public synchronized List<Integer> getChannelIds() {
+		List<Integer> list = new ArrayList<Integer>();
 		for (ChannelTracker tracker : channelTrackers) {
-			builder.append(dateString + " - " + tracker.toString()).append("\n");
-			totalTracker.getStatistics().plusEquals(tracker.getStatistics());
+			list.add(tracker.getChannelId());
 		}
-		builder.append(dateString + " - " + totalTracker.toString()).append("\n");
+		Collections.sort(list);
+		return list;
+	}
 
-		System.out.println(builder.toString());
+	private ChannelTracker findTracker(int channelId) {
+		for (ChannelTracker tracker : channelTrackers) {
+			if (tracker.getChannelId() == channelId) {
+				return tracker;
+			}
+		}
+		return null;
+	}
 
-		checkForReset(now);
+	private void attach(final SelectorShard shard, HostAndPort feedA, final MulticastReceiver receiverA, HostAndPort feedB,
+			final MulticastReceiver receiverB, final Runnable addToShard) throws Exception {
+		final DatagramChannel channelA = openMulticast(feedA, receiverA);
+		try {
+			final DatagramChannel channelB = openMulticast(feedB, receiverB);
+			runOnShard(shard, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					channelA.register(shard.getSelector(), SelectionKey.OP_READ, receiverA);
+					channelB.register(shard.getSelector(), SelectionKey.OP_READ, receiverB);
+					addToShard.run();
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			leaveMulticast(feedA, receiverA);
+			if (membershipTable.contains(feedB, receiverB)) {
+				leaveMulticast(feedB, receiverB);
+			}
+			throw e;
+		}
+	}
 
+	/**
+	 * Thread receive mode counterpart of
+	 * {@link #attach(SelectorShard, HostAndPort, MulticastReceiver, HostAndPort, MulticastReceiver, Runnable)}
+	 * : the shard starts the tracker's timers, then its sockets get receive
+	 * threads.
+	 */
+	private void attachReceiving(final SelectorShard shard, final ChannelTracker tracker) throws Exception {
+		final DatagramChannel channelA = openMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA());
+		try {
+			final DatagramChannel channelB = openMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB());
+			runOnShard(shard, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					shard.addTracker(tracker);
+					return null;
+				}
+			});
+			shard.startReceiving(tracker, channelA, channelB);
+		} catch (Exception e) {
+			leaveMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA());
+			if (membershipTable.contains(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB())) {
+				leaveMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB());
+			}
+			throw e;
+		}
 	}
 
-	private void checkForReset(Date now) {
-		int oldHour = calendar.get(Calendar.HOUR_OF_DAY);
-		calendar.setTime(now);
-		int newHour = calendar.get(Calendar.HOUR_OF_DAY);
-		if (newHour != oldHour) {
-			for (ChannelTracker tracker : channelTrackers) {
-				tracker.reset();
+	private void detach(final SelectorShard shard, HostAndPort feedA, final MulticastReceiver receiverA, HostAndPort feedB,
+			final MulticastReceiver receiverB, final Runnable removeFromShard) throws Exception {
+		runOnShard(shard, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				removeFromShard.run();
+				shard.cancelKeys(receiverA);
+				shard.cancelKeys(receiverB);
+				return null;
 			}
+		});
+		leaveMulticast(feedA, receiverA);
+		leaveMulticast(feedB, receiverB);
+	}
+
+	private void runOnShard(SelectorShard shard, Callable<Void> task) throws Exception {
+		FutureTask<Void> future = new FutureTask<Void>(task);
+		shard.execute(future);
+		try {
+			future.get(SHARD_TASK_TIMEOUT, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw new IllegalStateException("Shard " + shard.getIndex() + " did not respond in " + SHARD_TASK_TIMEOUT + " s.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
 		}
 	}
 
-	private boolean isTimeToLog() {
-		long now = System.currentTimeMillis();
-		if (now - lastLogTime > LOG_INTERVAL) {
-			lastLogTime = now;
-			return true;
-		} else {
-			return false;
+	private void watchSockets(ChannelTracker tracker) throws IOException {
+		kernelSampler.watch(tracker.getFeedAHostAndPort(), tracker.getSocketBacklogA());
+		kernelSampler.watch(tracker.getFeedBHostAndPort(), tracker.getSocketBacklogB());
+	}
+
+	private void registerMBean(int channelId) throws JMException {
+		if (options.isJmx()) {
+			ChannelStatistics mbean = new ChannelStatistics(channelId, metricsPublisher);
+			mbean.register();
+			mbeans.put(channelId, mbean);
+		}
+	}
+
+	private void unregisterMBean(int channelId) throws JMException {
+		ChannelStatistics mbean = mbeans.remove(channelId);
+		if (mbean != null) {
+			mbean.unregister();
 		}
 	}
 
 	private void joinTrackers() throws IOException {
-		for (ChannelTracker tracker : channelTrackers) {
-			System.out.println("Channel " + tracker.getChannelId() + ": " + tracker.getFeedAHostAndPort() + ", " + tracker.getFeedBHostAndPort());
-			joinMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA());
-			joinMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB());
+		for (SelectorShard shard : shards) {
+			for (ChannelTracker tracker : shard.getTrackers()) {
+				System.out.println("Channel " + tracker.getChannelId() + " (shard " + shard.getIndex() + "): " + tracker.getFeedAHostAndPort() + ", "
+						+ tracker.getFeedBHostAndPort());
+				if (shard.isThreadReceive()) {
+					shard.startReceiving(tracker, openMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA()),
+							openMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB()));
+				} else {
+					joinMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA(), shard.getSelector());
+					joinMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB(), shard.getSelector());
+				}
+			}
+			for (RecoveryFeedTracker tracker : shard.getRecoveryTrackers()) {
+				System.out.println("Channel " + tracker.getChannelId() + " " + tracker.getFeed() + " (shard " + shard.getIndex() + "): "
+						+ tracker.getFeedAHostAndPort() + ", " + tracker.getFeedBHostAndPort());
+				joinMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA(), shard.getSelector());
+				joinMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB(), shard.getSelector());
+			}
 		}
 	}
 
-	private void dropTrackers() {
+	private synchronized void dropTrackers() {
 		for (ChannelTracker tracker : channelTrackers) {
 			leaveMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA());
 			leaveMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB());
 		}
+		for (RecoveryFeedTracker tracker : recoveryTrackers) {
+			leaveMulticast(tracker.getFeedAHostAndPort(), tracker.getFeedReceiverA());
+			leaveMulticast(tracker.getFeedBHostAndPort(), tracker.getFeedReceiverB());
+		}
+	}
+
+	private void joinMulticast(HostAndPort multicastInfo, MulticastReceiver receiver, Selector selector) throws IOException {
+		DatagramChannel channel = openMulticast(multicastInfo, receiver);
+		SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ);
+		selectionKey.attach(receiver);
 	}
 
-	private void joinMulticast(HostAndPort multicastInfo, MulticastReceiver receiver) throws IOException {
+	/**
+	 * Opens and joins the group, but leaves registering with a selector to the
+	 * caller.
+	 */
+	private DatagramChannel openMulticast(HostAndPort multicastInfo, MulticastReceiver receiver) throws IOException {
 		InetAddress group = InetAddress.getByName(multicastInfo.getHostText());
 		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
 		channel.configureBlocking(false);
@@ -199,11 +594,9 @@ public final class PacketLossDetector {
 		channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, bindInterface);
 		MembershipKey membershipKey = channel.join(group, bindInterface);
 		membershipTable.put(multicastInfo, receiver, membershipKey);
-		SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ);
-		selectionKey.attach(receiver);
 
 		checkBufferSize(channel);
-
+		return channel;
 	}
 
 	private void checkBufferSize(DatagramChannel channel) throws IOException {
@@ -218,6 +611,11 @@ public final class PacketLossDetector {
 		MembershipKey membershipKey = membershipTable.remove(multicastInfo, receiver);
 		if (membershipKey != null) {
 			membershipKey.drop();
+			try {
+				membershipKey.channel().close();
+			} catch (IOException e) {
+				System.err.println("Problem closing " + multicastInfo + ": " + e);
+			}
 		} else {
 			System.err.println("No membership key for " + multicastInfo + ", " + receiver);
 		}
@@ -239,25 +637,9 @@ public final class PacketLossDetector {
 		});
 	}
 
-	private void processSelectedKeys() throws Exception {
-		Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-		while (iter.hasNext()) {
-			SelectionKey key = iter.next();
-			processKey(key);
-			iter.remove();
-		}
-	}
-
-	private void processKey(SelectionKey key) throws Exception {
-		if (key.isValid()) {
-			DatagramChannel channel = (DatagramChannel) key.channel();
-			MulticastReceiver receiver = (MulticastReceiver) key.attachment();
-			receiver.receiveFrom(channel);
-		}
-	}
-
 	private static void printUsage() throws SocketException {
 		System.out.println("Usage: PacketLossDetector <bindInterface> <config.xml> <channelIds>");
+		System.out.println("  <channelIds> - all, or a comma separated list of ids and ranges, e.g. 7,8,310-320");
 		System.out.println("Available interfaces:");
 		for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
 			System.out.println("\t" + iface + " - IPV4: " + getFirstInet4Address(iface));
@@ -281,15 +663,6 @@ public final class PacketLossDetector {
 		return iface;
 	}
 
-	private static List<Integer> getChannels(String str) {
-		List<Integer> list = new ArrayList<Integer>();
-		for (String s : str.split(",")) {
-			list.add(Integer.parseInt(s));
-		}
-		Collections.sort(list);
-		return list;
-	}
-
 	private boolean isWindows() {
 		return System.getProperty("os.name").contains("Windows");
 	}
@@ -307,11 +680,13 @@ public final class PacketLossDetector {
 			printUsage();
 		} else {
 			NetworkInterface bindInterface = getNetworkInterface(args[0]);
-			File configFile = new File(args[1]);
-			List<Integer> channelIds = getChannels(args[2]);
+			CmeXmlConfig xmlConfig = CmeXmlConfig.parse(new File(args[1]).toURI().toURL());
+			List<Integer> channelIds = xmlConfig.selectChannels(args[2]);
 			System.out.println("Using interface: " + bindInterface);
 			boolean packetLogging = checkForPacketLogging(args);
-			PacketLossDetector packetLossDetector = new PacketLossDetector(bindInterface, configFile, channelIds, packetLogging);
+			DetectorOptions options = DetectorOptions.fromSystemProperties();
+			System.out.println("Channels: " + channelIds);
+			PacketLossDetector packetLossDetector = new PacketLossDetector(bindInterface, xmlConfig, channelIds, packetLogging, options);
 			packetLossDetector.start();
 		}
 	}
@@ -0,0 +1,130 @@
+package com.barchart.globexpacketloss;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.barchart.globexpacketloss.multticast.CycleStats;
+import com.barchart.globexpacketloss.multticast.PoolingMulticastReceiver;
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+import com.google.common.net.HostAndPort;
+
+/**
+ * Watches the A and B lines of one recovery feed (snapshot or instrument
+ * definition) of a channel. There is no arbitration; each line is checked on
+ * its own for gaps within a loop, and the loops are timed.
+ */
+public final class RecoveryFeedTracker {
+
+	private static final long INT_MASK = 0xffffffffL;
+
+	private static final int MAX_PACKET_SIZE = 1500;
+
+	private static final int POOL_SIZE = 256;
+
+	private final int channelId;
+
+	private final String feed;
+
+	private final HostAndPort feedAHostAndPort;
+
+	private final HostAndPort feedBHostAndPort;
+
+	private final Clock clock;
+
+	private final CycleStats aStats;
+
+	private final CycleStats bStats;
+
+	private final CycleStats aSnapshot;
+
+	private final CycleStats bSnapshot;
+
+	private final PoolingMulticastReceiver aFeedReceiver;
+
+	private final PoolingMulticastReceiver bFeedReceiver;
+
+	/**
+	 * @param feed
+	 *            name for reports, e.g. <code>snapshot</code>
+	 */
+	public RecoveryFeedTracker(Clock clock, int channelId, String feed, HostAndPort feedAHostAndPort, HostAndPort feedBHostAndPort, DetectorOptions options) {
+		this.clock = clock;
+		this.channelId = channelId;
+		this.feed = feed;
+		this.feedAHostAndPort = feedAHostAndPort;
+		this.feedBHostAndPort = feedBHostAndPort;
+		this.aStats = new CycleStats();
+		this.bStats = new CycleStats();
+		this.aSnapshot = new CycleStats();
+		this.bSnapshot = new CycleStats();
+		this.aFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN, Math.min(options.getReceiveBatch(),
+				POOL_SIZE / 2)) {
+			@Override
+			protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+				receive(aStats, buffer);
+			}
+		};
+		this.bFeedReceiver = new PoolingMulticastReceiver(POOL_SIZE, MAX_PACKET_SIZE, ByteOrder.LITTLE_ENDIAN, Math.min(options.getReceiveBatch(),
+				POOL_SIZE / 2)) {
+			@Override
+			protected void receiveByteBuffer(ByteBuffer buffer) throws Exception {
+				receive(bStats, buffer);
+			}
+		};
+		if (clock.isPrecise()) {
+			aFeedReceiver.setReceiveClock(clock);
+			bFeedReceiver.setReceiveClock(clock);
+		}
+	}
+
+	private void receive(CycleStats stats, ByteBuffer buffer) {
+		if (buffer.limit() >= 4) {
+			stats.receive(buffer.getInt(0) & INT_MASK, clock.getNanoTime());
+		}
+	}
+
+	/**
+	 * Must be called from the thread that receives for this tracker.
+	 */
+	public void takeSnapshot() {
+		aSnapshot.copyFrom(aStats);
+		bSnapshot.copyFrom(bStats);
+	}
+
+	public CycleStats getASnapshot() {
+		return aSnapshot;
+	}
+
+	public CycleStats getBSnapshot() {
+		return bSnapshot;
+	}
+
+	public String toSnapshotString() {
+		return String.format("Channel %3d %-10s | A %s | B %s", channelId, feed, aSnapshot, bSnapshot);
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	public String getFeed() {
+		return feed;
+	}
+
+	public HostAndPort getFeedAHostAndPort() {
+		return feedAHostAndPort;
+	}
+
+	public HostAndPort getFeedBHostAndPort() {
+		return feedBHostAndPort;
+	}
+
+	public PoolingMulticastReceiver getFeedReceiverA() {
+		return aFeedReceiver;
+	}
+
+	public PoolingMulticastReceiver getFeedReceiverB() {
+		return bFeedReceiver;
+	}
+
+}
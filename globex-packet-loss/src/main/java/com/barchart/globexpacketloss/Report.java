@@ -0,0 +1,73 @@
+package com.barchart.globexpacketloss;
+
+import java.util.Date;
+import java.util.List;
+
+import com.barchart.globexpacketloss.kernel.KernelUdpSampler;
+
+/**
+ * One reporting interval: the trackers' published snapshots plus their
+ * roll-up in the total tracker's live statistics.
+ */
+final class Report {
+
+	private final Date time;
+
+	private final List<ChannelTracker> trackers;
+
+	private final List<RecoveryFeedTracker> recoveryTrackers;
+
+	private final ChannelTracker total;
+
+	private final List<SelectorShard> shards;
+
+	private final DetectorOptions options;
+
+	private final KernelUdpSampler kernelSampler;
+
+	Report(Date time, List<ChannelTracker> trackers, List<RecoveryFeedTracker> recoveryTrackers, ChannelTracker total, List<SelectorShard> shards,
+			DetectorOptions options, KernelUdpSampler kernelSampler) {
+		this.time = time;
+		this.trackers = trackers;
+		this.recoveryTrackers = recoveryTrackers;
+		this.total = total;
+		this.shards = shards;
+		this.options = options;
+		this.kernelSampler = kernelSampler;
+	}
+
+	public Date getTime() {
+		return time;
+	}
+
+	public List<ChannelTracker> getTrackers() {
+		return trackers;
+	}
+
+	/**
+	 * Snapshot and instrument definition feeds, empty unless monitored.
+	 */
+	public List<RecoveryFeedTracker> getRecoveryTrackers() {
+		return recoveryTrackers;
+	}
+
+	public ChannelTracker getTotal() {
+		return total;
+	}
+
+	public List<SelectorShard> getShards() {
+		return shards;
+	}
+
+	public DetectorOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return null unless kernel UDP counters are sampled
+	 */
+	public KernelUdpSampler getKernelSampler() {
+		return kernelSampler;
+	}
+
+}
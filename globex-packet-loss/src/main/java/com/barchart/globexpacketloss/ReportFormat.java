@@ -0,0 +1,9 @@
+package com.barchart.globexpacketloss;
+
+import java.io.PrintStream;
+
+interface ReportFormat {
+
+	void write(Report report, PrintStream out);
+
+}
@@ -0,0 +1,173 @@
+package com.barchart.globexpacketloss;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.kernel.KernelUdpSampler;
+import com.barchart.globexpacketloss.metrics.ChannelMetrics;
+import com.barchart.globexpacketloss.metrics.MetricsPublisher;
+import com.barchart.globexpacketloss.metrics.MetricsSnapshot;
+
+/**
+ * Builds the periodic report on its own thread. It asks every shard for a
+ * snapshot, waits for them to be published and formats from the snapshots,
+ * so the selector threads only pay for copying counters. Counters are never
+ * reset; the reports carry lifetime totals and rolling window figures.
+ * <p>
+ * This is the only thread that requests snapshots. When metrics are enabled it
+ * snapshots more often than it reports and publishes an immutable copy of the
+ * counters after each round for the HTTP and JMX readers.
+ */
+final class Reporter implements Runnable {
+
+	private static final long LOG_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+	private static final long SNAPSHOT_TIMEOUT = TimeUnit.SECONDS.toMillis(2);
+
+	private final List<SelectorShard> shards;
+
+	private final List<ChannelTracker> trackers;
+
+	private final List<RecoveryFeedTracker> recoveryTrackers;
+
+	private final ChannelTracker totalTracker;
+
+	private final DetectorOptions options;
+
+	private final List<ReportFormat> formats;
+
+	private final List<PrintStream> outputs;
+
+	private final MetricsPublisher metricsPublisher;
+
+	private final KernelUdpSampler kernelSampler;
+
+	private final long snapshotInterval;
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+	Reporter(List<SelectorShard> shards, List<ChannelTracker> trackers, List<RecoveryFeedTracker> recoveryTrackers, ChannelTracker totalTracker,
+			DetectorOptions options, MetricsPublisher metricsPublisher, KernelUdpSampler kernelSampler) throws IOException {
+		this.shards = shards;
+		this.trackers = trackers;
+		this.recoveryTrackers = recoveryTrackers;
+		this.totalTracker = totalTracker;
+		this.options = options;
+		this.formats = new ArrayList<ReportFormat>();
+		this.outputs = new ArrayList<PrintStream>();
+		this.metricsPublisher = metricsPublisher;
+		this.kernelSampler = kernelSampler;
+		this.snapshotInterval = metricsPublisher != null ? Math.min(LOG_INTERVAL, options.getMetricsIntervalMillis()) : LOG_INTERVAL;
+		for (String entry : options.getReport().split(",")) {
+			addOutput(entry.trim());
+		}
+	}
+
+	private void addOutput(String entry) throws IOException {
+		int colon = entry.indexOf(':');
+		String name = colon < 0 ? entry : entry.substring(0, colon);
+		PrintStream out = colon < 0 ? System.out : new PrintStream(new FileOutputStream(entry.substring(colon + 1), true), false, "UTF-8");
+		switch (name.toLowerCase()) {
+		case "table":
+			formats.add(new TableReport());
+			break;
+		case "jsonl":
+			formats.add(new JsonLinesReport());
+			break;
+		case "csv":
+			formats.add(new CsvReport());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown report format: " + name + ".  Expected table, jsonl or csv.");
+		}
+		outputs.add(out);
+	}
+
+	public void start() {
+		thread = new Thread(this, "reporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+		for (PrintStream out : outputs) {
+			if (out != System.out) {
+				out.close();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		long nextSnapshotTime = System.currentTimeMillis();
+		long nextLogTime = nextSnapshotTime;
+		while (running) {
+			try {
+				long wait = nextSnapshotTime - System.currentTimeMillis();
+				if (wait > 0) {
+					Thread.sleep(wait);
+				}
+				nextSnapshotTime += snapshotInterval;
+				Date now = new Date();
+				boolean logDue = now.getTime() >= nextLogTime;
+				requestSnapshots();
+				if (metricsPublisher != null) {
+					publishMetrics(now);
+				}
+				if (logDue) {
+					nextLogTime += LOG_INTERVAL;
+					report(now);
+				}
+			} catch (InterruptedException e) {
+				break;
+			} catch (RuntimeException e) {
+				System.err.println("Problem writing report.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void report(Date now) {
+		totalTracker.reset();
+		for (ChannelTracker tracker : trackers) {
+			totalTracker.getStatistics().plusEquals(tracker.getSnapshot());
+		}
+		Report report = new Report(now, trackers, recoveryTrackers, totalTracker, shards, options, kernelSampler);
+		for (int i = 0; i < formats.size(); i++) {
+			formats.get(i).write(report, outputs.get(i));
+		}
+	}
+
+	private void publishMetrics(Date now) {
+		List<ChannelMetrics> channels = new ArrayList<ChannelMetrics>(trackers.size());
+		for (ChannelTracker tracker : trackers) {
+			channels.add(new ChannelMetrics(tracker.getChannelId(), tracker.getSnapshot()));
+		}
+		metricsPublisher.publish(new MetricsSnapshot(now.getTime(), channels));
+	}
+
+	private void requestSnapshots() throws InterruptedException {
+		long[] requests = new long[shards.size()];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = shards.get(i).requestSnapshot();
+		}
+		for (int i = 0; i < requests.length; i++) {
+			if (!shards.get(i).awaitSnapshot(requests[i], SNAPSHOT_TIMEOUT)) {
+				System.err.println("WARNING: Shard " + i + " did not publish a snapshot in " + SNAPSHOT_TIMEOUT + " ms.  Reporting stale figures.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,385 @@
+package com.barchart.globexpacketloss;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.barchart.globexpacketloss.capture.CaptureJournal;
+import com.barchart.globexpacketloss.multticast.BlockingReceiveLoop;
+import com.barchart.globexpacketloss.multticast.MulticastReceiver;
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+import com.barchart.globexpacketloss.multticast.arbitrage.TimerWheel;
+
+/**
+ * One selector thread and the trackers whose channels are registered with it.
+ * Trackers are only ever touched from the shard's own thread; other threads
+ * read their statistics through snapshots published on request.
+ * <p>
+ * In thread receive mode each socket is instead read by a thread of its own,
+ * which dispatches holding its tracker's lock. The shard thread then only
+ * runs timers, tasks and snapshots, taking the same lock.
+ */
+final class SelectorShard implements Runnable {
+
+	private static final long TIMEOUT = 100;
+
+	private static final long WARMUP_SECONDS = 1;
+
+	private final int index;
+
+	private final Selector selector;
+
+	private final Clock clock;
+
+	private final List<ChannelTracker> trackers;
+
+	private final List<RecoveryFeedTracker> recoveryTrackers;
+
+	private final CountDownLatch warmedUp;
+
+	private final IdleStrategy idleStrategy;
+
+	private final LoopStats loopStats;
+
+	private final LoopStats loopSnapshot;
+
+	private final Queue<Runnable> tasks;
+
+	private final TimerWheel timerWheel;
+
+	private volatile boolean running = true;
+
+	private volatile long snapshotRequest;
+
+	private volatile long snapshotPublished;
+
+	private volatile Exception failure;
+
+	private volatile Exception receiveFailure;
+
+	private ThreadFactory receiveThreads;
+
+	private Thread thread;
+
+	private CaptureJournal captureJournal;
+
+	SelectorShard(int index, IdleStrategy idleStrategy) throws IOException {
+		this(index, idleStrategy, false);
+	}
+
+	/**
+	 * @param preciseClock
+	 *            stamp every packet with the monotonic clock instead of
+	 *            reading the wall clock once per wakeup
+	 */
+	SelectorShard(int index, IdleStrategy idleStrategy, boolean preciseClock) throws IOException {
+		this.index = index;
+		this.idleStrategy = idleStrategy;
+		this.loopStats = new LoopStats();
+		this.loopSnapshot = new LoopStats();
+		this.selector = Selector.open();
+		this.clock = new Clock(preciseClock);
+		this.trackers = new ArrayList<ChannelTracker>();
+		this.recoveryTrackers = new ArrayList<RecoveryFeedTracker>();
+		this.warmedUp = new CountDownLatch(1);
+		this.tasks = new ConcurrentLinkedQueue<Runnable>();
+		this.timerWheel = new TimerWheel(System.currentTimeMillis());
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Selector getSelector() {
+		return selector;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Changed on the shard's own thread once it runs, so only to be read there
+	 * or before {@link #start()}.
+	 */
+	public List<ChannelTracker> getTrackers() {
+		return trackers;
+	}
+
+	public List<RecoveryFeedTracker> getRecoveryTrackers() {
+		return recoveryTrackers;
+	}
+
+	public LoopStats getLoopSnapshot() {
+		return loopSnapshot;
+	}
+
+	public String toLoopSnapshotString() {
+		return String.format("Shard %3d | %-5s | %12d cycles, %6.2f%% busy, %6.2f%% idle", index, idleStrategy.getMode(),
+				loopSnapshot.getBusyCycles() + loopSnapshot.getIdleCycles(), loopSnapshot.getBusyPercentage(), 100.0 - loopSnapshot.getBusyPercentage());
+	}
+
+	public void addTracker(ChannelTracker tracker) {
+		trackers.add(tracker);
+		if (captureJournal != null) {
+			tracker.setCaptureJournal(captureJournal, clock);
+		}
+		tracker.startTimers(timerWheel);
+	}
+
+	public void removeTracker(ChannelTracker tracker) {
+		trackers.remove(tracker);
+		tracker.stopTimers();
+	}
+
+	/**
+	 * Recovery feeds are not captured.
+	 */
+	public void addRecoveryTracker(RecoveryFeedTracker tracker) {
+		recoveryTrackers.add(tracker);
+	}
+
+	public void removeRecoveryTracker(RecoveryFeedTracker tracker) {
+		recoveryTrackers.remove(tracker);
+	}
+
+	/**
+	 * Cancels the selection keys of the receiver's sockets. Must run on the
+	 * shard's own thread.
+	 */
+	public void cancelKeys(MulticastReceiver receiver) {
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() == receiver) {
+				key.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Runs the task on the shard's own thread before it next processes keys.
+	 * Trackers and selector registrations are changed this way once the shard
+	 * is running.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Switches the shard to thread receive mode. Must be called before any
+	 * tracker is added.
+	 */
+	public void setReceiveThreads(ThreadFactory receiveThreads) {
+		this.receiveThreads = receiveThreads;
+	}
+
+	public boolean isThreadReceive() {
+		return receiveThreads != null;
+	}
+
+	/**
+	 * Starts a receive thread for each of the tracker's joined sockets. The
+	 * threads end when the sockets are closed.
+	 */
+	public void startReceiving(ChannelTracker tracker, DatagramChannel channelA, DatagramChannel channelB) throws IOException {
+		Thread.UncaughtExceptionHandler failureHandler = new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable e) {
+				receiveFailure = e instanceof Exception ? (Exception) e : new IllegalStateException(e);
+				selector.wakeup();
+			}
+		};
+		new BlockingReceiveLoop(channelA, tracker.getFeedReceiverA(), tracker.getLock(), tracker.getClock()).start(receiveThreads,
+				"receive-" + tracker.getChannelId() + "-A", failureHandler);
+		new BlockingReceiveLoop(channelB, tracker.getFeedReceiverB(), tracker.getLock(), tracker.getClock()).start(receiveThreads,
+				"receive-" + tracker.getChannelId() + "-B", failureHandler);
+	}
+
+	public void openCaptureJournal(File directory, String prefix, int segmentSize) throws IOException {
+		captureJournal = new CaptureJournal(directory, prefix + "-shard" + index, segmentSize);
+		System.out.println("Shard " + index + " capturing packets to " + directory);
+	}
+
+	public void closeCaptureJournal() {
+		if (captureJournal != null) {
+			try {
+				captureJournal.close();
+			} catch (IOException e) {
+				System.err.println("Shard " + index + " could not close its capture journal: " + e);
+			}
+			System.out.println("Shard " + index + " captured " + captureJournal.getRecordCount() + " packets in " + (captureJournal.getSegmentNumber() + 1)
+					+ " segments" + (captureJournal.getDroppedCount() > 0 ? ", " + captureJournal.getDroppedCount() + " dropped for lack of disk space." : "."));
+		}
+	}
+
+	public void start() {
+		thread = new Thread(this, "selector-shard-" + index);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			selector.wakeup();
+			thread.join();
+		}
+	}
+
+	public Exception getFailure() {
+		return failure;
+	}
+
+	public boolean awaitWarmup(long timeout, TimeUnit unit) throws InterruptedException {
+		return warmedUp.await(timeout, unit);
+	}
+
+	@Override
+	public void run() {
+		try {
+			warmup();
+			while (running) {
+				poll();
+			}
+		} catch (Exception e) {
+			System.err.println("Shard " + index + " failed.");
+			e.printStackTrace();
+			failure = e;
+			running = false;
+		} finally {
+			closeCaptureJournal();
+		}
+	}
+
+	public void warmup() throws IOException {
+		System.out.println("Shard " + index + " warming up for " + WARMUP_SECONDS + " seconds.");
+		long stopWarmup = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WARMUP_SECONDS);
+		ByteBuffer buffer = ByteBuffer.allocate(1500);
+		while (System.currentTimeMillis() < stopWarmup) {
+			selector.select(TIMEOUT);
+			Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+			while (iter.hasNext()) {
+				SelectionKey key = iter.next();
+				DatagramChannel channel = (DatagramChannel) key.channel();
+				buffer.clear();
+				channel.receive(buffer);
+				iter.remove();
+			}
+		}
+		System.out.println("Shard " + index + " done warming up.");
+		warmedUp.countDown();
+	}
+
+	public void poll() throws Exception {
+		if (receiveFailure != null) {
+			throw receiveFailure;
+		}
+		int numberOfKeys;
+		if (idleStrategy.isBlocking()) {
+			// sleep through ticks without timers; select(0) would block for good
+			long timeout = timerWheel.millisUntilNextDeadline(System.currentTimeMillis(), TIMEOUT);
+			numberOfKeys = timeout > 0 ? selector.select(timeout) : selector.selectNow();
+		} else {
+			numberOfKeys = selector.selectNow();
+		}
+		clock.update();
+		timerWheel.advance(clock.getTime());
+		if (snapshotRequest != snapshotPublished) {
+			publishSnapshot();
+		}
+		if (!tasks.isEmpty()) {
+			runTasks();
+		}
+		if (numberOfKeys > 0) {
+			loopStats.busy();
+			idleStrategy.reset();
+			processSelectedKeys();
+		} else {
+			loopStats.idle();
+			idleStrategy.idle();
+		}
+	}
+
+	/**
+	 * Copies every tracker's statistics into its snapshot. Must run on the
+	 * shard's own thread.
+	 */
+	public void publishSnapshot() {
+		long request = snapshotRequest;
+		for (ChannelTracker tracker : trackers) {
+			Lock lock = tracker.getLock();
+			if (lock == null) {
+				tracker.takeSnapshot();
+			} else {
+				lock.lock();
+				try {
+					// the tracker's own clock only moves with its packets
+					tracker.getClock().update();
+					tracker.takeSnapshot();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		for (RecoveryFeedTracker tracker : recoveryTrackers) {
+			tracker.takeSnapshot();
+		}
+		loopSnapshot.copyFrom(loopStats);
+		snapshotPublished = request;
+	}
+
+	public long requestSnapshot() {
+		long request = snapshotRequest + 1;
+		snapshotRequest = request;
+		selector.wakeup();
+		return request;
+	}
+
+	public boolean awaitSnapshot(long request, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (snapshotPublished < request) {
+			if (!running || System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void processSelectedKeys() throws Exception {
+		Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+		while (iter.hasNext()) {
+			SelectionKey key = iter.next();
+			processKey(key);
+			iter.remove();
+		}
+	}
+
+	private void processKey(SelectionKey key) throws Exception {
+		if (key.isValid()) {
+			DatagramChannel channel = (DatagramChannel) key.channel();
+			MulticastReceiver receiver = (MulticastReceiver) key.attachment();
+			receiver.receiveFrom(channel);
+		}
+	}
+
+}
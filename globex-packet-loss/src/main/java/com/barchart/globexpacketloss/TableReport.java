@@ -0,0 +1,89 @@
+package com.barchart.globexpacketloss;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * The human readable console table.
+ */
+final class TableReport implements ReportFormat {
+
+	private final SimpleDateFormat dateFormat;
+
+	TableReport() {
+		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("America/Chicago"));
+	}
+
+	@Override
+	public void write(Report report, PrintStream out) {
+		StringBuilder builder = new StringBuilder();
+
+		String dateString = dateFormat.format(report.getTime());
+		builder.append(dateString + " - " + ChannelTracker.HEADER).append("\n");
+
+		for (ChannelTracker tracker : report.getTrackers()) {
+			builder.append(dateString + " - " + tracker.toSnapshotString()).append("\n");
+		}
+		builder.append(dateString + " - " + report.getTotal().toString()).append("\n");
+
+		for (ChannelTracker tracker : report.getTrackers()) {
+			builder.append(dateString + " - " + tracker.toWindowSnapshotString()).append("\n");
+		}
+		builder.append(dateString + " - " + report.getTotal().toWindowString()).append("\n");
+
+		for (ChannelTracker tracker : report.getTrackers()) {
+			builder.append(dateString + " - " + tracker.toLatencySnapshotString()).append("\n");
+		}
+		builder.append(dateString + " - " + report.getTotal().toLatencyString()).append("\n");
+
+		for (RecoveryFeedTracker tracker : report.getRecoveryTrackers()) {
+			builder.append(dateString + " - " + tracker.toSnapshotString()).append("\n");
+		}
+
+		for (SelectorShard shard : report.getShards()) {
+			builder.append(dateString + " - " + shard.toLoopSnapshotString()).append("\n");
+		}
+
+		if (report.getKernelSampler() != null) {
+			for (ChannelTracker tracker : report.getTrackers()) {
+				builder.append(dateString + " - " + tracker.toKernelSnapshotString()).append("\n");
+			}
+			builder.append(dateString + " - " + report.getKernelSampler()).append("\n");
+		}
+
+		for (ChannelTracker tracker : report.getTrackers()) {
+			if (tracker.getReorderHighWaterSnapshot() > 0) {
+				builder.append(dateString + " - " + tracker.toReorderSnapshotString()).append("\n");
+			}
+		}
+
+		if (report.getOptions().getRaceRingSize() > 0) {
+			for (ChannelTracker tracker : report.getTrackers()) {
+				builder.append(dateString + " - " + tracker.toRaceSnapshotString()).append("\n");
+			}
+		}
+
+		if (report.getOptions().isDecode()) {
+			for (ChannelTracker tracker : report.getTrackers()) {
+				builder.append(dateString + " - " + tracker.toMessageSnapshotString()).append("\n");
+			}
+		}
+
+		if (report.getOptions().getInstrumentCapacity() > 0) {
+			for (ChannelTracker tracker : report.getTrackers()) {
+				builder.append(dateString + " - " + tracker.toInstrumentSnapshotString()).append("\n");
+			}
+		}
+
+		if (report.getOptions().getReceiveBatch() > 1) {
+			for (ChannelTracker tracker : report.getTrackers()) {
+				builder.append(dateString + " - " + tracker.toBatchSnapshotString()).append("\n");
+			}
+		}
+
+		out.println(builder.toString());
+	}
+
+}
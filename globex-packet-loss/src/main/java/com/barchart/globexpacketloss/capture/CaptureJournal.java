@@ -0,0 +1,161 @@
+package com.barchart.globexpacketloss.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Append-only raw packet journal written through a memory mapped segment file.
+ * A journal has a single writer thread. Segments roll once the next record no
+ * longer fits. The writer thread is normally a receive thread, so full
+ * segments are left to the page cache to write back rather than forced; only
+ * {@link #close()} forces the last one and cuts it to the length written.
+ * <p>
+ * Writing to a mapped page the file system has no room for kills the JVM, so
+ * a segment is only mapped while the disk has room for all of it. Without
+ * room the journal stops capturing, keeping what it wrote for {@link #close()},
+ * and counts the packets it drops.
+ * <p>
+ * Segment layout (little endian): a {@link #SEGMENT_HEADER_SIZE} byte header
+ * of magic, version and segment number, followed by records of
+ * <code>int length | long receiveTimeNanos | int channelId | byte feed | payload</code>.
+ * A length of 0 means no more records, -1 means the writer rolled to the next
+ * segment.
+ */
+public final class CaptureJournal implements AutoCloseable {
+
+	public static final int MAGIC = 0x4a505847; // "GXPJ"
+
+	public static final int VERSION = 1;
+
+	public static final int SEGMENT_HEADER_SIZE = 16;
+
+	public static final int RECORD_HEADER_SIZE = 17;
+
+	public static final int END_OF_SEGMENT = -1;
+
+	public static final String SUFFIX = ".gxj";
+
+	private final File directory;
+
+	private final String prefix;
+
+	private final int segmentSize;
+
+	private MappedByteBuffer segment;
+
+	private File segmentFile;
+
+	private int segmentNumber;
+
+	private long recordCount;
+
+	private long droppedCount;
+
+	private boolean stopped;
+
+	public CaptureJournal(File directory, String prefix, int segmentSize) throws IOException {
+		if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + 0xffff) {
+			throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create capture directory " + directory);
+		}
+		this.directory = directory;
+		this.prefix = prefix;
+		this.segmentSize = segmentSize;
+		this.segmentNumber = -1;
+		if (!hasRoomForSegment()) {
+			throw new IOException("Not enough space for a capture segment of " + segmentSize + " bytes in " + directory);
+		}
+		roll();
+	}
+
+	/**
+	 * Copies the readable bytes of <code>payload</code> into the journal
+	 * without changing its position.
+	 */
+	public void append(long receiveTimeNanos, int channelId, byte feed, ByteBuffer payload) throws IOException {
+		int length = payload.remaining();
+		if (length == 0) {
+			return;
+		}
+		if (stopped || segment == null) {
+			droppedCount++;
+			return;
+		}
+		if (segment.remaining() < RECORD_HEADER_SIZE + length + 4) {
+			if (!hasRoomForSegment()) {
+				System.err.println("ERROR: Only " + directory.getUsableSpace() / (1024 * 1024) + " MB left in " + directory
+						+ ", no longer capturing packets.");
+				stopped = true;
+				droppedCount++;
+				return;
+			}
+			segment.putInt(END_OF_SEGMENT);
+			roll();
+		}
+		segment.putInt(length);
+		segment.putLong(receiveTimeNanos);
+		segment.putInt(channelId);
+		segment.put(feed);
+		int position = payload.position();
+		segment.put(payload);
+		payload.position(position);
+		recordCount++;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Packets not captured because the disk was too full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	private boolean hasRoomForSegment() {
+		return directory.getUsableSpace() >= segmentSize;
+	}
+
+	private void roll() throws IOException {
+		segmentNumber++;
+		segmentFile = segmentFile(directory, prefix, segmentNumber);
+		try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw"); FileChannel channel = raf.getChannel()) {
+			segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		segment.putInt(MAGIC);
+		segment.putInt(VERSION);
+		segment.putInt(segmentNumber);
+		segment.putInt(0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (segment != null) {
+			segment.force();
+			int length = segment.position();
+			segment = null;
+			try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw")) {
+				raf.setLength(length);
+			}
+		}
+	}
+
+	public static File segmentFile(File directory, String prefix, int segmentNumber) {
+		return new File(directory, String.format("%s-%06d%s", prefix, segmentNumber, SUFFIX));
+	}
+
+}
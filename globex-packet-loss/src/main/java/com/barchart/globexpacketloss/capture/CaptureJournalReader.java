@@ -0,0 +1,103 @@
+package com.barchart.globexpacketloss.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads the records of a single {@link CaptureJournal} segment. The payload is
+ * exposed as the position/limit of a buffer that is only valid until the next
+ * call to {@link #next()}.
+ */
+public final class CaptureJournalReader {
+
+	private final MappedByteBuffer segment;
+
+	private final ByteBuffer payload;
+
+	private final int segmentNumber;
+
+	private long receiveTimeNanos;
+
+	private int channelId;
+
+	private byte feed;
+
+	private boolean rolled;
+
+	public CaptureJournalReader(File segmentFile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "r"); FileChannel channel = raf.getChannel()) {
+			segment = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		if (segment.remaining() < CaptureJournal.SEGMENT_HEADER_SIZE || segment.getInt() != CaptureJournal.MAGIC) {
+			throw new IOException("Not a capture journal segment: " + segmentFile);
+		}
+		int version = segment.getInt();
+		if (version != CaptureJournal.VERSION) {
+			throw new IOException("Unsupported capture journal version " + version + " in " + segmentFile);
+		}
+		this.segmentNumber = segment.getInt();
+		segment.getInt();
+		this.payload = segment.duplicate();
+	}
+
+	/**
+	 * @return false at the end of the segment
+	 */
+	public boolean next() {
+		if (segment.remaining() < 4) {
+			return false;
+		}
+		int length = segment.getInt();
+		if (length == CaptureJournal.END_OF_SEGMENT) {
+			rolled = true;
+			return false;
+		}
+		if (length == 0 || segment.remaining() < CaptureJournal.RECORD_HEADER_SIZE - 4 + length) {
+			return false;
+		}
+		receiveTimeNanos = segment.getLong();
+		channelId = segment.getInt();
+		feed = segment.get();
+		int start = segment.position();
+		payload.limit(start + length);
+		payload.position(start);
+		segment.position(start + length);
+		return true;
+	}
+
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	/**
+	 * True once {@link #next()} reached the marker the writer leaves when it
+	 * rolls to the following segment.
+	 */
+	public boolean isRolled() {
+		return rolled;
+	}
+
+	public long getReceiveTimeNanos() {
+		return receiveTimeNanos;
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	public byte getFeed() {
+		return feed;
+	}
+
+	public ByteBuffer getPayload() {
+		return payload;
+	}
+
+}
@@ -0,0 +1,297 @@
+package com.barchart.globexpacketloss.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.CmeXmlConfig;
+import com.barchart.globexpacketloss.PacketLossDetector;
+import com.google.common.net.HostAndPort;
+
+/**
+ * Publishes synthetic sequence numbered A/B incremental feeds for the
+ * configured channels, for load testing {@link PacketLossDetector} without a
+ * live line.
+ */
+public final class FeedGenerator {
+
+	private static final int SEND_BUFFER_SIZE = 16 * 1024 * 1024;
+
+	private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+	private final NetworkInterface sendInterface;
+
+	private final GeneratorOptions options;
+
+	private final List<Worker> workers;
+
+	private volatile boolean running = true;
+
+	public FeedGenerator(NetworkInterface sendInterface, GeneratorOptions options) {
+		this.sendInterface = sendInterface;
+		this.options = options;
+		this.workers = new ArrayList<Worker>();
+	}
+
+	public void createChannels(CmeXmlConfig xmlConfig, List<Integer> channelIds) throws Exception {
+		int threads = Math.min(options.getThreads(), channelIds.size());
+		for (int i = 0; i < threads; i++) {
+			workers.add(new Worker(i, openChannel()));
+		}
+		for (int i = 0; i < channelIds.size(); i++) {
+			int channelId = channelIds.get(i);
+			HostAndPort feedA = xmlConfig.getIncrementalFeedA(channelId);
+			HostAndPort feedB = xmlConfig.getIncrementalFeedB(channelId);
+			System.out.println("Channel " + channelId + ": " + feedA + ", " + feedB);
+			workers.get(i % threads).channels.add(new GeneratedChannel(channelId, feedA, feedB, options));
+		}
+	}
+
+	private DatagramChannel openChannel() throws IOException {
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, sendInterface);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, options.getTtl());
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+		return channel;
+	}
+
+	public void start() throws Exception {
+		for (Worker worker : workers) {
+			worker.start();
+		}
+		long startMillis = System.currentTimeMillis();
+		long stopMillis = options.getDurationSeconds() > 0 ? startMillis + TimeUnit.SECONDS.toMillis(options.getDurationSeconds()) : Long.MAX_VALUE;
+		long lastSent = 0;
+		long lastReport = startMillis;
+		while (running && System.currentTimeMillis() < stopMillis) {
+			Thread.sleep(Math.min(REPORT_INTERVAL, Math.max(1, stopMillis - System.currentTimeMillis())));
+			long now = System.currentTimeMillis();
+			long sent = 0;
+			long gapped = 0;
+			for (Worker worker : workers) {
+				sent += worker.sentCount;
+				gapped += worker.gappedCount;
+			}
+			System.out.println(String.format("Sent %d packets, %d withheld for gaps, %.0f packets/s.", sent, gapped, (sent - lastSent) * 1000.0
+					/ Math.max(1, now - lastReport)));
+			lastSent = sent;
+			lastReport = now;
+		}
+		running = false;
+		for (Worker worker : workers) {
+			worker.join();
+		}
+	}
+
+	private final class Worker extends Thread {
+
+		private final DatagramChannel channel;
+
+		private final List<GeneratedChannel> channels;
+
+		private volatile long sentCount;
+
+		private volatile long gappedCount;
+
+		Worker(int index, DatagramChannel channel) {
+			super("feed-generator-" + index);
+			this.channel = channel;
+			this.channels = new ArrayList<GeneratedChannel>();
+		}
+
+		@Override
+		public void run() {
+			GeneratedChannel[] array = channels.toArray(new GeneratedChannel[channels.size()]);
+			long start = System.nanoTime();
+			long epochOffset = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - start;
+			for (GeneratedChannel generated : array) {
+				generated.schedule(start);
+			}
+			try {
+				while (running) {
+					long now = System.nanoTime();
+					for (GeneratedChannel generated : array) {
+						generated.send(channel, now, epochOffset);
+					}
+					long sent = 0;
+					long gapped = 0;
+					for (GeneratedChannel generated : array) {
+						sent += generated.sentCount;
+						gapped += generated.gappedCount;
+					}
+					sentCount = sent;
+					gappedCount = gapped;
+				}
+			} catch (IOException e) {
+				System.err.println("Generator " + getName() + " failed.");
+				e.printStackTrace();
+				running = false;
+			}
+		}
+
+	}
+
+	private static final class GeneratedChannel {
+
+		private static final long MAX_LAG = TimeUnit.SECONDS.toNanos(1);
+
+		private final int channelId;
+
+		private final InetSocketAddress leading;
+
+		private final InetSocketAddress lagging;
+
+		private final double leadingGapRate;
+
+		private final double laggingGapRate;
+
+		private final int gapLength;
+
+		private final int burst;
+
+		private final long burstInterval;
+
+		private final long skewNanos;
+
+		private final MdpPacketWriter writer;
+
+		private final long[] pendingSequence;
+
+		private final long[] pendingDue;
+
+		// the leading copy's SendingTime, which the lagging copy repeats
+		private final long[] pendingSendingTime;
+
+		private int pendingHead;
+
+		private int pendingTail;
+
+		private long nextSequence = 1;
+
+		private long nextBurst;
+
+		private int leadingGap;
+
+		private int laggingGap;
+
+		long sentCount;
+
+		long gappedCount;
+
+		GeneratedChannel(int channelId, HostAndPort feedA, HostAndPort feedB, GeneratorOptions options) {
+			this.channelId = channelId;
+			InetSocketAddress a = new InetSocketAddress(feedA.getHostText(), feedA.getPort());
+			InetSocketAddress b = new InetSocketAddress(feedB.getHostText(), feedB.getPort());
+			boolean bLeads = options.getSkewNanos() < 0;
+			this.leading = bLeads ? b : a;
+			this.lagging = bLeads ? a : b;
+			this.leadingGapRate = bLeads ? options.getGapRateB() : options.getGapRateA();
+			this.laggingGapRate = bLeads ? options.getGapRateA() : options.getGapRateB();
+			this.gapLength = options.getGapLength();
+			this.burst = options.getBurst();
+			this.burstInterval = TimeUnit.SECONDS.toNanos(1) * burst / options.getRate();
+			this.skewNanos = Math.abs(options.getSkewNanos());
+			this.writer = new MdpPacketWriter(options.getPacketSize(), options.getTemplateId(), options.getSecurities());
+			long inFlight = burst * 2L + (long) options.getRate() * skewNanos / TimeUnit.SECONDS.toNanos(1) * 2L;
+			int capacity = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(1024, inFlight)) - 1) << 1;
+			this.pendingSequence = new long[capacity];
+			this.pendingDue = new long[capacity];
+			this.pendingSendingTime = new long[capacity];
+		}
+
+		void schedule(long start) {
+			nextBurst = start;
+		}
+
+		void send(DatagramChannel channel, long now, long epochOffset) throws IOException {
+			while (pendingHead != pendingTail && pendingDue[pendingHead] <= now) {
+				sendLagging(channel, pendingSequence[pendingHead], pendingSendingTime[pendingHead]);
+				pendingHead = (pendingHead + 1) & (pendingSequence.length - 1);
+			}
+			if (now < nextBurst) {
+				return;
+			}
+			if (now - nextBurst > MAX_LAG) {
+				System.err.println("Channel " + channelId + " is more than " + MAX_LAG + " ns behind schedule, skipping ahead.");
+				nextBurst = now;
+			}
+			nextBurst += burstInterval;
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < burst; i++) {
+				long sequence = nextSequence++;
+				if (leadingGap == 0 && leadingGapRate > 0 && random.nextDouble() < leadingGapRate) {
+					leadingGap = gapLength;
+				}
+				if (leadingGap > 0) {
+					leadingGap--;
+					gappedCount++;
+				} else {
+					channel.send(writer.write(sequence, now + epochOffset), leading);
+					sentCount++;
+				}
+				int next = (pendingTail + 1) & (pendingSequence.length - 1);
+				if (skewNanos == 0 || next == pendingHead) {
+					sendLagging(channel, sequence, now + epochOffset);
+				} else {
+					pendingSequence[pendingTail] = sequence;
+					pendingDue[pendingTail] = now + skewNanos;
+					pendingSendingTime[pendingTail] = now + epochOffset;
+					pendingTail = next;
+				}
+			}
+		}
+
+		private void sendLagging(DatagramChannel channel, long sequence, long sendingTime) throws IOException {
+			if (laggingGap == 0 && laggingGapRate > 0 && ThreadLocalRandom.current().nextDouble() < laggingGapRate) {
+				laggingGap = gapLength;
+			}
+			if (laggingGap > 0) {
+				laggingGap--;
+				gappedCount++;
+			} else {
+				channel.send(writer.write(sequence, sendingTime), lagging);
+				sentCount++;
+			}
+		}
+
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: FeedGenerator <sendInterface> <config.xml> <channelIds>");
+		System.out.println("  -Dglobex.gen.rate=<packets per second per line> (default 10000)");
+		System.out.println("  -Dglobex.gen.packetSize=<bytes> (default 200)");
+		System.out.println("  -Dglobex.gen.burst=<packets sent back to back> (default 1)");
+		System.out.println("  -Dglobex.gen.gapRateA=<probability>, -Dglobex.gen.gapRateB=<probability>, -Dglobex.gen.gapLength=<packets>");
+		System.out.println("  -Dglobex.gen.skewMicros=<B delay after A, negative for B first> (default 0)");
+		System.out.println("  -Dglobex.gen.threads=<sending threads> (default 1)");
+		System.out.println("  -Dglobex.gen.durationSeconds=<seconds> (default 0, run until killed)");
+		System.out.println("  -Dglobex.gen.ttl=<multicast ttl> (default 0, host only)");
+		System.out.println("  -Dglobex.gen.securities=<securities in Book46 entries with RptSeq> (default 0, opaque messages)");
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			printUsage();
+			return;
+		}
+		NetworkInterface sendInterface = NetworkInterface.getByName(args[0]);
+		if (sendInterface == null) {
+			throw new NullPointerException("No interface: " + args[0]);
+		}
+		CmeXmlConfig xmlConfig = CmeXmlConfig.parse(new File(args[1]).toURI().toURL());
+		List<Integer> channelIds = xmlConfig.selectChannels(args[2]);
+		FeedGenerator generator = new FeedGenerator(sendInterface, GeneratorOptions.fromSystemProperties());
+		generator.createChannels(xmlConfig, channelIds);
+		generator.start();
+	}
+
+}
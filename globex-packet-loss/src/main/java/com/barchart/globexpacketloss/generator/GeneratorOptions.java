@@ -0,0 +1,191 @@
+package com.barchart.globexpacketloss.generator;
+
+public final class GeneratorOptions {
+
+	private static final String PREFIX = "globex.gen.";
+
+	private int rate = 10000;
+
+	private int packetSize = 200;
+
+	private int burst = 1;
+
+	private double gapRateA;
+
+	private double gapRateB;
+
+	private int gapLength = 1;
+
+	private long skewNanos;
+
+	private int threads = 1;
+
+	private long durationSeconds;
+
+	private int ttl = 0;
+
+	private int templateId = 32;
+
+	private int securities;
+
+	/**
+	 * Packets per second per line of each channel.
+	 */
+	public int getRate() {
+		return rate;
+	}
+
+	public void setRate(int rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Rate must be positive.  Not: " + rate);
+		}
+		this.rate = rate;
+	}
+
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	public void setPacketSize(int packetSize) {
+		if (packetSize < MdpPacketWriter.MIN_PACKET_SIZE || packetSize > MdpPacketWriter.MAX_PACKET_SIZE) {
+			throw new IllegalArgumentException("Packet size must be between " + MdpPacketWriter.MIN_PACKET_SIZE + " and " + MdpPacketWriter.MAX_PACKET_SIZE
+					+ ".  Not: " + packetSize);
+		}
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * Packets sent back to back before pausing; the average rate is kept.
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	public void setBurst(int burst) {
+		if (burst <= 0) {
+			throw new IllegalArgumentException("Burst must be positive.  Not: " + burst);
+		}
+		this.burst = burst;
+	}
+
+	/**
+	 * Probability a gap starts on the A line at any sequence number.
+	 */
+	public double getGapRateA() {
+		return gapRateA;
+	}
+
+	public void setGapRateA(double gapRateA) {
+		this.gapRateA = gapRateA;
+	}
+
+	public double getGapRateB() {
+		return gapRateB;
+	}
+
+	public void setGapRateB(double gapRateB) {
+		this.gapRateB = gapRateB;
+	}
+
+	public int getGapLength() {
+		return gapLength;
+	}
+
+	public void setGapLength(int gapLength) {
+		if (gapLength <= 0) {
+			throw new IllegalArgumentException("Gap length must be positive.  Not: " + gapLength);
+		}
+		this.gapLength = gapLength;
+	}
+
+	/**
+	 * How long after A each B packet is sent. Negative values make B lead.
+	 */
+	public long getSkewNanos() {
+		return skewNanos;
+	}
+
+	public void setSkewNanos(long skewNanos) {
+		this.skewNanos = skewNanos;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Threads must be positive.  Not: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public long getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	public void setDurationSeconds(long durationSeconds) {
+		this.durationSeconds = durationSeconds;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	public int getTemplateId() {
+		return templateId;
+	}
+
+	public void setTemplateId(int templateId) {
+		this.templateId = templateId;
+	}
+
+	/**
+	 * Securities to cycle through in MDIncrementalRefreshBook46 entries, one
+	 * per packet, or 0 to send opaque messages of the configured template.
+	 */
+	public int getSecurities() {
+		return securities;
+	}
+
+	public void setSecurities(int securities) {
+		if (securities < 0) {
+			throw new IllegalArgumentException("Securities must not be negative.  Not: " + securities);
+		}
+		this.securities = securities;
+	}
+
+	/**
+	 * Reads options from <code>-Dglobex.gen.*</code> system properties:
+	 * <code>rate</code>, <code>packetSize</code>, <code>burst</code>,
+	 * <code>gapRateA</code>, <code>gapRateB</code>, <code>gapLength</code>,
+	 * <code>skewMicros</code>, <code>threads</code>,
+	 * <code>durationSeconds</code>, <code>ttl</code>, <code>templateId</code>
+	 * and <code>securities</code>.
+	 */
+	public static GeneratorOptions fromSystemProperties() {
+		GeneratorOptions options = new GeneratorOptions();
+		options.setRate(Integer.getInteger(PREFIX + "rate", options.rate));
+		options.setPacketSize(Integer.getInteger(PREFIX + "packetSize", options.packetSize));
+		options.setBurst(Integer.getInteger(PREFIX + "burst", options.burst));
+		options.setGapRateA(Double.parseDouble(System.getProperty(PREFIX + "gapRateA", "0")));
+		options.setGapRateB(Double.parseDouble(System.getProperty(PREFIX + "gapRateB", "0")));
+		options.setGapLength(Integer.getInteger(PREFIX + "gapLength", options.gapLength));
+		options.setSkewNanos(Long.getLong(PREFIX + "skewMicros", 0L) * 1000L);
+		options.setThreads(Integer.getInteger(PREFIX + "threads", options.threads));
+		options.setDurationSeconds(Long.getLong(PREFIX + "durationSeconds", options.durationSeconds));
+		options.setTtl(Integer.getInteger(PREFIX + "ttl", options.ttl));
+		options.setTemplateId(Integer.getInteger(PREFIX + "templateId", options.templateId));
+		options.setSecurities(Integer.getInteger(PREFIX + "securities", options.securities));
+		if (options.securities > 0 && options.packetSize < MdpPacketWriter.PACKET_HEADER_SIZE + MdpPacketWriter.BOOK_MESSAGE_SIZE) {
+			throw new IllegalArgumentException("Packet size must be at least " + (MdpPacketWriter.PACKET_HEADER_SIZE + MdpPacketWriter.BOOK_MESSAGE_SIZE)
+					+ " with securities.  Not: " + options.packetSize);
+		}
+		return options;
+	}
+
+}
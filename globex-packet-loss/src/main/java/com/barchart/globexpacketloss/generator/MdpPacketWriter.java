@@ -0,0 +1,79 @@
+package com.barchart.globexpacketloss.generator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lays out MDP 3.0 packets: a 12 byte packet header (MsgSeqNum, SendingTime)
+ * followed by one SBE message of the configured template filling the rest of
+ * the packet. When securities are configured the message is an
+ * MDIncrementalRefreshBook46 with one entry, cycling through the securities
+ * with a RptSeq per security.
+ */
+final class MdpPacketWriter {
+
+	static final int PACKET_HEADER_SIZE = 12;
+
+	static final int MESSAGE_HEADER_SIZE = 10;
+
+	static final int MIN_PACKET_SIZE = PACKET_HEADER_SIZE + MESSAGE_HEADER_SIZE;
+
+	static final int MAX_PACKET_SIZE = 1472;
+
+	static final int SCHEMA_ID = 1;
+
+	static final int SCHEMA_VERSION = 9;
+
+	static final int FIRST_SECURITY_ID = 1000;
+
+	private static final int BOOK_TEMPLATE_ID = 46;
+
+	private static final int BOOK_BLOCK_LENGTH = 11;
+
+	private static final int BOOK_ENTRY_LENGTH = 32;
+
+	private static final int ORDER_ENTRY_LENGTH = 24;
+
+	// root block, NoMDEntries header and one entry, empty NoOrderIDEntries
+	static final int BOOK_MESSAGE_SIZE = MESSAGE_HEADER_SIZE + BOOK_BLOCK_LENGTH + 3 + BOOK_ENTRY_LENGTH + 8;
+
+	private static final int BOOK_ENTRY_OFFSET = PACKET_HEADER_SIZE + MESSAGE_HEADER_SIZE + BOOK_BLOCK_LENGTH + 3;
+
+	private final ByteBuffer buffer;
+
+	private final int securities;
+
+	MdpPacketWriter(int packetSize, int templateId, int securities) {
+		this.buffer = ByteBuffer.allocateDirect(packetSize).order(ByteOrder.LITTLE_ENDIAN);
+		this.securities = securities;
+		int messageSize = packetSize - PACKET_HEADER_SIZE;
+		buffer.putShort(PACKET_HEADER_SIZE, (short) messageSize);
+		buffer.putShort(PACKET_HEADER_SIZE + 6, (short) SCHEMA_ID);
+		buffer.putShort(PACKET_HEADER_SIZE + 8, (short) SCHEMA_VERSION);
+		if (securities > 0) {
+			// trailing bytes past the book are padding inside the message
+			buffer.putShort(PACKET_HEADER_SIZE + 2, (short) BOOK_BLOCK_LENGTH);
+			buffer.putShort(PACKET_HEADER_SIZE + 4, (short) BOOK_TEMPLATE_ID);
+			int group = PACKET_HEADER_SIZE + MESSAGE_HEADER_SIZE + BOOK_BLOCK_LENGTH;
+			buffer.putShort(group, (short) BOOK_ENTRY_LENGTH);
+			buffer.put(group + 2, (byte) 1);
+			buffer.putShort(BOOK_ENTRY_OFFSET + BOOK_ENTRY_LENGTH, (short) ORDER_ENTRY_LENGTH);
+		} else {
+			buffer.putShort(PACKET_HEADER_SIZE + 2, (short) (messageSize - MESSAGE_HEADER_SIZE));
+			buffer.putShort(PACKET_HEADER_SIZE + 4, (short) templateId);
+		}
+	}
+
+	ByteBuffer write(long sequenceNumber, long sendingTimeNanos) {
+		buffer.clear();
+		buffer.putInt(0, (int) sequenceNumber);
+		buffer.putLong(4, sendingTimeNanos);
+		if (securities > 0) {
+			buffer.putLong(PACKET_HEADER_SIZE + MESSAGE_HEADER_SIZE, sendingTimeNanos);
+			buffer.putInt(BOOK_ENTRY_OFFSET + 12, FIRST_SECURITY_ID + (int) ((sequenceNumber - 1) % securities));
+			buffer.putInt(BOOK_ENTRY_OFFSET + 16, (int) ((sequenceNumber - 1) / securities + 1));
+		}
+		return buffer;
+	}
+
+}
@@ -0,0 +1,217 @@
+package com.barchart.globexpacketloss.incident;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of loss and idle incidents in memory mapped segment files of
+ * fixed size records. A log has a single writer thread and carries on in the
+ * last segment of its directory across restarts.
+ * <p>
+ * Segment layout (little endian): a {@link #HEADER_SIZE} byte header of
+ * <code>int magic | int version | int segmentNumber | int recordCount | long firstTimeNanos | long maxTimeNanos</code>
+ * , then a sparse time index of one <code>long</code> per
+ * {@link #INDEX_INTERVAL} records, then {@link #RECORDS_PER_SEGMENT} records of
+ * <code>long epochNanos | long firstMissingSequence | int durationMicros | int channelId | int missingCount | byte line | byte kind | short unused</code>
+ * . Index entry <code>k</code> holds the latest time of any record up to and
+ * including record <code>k * INDEX_INTERVAL</code>, so it never decreases
+ * even though incidents of different channels are written slightly out of
+ * time order. The record count is written last and is what readers go by.
+ * <p>
+ * A {@link #KIND_EVENT} record is a loss event of several channels found by
+ * {@link LossCorrelator}, timed by when its loss began. Its channel field
+ * holds the number of channels, its first missing field the missing count
+ * over all of them, its count field the number of incidents and its line
+ * the affected line, or {@link #HOST_LINE} for both.
+ */
+public final class IncidentLog implements AutoCloseable {
+
+	public static final int MAGIC = 0x49505847; // "GXPI"
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+
+	public static final int RECORD_SIZE = 32;
+
+	public static final int INDEX_INTERVAL = 64;
+
+	public static final int RECORDS_PER_SEGMENT = 1 << 20;
+
+	public static final byte KIND_GAP = 0;
+
+	public static final byte KIND_IDLE = 1;
+
+	public static final byte KIND_EVENT = 2;
+
+	public static final byte HOST_LINE = 'H';
+
+	public static final String PREFIX = "incidents-";
+
+	public static final String SUFFIX = ".gxi";
+
+	static final int RECORD_COUNT_OFFSET = 12;
+
+	static final int FIRST_TIME_OFFSET = 16;
+
+	static final int MAX_TIME_OFFSET = 24;
+
+	static final int INDEX_OFFSET = HEADER_SIZE;
+
+	static final int RECORDS_OFFSET = INDEX_OFFSET + RECORDS_PER_SEGMENT / INDEX_INTERVAL * 8;
+
+	static final int SEGMENT_SIZE = RECORDS_OFFSET + RECORDS_PER_SEGMENT * RECORD_SIZE;
+
+	private final File directory;
+
+	private MappedByteBuffer segment;
+
+	private int segmentNumber;
+
+	private int recordCount;
+
+	private long maxTimeNanos;
+
+	private long appendedCount;
+
+	public IncidentLog(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create incident log directory " + directory);
+		}
+		this.directory = directory;
+		int[] numbers = segmentNumbers(directory);
+		if (numbers.length == 0) {
+			this.segmentNumber = -1;
+			roll();
+		} else {
+			reopen(numbers[numbers.length - 1]);
+		}
+	}
+
+	public void appendGap(long epochNanos, int channelId, byte line, long firstMissingSequence, long missingCount, long durationNanos)
+			throws IOException {
+		append(epochNanos, channelId, line, KIND_GAP, firstMissingSequence, missingCount, durationNanos);
+	}
+
+	public void appendIdle(long epochNanos, int channelId, byte line, long idleNanos) throws IOException {
+		append(epochNanos, channelId, line, KIND_IDLE, 0, 0, idleNanos);
+	}
+
+	public void appendEvent(long startNanos, byte line, int channelCount, int incidentCount, long missingCount, long durationNanos)
+			throws IOException {
+		append(startNanos, channelCount, line, KIND_EVENT, missingCount, incidentCount, durationNanos);
+	}
+
+	private void append(long epochNanos, int channelId, byte line, byte kind, long firstMissingSequence, long missingCount, long durationNanos)
+			throws IOException {
+		if (recordCount == RECORDS_PER_SEGMENT) {
+			roll();
+		}
+		if (recordCount == 0) {
+			maxTimeNanos = epochNanos;
+			segment.putLong(FIRST_TIME_OFFSET, epochNanos);
+		} else if (epochNanos > maxTimeNanos) {
+			maxTimeNanos = epochNanos;
+		}
+		int position = RECORDS_OFFSET + recordCount * RECORD_SIZE;
+		segment.putLong(position, epochNanos);
+		segment.putLong(position + 8, firstMissingSequence);
+		segment.putInt(position + 16, (int) Math.min(TimeUnit.NANOSECONDS.toMicros(durationNanos), Integer.MAX_VALUE));
+		segment.putInt(position + 20, channelId);
+		segment.putInt(position + 24, (int) Math.min(missingCount, Integer.MAX_VALUE));
+		segment.put(position + 28, line);
+		segment.put(position + 29, kind);
+		if (recordCount % INDEX_INTERVAL == 0) {
+			segment.putLong(INDEX_OFFSET + recordCount / INDEX_INTERVAL * 8, maxTimeNanos);
+		}
+		segment.putLong(MAX_TIME_OFFSET, maxTimeNanos);
+		segment.putInt(RECORD_COUNT_OFFSET, ++recordCount);
+		appendedCount++;
+	}
+
+	/**
+	 * Incidents appended since this log was opened.
+	 */
+	public long getAppendedCount() {
+		return appendedCount;
+	}
+
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	private void roll() throws IOException {
+		if (segment != null) {
+			segment.force();
+		}
+		segmentNumber++;
+		segment = map(segmentFile(directory, segmentNumber));
+		segment.putInt(0, MAGIC);
+		segment.putInt(4, VERSION);
+		segment.putInt(8, segmentNumber);
+		segment.putInt(RECORD_COUNT_OFFSET, 0);
+		recordCount = 0;
+	}
+
+	private void reopen(int number) throws IOException {
+		File file = segmentFile(directory, number);
+		segment = map(file);
+		if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+			throw new IOException("Not an incident log segment of version " + VERSION + ": " + file);
+		}
+		segmentNumber = number;
+		recordCount = segment.getInt(RECORD_COUNT_OFFSET);
+		maxTimeNanos = segment.getLong(MAX_TIME_OFFSET);
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			buffer = channel.map(MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	@Override
+	public void close() {
+		if (segment != null) {
+			segment.force();
+			segment = null;
+		}
+	}
+
+	public static File segmentFile(File directory, int segmentNumber) {
+		return new File(directory, String.format("%s%06d%s", PREFIX, segmentNumber, SUFFIX));
+	}
+
+	/**
+	 * Numbers of the segments in <code>directory</code>, ascending.
+	 */
+	public static int[] segmentNumbers(File directory) {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		if (names == null) {
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			numbers[i] = Integer.parseInt(names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+		}
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.barchart.globexpacketloss.incident;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads the records of a single {@link IncidentLog} segment, which may still
+ * be written to. {@link #seek(int)} positions the reader on a record whose
+ * fields the getters then return.
+ */
+public final class IncidentLogReader {
+
+	private final MappedByteBuffer segment;
+
+	private final int segmentNumber;
+
+	private final int recordCount;
+
+	private int position;
+
+	public IncidentLogReader(File segmentFile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "r"); FileChannel channel = raf.getChannel()) {
+			segment = channel.map(MapMode.READ_ONLY, 0, Math.min(channel.size(), IncidentLog.SEGMENT_SIZE));
+		}
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		if (segment.limit() < IncidentLog.RECORDS_OFFSET || segment.getInt(0) != IncidentLog.MAGIC) {
+			throw new IOException("Not an incident log segment: " + segmentFile);
+		}
+		int version = segment.getInt(4);
+		if (version != IncidentLog.VERSION) {
+			throw new IOException("Unsupported incident log version " + version + " in " + segmentFile);
+		}
+		this.segmentNumber = segment.getInt(8);
+		// records past the count taken here may still be half written
+		this.recordCount = Math.min(segment.getInt(IncidentLog.RECORD_COUNT_OFFSET),
+				(segment.limit() - IncidentLog.RECORDS_OFFSET) / IncidentLog.RECORD_SIZE);
+	}
+
+	public int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public long getFirstTimeNanos() {
+		return segment.getLong(IncidentLog.FIRST_TIME_OFFSET);
+	}
+
+	/**
+	 * Latest time of any record in the segment.
+	 */
+	public long getMaxTimeNanos() {
+		return segment.getLong(IncidentLog.MAX_TIME_OFFSET);
+	}
+
+	/**
+	 * Binary search of the sparse index for the first record that may be at
+	 * or after <code>epochNanos</code>. Every record before it is earlier.
+	 */
+	public int findStart(long epochNanos) {
+		int low = 0;
+		int high = (recordCount + IncidentLog.INDEX_INTERVAL - 1) / IncidentLog.INDEX_INTERVAL - 1;
+		int start = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (segment.getLong(IncidentLog.INDEX_OFFSET + mid * 8) < epochNanos) {
+				start = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return start * IncidentLog.INDEX_INTERVAL;
+	}
+
+	public void seek(int record) {
+		if (record < 0 || record >= recordCount) {
+			throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+		}
+		this.position = IncidentLog.RECORDS_OFFSET + record * IncidentLog.RECORD_SIZE;
+	}
+
+	public long getEpochNanos() {
+		return segment.getLong(position);
+	}
+
+	public long getFirstMissingSequence() {
+		return segment.getLong(position + 8);
+	}
+
+	public long getDurationMicros() {
+		return segment.getInt(position + 16) & 0xffffffffL;
+	}
+
+	public int getChannelId() {
+		return segment.getInt(position + 20);
+	}
+
+	public int getMissingCount() {
+		return segment.getInt(position + 24);
+	}
+
+	public byte getLine() {
+		return segment.get(position + 28);
+	}
+
+	public byte getKind() {
+		return segment.get(position + 29);
+	}
+
+}
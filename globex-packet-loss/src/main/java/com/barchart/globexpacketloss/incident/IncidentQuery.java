@@ -0,0 +1,261 @@
+package com.barchart.globexpacketloss.incident;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the incidents of an {@link IncidentLog} directory in a time range,
+ * optionally only for some channels, lines and kinds. Segments entirely
+ * outside the range are skipped by their header and the start within a
+ * segment is found through its sparse index, so a query reads little more
+ * than the incidents it prints.
+ * <p>
+ * Incidents are written in the order the gap logger drains them, which can
+ * be slightly behind time order across channels. The scan of a segment ends
+ * once it is {@link #DISORDER_TOLERANCE_NANOS} past the end of the range.
+ * Correlated loss events are timed by when they began but only written once
+ * they are closed, up to {@link LossCorrelator#MAX_REPORT_DELAY_NANOS}
+ * later, so queries for them scan that much further. Events do not record
+ * which channels they span, so a query of <code>all</code> kinds leaves them
+ * out when it is limited to some channels or lines; a query of
+ * <code>event</code> kind prints them all.
+ */
+public final class IncidentQuery {
+
+	static final long DISORDER_TOLERANCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final String[] TIME_FORMATS = { "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd" };
+
+	private final long fromNanos;
+
+	private final long toNanos;
+
+	private final BitSet channels;
+
+	private final String lines;
+
+	private final String kinds;
+
+	private final boolean events;
+
+	private final long scanToNanos;
+
+	private final SimpleDateFormat dateFormat;
+
+	private final StringBuilder builder;
+
+	private long scannedCount;
+
+	/**
+	 * @param channels
+	 *            null for every channel
+	 * @param lines
+	 *            line codes to include, e.g. <code>C</code> or <code>AB</code>
+	 * @param kinds
+	 *            <code>gap</code>, <code>idle</code>, <code>event</code> or
+	 *            <code>all</code>
+	 */
+	public IncidentQuery(long fromNanos, long toNanos, BitSet channels, String lines, String kinds, TimeZone timeZone) {
+		if (toNanos < fromNanos) {
+			throw new IllegalArgumentException("Range ends before it starts.");
+		}
+		if (kindOf(kinds) < 0 && !kinds.equals("all")) {
+			throw new IllegalArgumentException("Bad kinds: " + kinds + ".  Expected gap, idle, event or all");
+		}
+		this.fromNanos = fromNanos;
+		this.toNanos = toNanos;
+		this.channels = channels;
+		this.lines = lines.toUpperCase();
+		this.kinds = kinds;
+		boolean unfiltered = channels == null && this.lines.indexOf('A') >= 0 && this.lines.indexOf('B') >= 0 && this.lines.indexOf('C') >= 0;
+		this.events = kinds.equals("event") || (kinds.equals("all") && unfiltered);
+		long tolerance = DISORDER_TOLERANCE_NANOS;
+		if (events) {
+			tolerance += LossCorrelator.MAX_REPORT_DELAY_NANOS;
+		}
+		this.scanToNanos = toNanos + tolerance;
+		this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		this.dateFormat.setTimeZone(timeZone);
+		this.builder = new StringBuilder();
+	}
+
+	/**
+	 * @return number of incidents printed
+	 */
+	public long run(File directory, PrintStream out) throws IOException {
+		long matched = 0;
+		for (int number : IncidentLog.segmentNumbers(directory)) {
+			IncidentLogReader reader = new IncidentLogReader(IncidentLog.segmentFile(directory, number));
+			if (reader.getRecordCount() == 0 || reader.getMaxTimeNanos() < fromNanos) {
+				continue;
+			}
+			if (reader.getFirstTimeNanos() > scanToNanos) {
+				break;
+			}
+			matched += scan(reader, out);
+		}
+		return matched;
+	}
+
+	private long scan(IncidentLogReader reader, PrintStream out) {
+		long matched = 0;
+		for (int i = reader.findStart(fromNanos); i < reader.getRecordCount(); i++) {
+			reader.seek(i);
+			scannedCount++;
+			long time = reader.getEpochNanos();
+			if (time > scanToNanos) {
+				break;
+			}
+			if (time >= fromNanos && time <= toNanos && matches(reader)) {
+				print(reader, out);
+				matched++;
+			}
+		}
+		return matched;
+	}
+
+	private boolean matches(IncidentLogReader reader) {
+		byte kind = reader.getKind();
+		if (!kinds.equals("all") && kind != kindOf(kinds)) {
+			return false;
+		}
+		if (kind == IncidentLog.KIND_EVENT) {
+			return events;
+		}
+		if (channels != null && (reader.getChannelId() < 0 || !channels.get(reader.getChannelId()))) {
+			return false;
+		}
+		return lines.indexOf(reader.getLine()) >= 0;
+	}
+
+	private static int kindOf(String kinds) {
+		switch (kinds) {
+		case "gap":
+			return IncidentLog.KIND_GAP;
+		case "idle":
+			return IncidentLog.KIND_IDLE;
+		case "event":
+			return IncidentLog.KIND_EVENT;
+		default:
+			return -1;
+		}
+	}
+
+	private void print(IncidentLogReader reader, PrintStream out) {
+		long time = reader.getEpochNanos();
+		long micros = TimeUnit.NANOSECONDS.toMicros(time) % 1000;
+		builder.setLength(0);
+		builder.append(dateFormat.format(new Date(TimeUnit.NANOSECONDS.toMillis(time))));
+		builder.append(micros < 100 ? (micros < 10 ? "00" : "0") : "").append(micros);
+		if (reader.getKind() == IncidentLog.KIND_EVENT) {
+			builder.append(reader.getLine() == IncidentLog.HOST_LINE ? " host-wide loss" : " line " + (char) reader.getLine() + " loss");
+			builder.append(" on ").append(reader.getChannelId()).append(" channels, ").append(reader.getMissingCount()).append(" incidents, ")
+					.append(reader.getFirstMissingSequence()).append(" missing, over ").append(reader.getDurationMicros()).append(" us");
+			out.println(builder);
+			return;
+		}
+		builder.append(' ').append(reader.getChannelId()).append('-').append((char) reader.getLine());
+		if (reader.getKind() == IncidentLog.KIND_IDLE) {
+			builder.append(" idle for ").append(reader.getDurationMicros() / 1000).append(" ms");
+		} else {
+			builder.append(" missing ").append(reader.getMissingCount()).append(" from ").append(reader.getFirstMissingSequence()).append(", ")
+					.append(reader.getDurationMicros()).append(" us since previous packet");
+		}
+		out.println(builder);
+	}
+
+	/**
+	 * Records looked at by the last {@link #run(File, PrintStream)}.
+	 */
+	public long getScannedCount() {
+		return scannedCount;
+	}
+
+	/**
+	 * Parses a time such as <code>2026-10-13 08:29</code>, with an optional
+	 * <code>T</code> between date and time and seconds or milliseconds, or
+	 * milliseconds since the epoch.
+	 */
+	public static long parseTimeNanos(String str, TimeZone timeZone) {
+		str = str.trim().replace('T', ' ');
+		if (str.matches("\\d+")) {
+			return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(str));
+		}
+		for (String pattern : TIME_FORMATS) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setTimeZone(timeZone);
+			format.setLenient(false);
+			try {
+				Date date = format.parse(str);
+				if (format.format(date).length() == str.length()) {
+					return TimeUnit.MILLISECONDS.toNanos(date.getTime());
+				}
+			} catch (ParseException e) {
+				// try the next pattern
+			}
+		}
+		throw new IllegalArgumentException("Bad time: " + str + ".  Expected yyyy-MM-dd HH:mm[:ss[.SSS]] or epoch millis");
+	}
+
+	/**
+	 * <code>all</code>, or a comma separated list of channel ids and
+	 * inclusive ranges.
+	 *
+	 * @return null for all
+	 */
+	public static BitSet parseChannels(String str) {
+		if (str.trim().equalsIgnoreCase("all")) {
+			return null;
+		}
+		BitSet set = new BitSet();
+		for (String s : str.split(",")) {
+			s = s.trim();
+			int dash = s.indexOf('-', 1);
+			if (dash < 0) {
+				set.set(Integer.parseInt(s));
+			} else {
+				int from = Integer.parseInt(s.substring(0, dash).trim());
+				int to = Integer.parseInt(s.substring(dash + 1).trim());
+				if (from > to) {
+					throw new IllegalArgumentException("Bad channel range: " + s + ".  Expected <from>-<to>");
+				}
+				set.set(from, to + 1);
+			}
+		}
+		return set;
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: IncidentQuery <incidentDir> <from> <to> [channelIds] [lines] [kinds]");
+		System.out.println("  <from>, <to> - yyyy-MM-dd HH:mm[:ss[.SSS]] in globex.timeZone (default America/Chicago), or epoch millis");
+		System.out.println("  [channelIds] - all (default), or a comma separated list of ids and ranges, e.g. 7,310-320");
+		System.out.println("  [lines] - any of A, B and C (combined), default ABC");
+		System.out.println("  [kinds] - gap, idle, event (correlated loss across channels) or all (default, events only without a channel or line filter)");
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			printUsage();
+			return;
+		}
+		TimeZone timeZone = TimeZone.getTimeZone(System.getProperty("globex.timeZone", "America/Chicago"));
+		long from = parseTimeNanos(args[1], timeZone);
+		long to = parseTimeNanos(args[2], timeZone);
+		BitSet channels = parseChannels(args.length > 3 ? args[3] : "all");
+		String lines = args.length > 4 ? args[4].replace(",", "") : "ABC";
+		String kinds = args.length > 5 ? args[5] : "all";
+		IncidentQuery query = new IncidentQuery(from, to, channels, lines, kinds, timeZone);
+		long start = System.nanoTime();
+		long matched = query.run(new File(args[0]), System.out);
+		long elapsed = System.nanoTime() - start;
+		System.err.println(matched + " incidents of " + query.getScannedCount() + " scanned in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms.");
+	}
+
+}
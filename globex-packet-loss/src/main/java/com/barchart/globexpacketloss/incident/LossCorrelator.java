@@ -0,0 +1,383 @@
+package com.barchart.globexpacketloss.incident;
+
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+
+/**
+ * Groups the loss incidents of every channel into loss events by when each
+ * loss began, the time of the last packet before the gap, and classifies
+ * each event by {@link Scope}. Using the start rather than the time a gap was
+ * noticed lines up the A, B and combined incidents of one outage, although
+ * combined gaps are only given up on a gap timeout later.
+ * <p>
+ * Incidents are counted into slots of one window each, in a ring covering
+ * {@link #HORIZON_NANOS}. A slot is closed once incidents or the clock are a
+ * horizon past it, and an event runs on through consecutive slots with
+ * incidents, so it ends at the first window without any, or after
+ * {@link #MAX_EVENT_NANOS}. Incidents that began before the last closed slot
+ * are counted as late and left out. Each slot and the open event remember
+ * at most {@link #MAX_CHANNELS} distinct channels, so memory does not grow
+ * with the number of channels tracked.
+ * <p>
+ * Not thread safe; meant for the thread draining the gap event rings.
+ */
+public final class LossCorrelator {
+
+	public enum Scope {
+		/** every incident on one channel */
+		CHANNEL,
+		/** several channels, all on the A or all on the B line */
+		LINE,
+		/** several channels on both lines */
+		HOST
+	}
+
+	public interface Handler {
+
+		/**
+		 * <code>event</code> is reused once this returns.
+		 */
+		void onLossEvent(Event event);
+
+	}
+
+	public static final int MAX_CHANNELS = 32;
+
+	public static final long HORIZON_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	public static final long MAX_EVENT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	public static final long MAX_WINDOW_MILLIS = TimeUnit.NANOSECONDS.toMillis(HORIZON_NANOS);
+
+	/**
+	 * Longest an event can be reported after it began: it runs for up to
+	 * {@link #MAX_EVENT_NANOS}, and its last window closes a horizon after it
+	 * ended.
+	 */
+	public static final long MAX_REPORT_DELAY_NANOS = MAX_EVENT_NANOS + TimeUnit.MILLISECONDS.toNanos(MAX_WINDOW_MILLIS) + HORIZON_NANOS;
+
+	private static final int LINE_A_BIT = 1;
+
+	private static final int LINE_B_BIT = 2;
+
+	private static final int COMBINED_BIT = 4;
+
+	private final long windowNanos;
+
+	private final Handler handler;
+
+	private final Slot[] slots;
+
+	private final int mask;
+
+	private final Event event;
+
+	private final long[] eventCounts;
+
+	private boolean started;
+
+	private long closedSlot;
+
+	private long lastSlot;
+
+	private long lateCount;
+
+	public LossCorrelator(long windowMillis, Handler handler) {
+		if (windowMillis <= 0 || windowMillis > MAX_WINDOW_MILLIS) {
+			throw new IllegalArgumentException("Correlation window must be positive and at most " + MAX_WINDOW_MILLIS + ".  Not: " + windowMillis);
+		}
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.handler = handler;
+		int size = Math.max(Integer.highestOneBit((int) (HORIZON_NANOS / windowNanos)) * 2, 2);
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+		}
+		this.mask = size - 1;
+		this.event = new Event();
+		this.eventCounts = new long[Scope.values().length];
+	}
+
+	/**
+	 * @param line
+	 *            {@link Statistics#LINE_A}, {@link Statistics#LINE_B} or
+	 *            {@link Statistics#LINE_COMBINED}
+	 * @param startNanos
+	 *            when the loss began
+	 * @param detectedNanos
+	 *            when it was noticed, which moves the correlator on
+	 */
+	public void onLoss(int channelId, byte line, long startNanos, long detectedNanos, long missingCount) {
+		advance(detectedNanos);
+		long number = startNanos / windowNanos;
+		if (!started) {
+			started = true;
+			closedSlot = number - 1;
+			lastSlot = number;
+		}
+		if (number <= closedSlot) {
+			lateCount++;
+			return;
+		}
+		if (number - closedSlot > slots.length) {
+			closeThrough(number - slots.length);
+		}
+		Slot slot = slots[(int) (number & mask)];
+		if (slot.number != number) {
+			slot.clear(number);
+		}
+		slot.add(channelId, lineBit(line), startNanos, missingCount);
+		lastSlot = Math.max(lastSlot, number);
+	}
+
+	/**
+	 * Closes the windows that ended more than {@link #HORIZON_NANOS} before
+	 * <code>nowNanos</code>, reporting the events that ended with them.
+	 */
+	public void advance(long nowNanos) {
+		if (started) {
+			closeThrough((nowNanos - HORIZON_NANOS) / windowNanos);
+		}
+	}
+
+	/**
+	 * Closes every window and reports the last event.
+	 */
+	public void flush() {
+		if (started) {
+			closeThrough(lastSlot);
+			finishEvent();
+		}
+	}
+
+	private void closeThrough(long number) {
+		if (number <= closedSlot) {
+			return;
+		}
+		long last = Math.min(number, closedSlot + slots.length);
+		for (long n = closedSlot + 1; n <= last; n++) {
+			closeSlot(n);
+		}
+		if (number > last) {
+			// nothing was counted in the windows skipped
+			finishEvent();
+		}
+		closedSlot = number;
+	}
+
+	private void closeSlot(long number) {
+		Slot slot = slots[(int) (number & mask)];
+		if (slot.number != number || slot.incidentCount == 0) {
+			finishEvent();
+		} else {
+			if (event.incidentCount > 0 && slot.firstNanos - event.startNanos > MAX_EVENT_NANOS) {
+				finishEvent();
+			}
+			event.add(slot);
+			slot.clear(-1);
+		}
+		closedSlot = number;
+	}
+
+	private void finishEvent() {
+		if (event.incidentCount == 0) {
+			return;
+		}
+		event.classify();
+		eventCounts[event.scope.ordinal()]++;
+		handler.onLossEvent(event);
+		event.clear();
+	}
+
+	private static int lineBit(byte line) {
+		switch (line) {
+		case Statistics.LINE_A:
+			return LINE_A_BIT;
+		case Statistics.LINE_B:
+			return LINE_B_BIT;
+		default:
+			return COMBINED_BIT;
+		}
+	}
+
+	public long getWindowMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+	}
+
+	public long getEventCount(Scope scope) {
+		return eventCounts[scope.ordinal()];
+	}
+
+	/**
+	 * Incidents that arrived after their window was closed.
+	 */
+	public long getLateCount() {
+		return lateCount;
+	}
+
+	private static class Counts {
+
+		final int[] channels = new int[MAX_CHANNELS];
+
+		int channelCount;
+
+		boolean moreChannels;
+
+		int lines;
+
+		int incidentCount;
+
+		long missingCount;
+
+		long firstNanos;
+
+		long lastNanos;
+
+		final void addChannel(int channelId) {
+			for (int i = 0; i < channelCount; i++) {
+				if (channels[i] == channelId) {
+					return;
+				}
+			}
+			if (channelCount < MAX_CHANNELS) {
+				channels[channelCount++] = channelId;
+			} else {
+				moreChannels = true;
+			}
+		}
+
+		final void clearCounts() {
+			channelCount = 0;
+			moreChannels = false;
+			lines = 0;
+			incidentCount = 0;
+			missingCount = 0;
+		}
+
+	}
+
+	private static final class Slot extends Counts {
+
+		long number = -1;
+
+		void add(int channelId, int lineBit, long startNanos, long missing) {
+			addChannel(channelId);
+			lines |= lineBit;
+			missingCount += missing;
+			if (incidentCount++ == 0) {
+				firstNanos = startNanos;
+				lastNanos = startNanos;
+			} else {
+				firstNanos = Math.min(firstNanos, startNanos);
+				lastNanos = Math.max(lastNanos, startNanos);
+			}
+		}
+
+		void clear(long number) {
+			this.number = number;
+			clearCounts();
+		}
+
+	}
+
+	/**
+	 * A closed loss event.
+	 */
+	public static final class Event extends Counts {
+
+		private long startNanos;
+
+		private Scope scope;
+
+		void add(Slot slot) {
+			if (incidentCount == 0) {
+				startNanos = slot.firstNanos;
+				lastNanos = slot.lastNanos;
+			}
+			// slots close in order, so only the end can move
+			for (int i = 0; i < slot.channelCount; i++) {
+				addChannel(slot.channels[i]);
+			}
+			moreChannels |= slot.moreChannels;
+			lines |= slot.lines;
+			incidentCount += slot.incidentCount;
+			missingCount += slot.missingCount;
+			lastNanos = Math.max(lastNanos, slot.lastNanos);
+		}
+
+		void classify() {
+			if (channelCount == 1) {
+				scope = Scope.CHANNEL;
+			} else if (lines == LINE_A_BIT || lines == LINE_B_BIT) {
+				scope = Scope.LINE;
+			} else {
+				// a combined gap is loss on both lines
+				scope = Scope.HOST;
+			}
+		}
+
+		void clear() {
+			clearCounts();
+			scope = null;
+		}
+
+		public Scope getScope() {
+			return scope;
+		}
+
+		/**
+		 * When the earliest loss of the event began.
+		 */
+		public long getStartNanos() {
+			return startNanos;
+		}
+
+		/**
+		 * When the latest loss of the event began.
+		 */
+		public long getEndNanos() {
+			return lastNanos;
+		}
+
+		/**
+		 * Distinct channels, at most {@link LossCorrelator#MAX_CHANNELS}.
+		 */
+		public int getChannelCount() {
+			return channelCount;
+		}
+
+		public int getChannel(int index) {
+			return channels[index];
+		}
+
+		/**
+		 * Whether more channels were affected than
+		 * {@link #getChannelCount()}.
+		 */
+		public boolean hasMoreChannels() {
+			return moreChannels;
+		}
+
+		/**
+		 * The line of a {@link Scope#LINE} event.
+		 */
+		public byte getLine() {
+			return lines == LINE_B_BIT ? Statistics.LINE_B : Statistics.LINE_A;
+		}
+
+		public boolean hasLine(byte line) {
+			return (lines & lineBit(line)) != 0;
+		}
+
+		public int getIncidentCount() {
+			return incidentCount;
+		}
+
+		public long getMissingCount() {
+			return missingCount;
+		}
+
+	}
+
+}
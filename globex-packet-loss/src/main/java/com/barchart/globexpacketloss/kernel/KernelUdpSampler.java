@@ -0,0 +1,237 @@
+package com.barchart.globexpacketloss.kernel;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.net.HostAndPort;
+
+/**
+ * Periodically reads <code>/proc/net/udp</code> and <code>/proc/net/snmp</code>
+ * on a background thread, so socket buffer overflows on this host can be told
+ * apart from loss upstream.
+ * <p>
+ * A watched socket is found by the group and port it is bound to, among the
+ * rows whose inode belongs to one of this process's file descriptors. When
+ * several of those rows share a group and port, as when two channels are
+ * configured with the same feed, their queues and drops are added up. Host
+ * wide UDP error counters are reported as increases since the first sample.
+ */
+public final class KernelUdpSampler implements Runnable {
+
+	private static final String SOCKET_LINK_PREFIX = "socket:[";
+
+	private final File udpFile;
+
+	private final File snmpFile;
+
+	private final File fdDirectory;
+
+	private final long intervalMillis;
+
+	private final List<Watch> watches;
+
+	private final Set<Long> ownInodes;
+
+	private final Map<Long, List<UdpSocketTable.Row>> rowsByAddress;
+
+	private UdpSnmpCounters first;
+
+	private volatile long inErrors;
+
+	private volatile long rcvbufErrors;
+
+	private volatile long sampleCount;
+
+	private volatile boolean running = true;
+
+	private Thread thread;
+
+	public KernelUdpSampler(long intervalMillis) {
+		this(new File("/proc/net/udp"), new File("/proc/net/snmp"), new File("/proc/self/fd"), intervalMillis);
+	}
+
+	/**
+	 * @param fdDirectory
+	 *            file descriptors of this process, or null to match sockets of
+	 *            any process
+	 */
+	public KernelUdpSampler(File udpFile, File snmpFile, File fdDirectory, long intervalMillis) {
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Interval must be positive.  Not: " + intervalMillis);
+		}
+		this.udpFile = udpFile;
+		this.snmpFile = snmpFile;
+		this.fdDirectory = fdDirectory;
+		this.intervalMillis = intervalMillis;
+		this.watches = new CopyOnWriteArrayList<Watch>();
+		this.ownInodes = new HashSet<Long>();
+		this.rowsByAddress = new HashMap<Long, List<UdpSocketTable.Row>>();
+	}
+
+	public boolean isAvailable() {
+		return udpFile.canRead() && snmpFile.canRead();
+	}
+
+	public void watch(HostAndPort bound, SocketBacklog backlog) throws IOException {
+		InetAddress address = InetAddress.getByName(bound.getHostText());
+		if (!(address instanceof Inet4Address)) {
+			throw new IllegalArgumentException("Not an IPv4 address: " + bound);
+		}
+		watches.add(new Watch(ByteBuffer.wrap(address.getAddress()).getInt(), bound.getPort(), backlog));
+	}
+
+	public void unwatch(SocketBacklog backlog) {
+		for (Watch watch : watches) {
+			if (watch.backlog == backlog) {
+				watches.remove(watch);
+			}
+		}
+	}
+
+	public void start() {
+		thread = new Thread(this, "kernel-udp-sampler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				sample();
+			} catch (IOException e) {
+				System.err.println("Problem sampling kernel UDP counters: " + e);
+			}
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the files once and updates every watched socket. Only one thread
+	 * may sample.
+	 */
+	public void sample() throws IOException {
+		readOwnInodes();
+		rowsByAddress.clear();
+		for (UdpSocketTable.Row row : UdpSocketTable.read(udpFile)) {
+			if (fdDirectory == null || ownInodes.contains(row.getInode())) {
+				long key = key(row.getAddress(), row.getPort());
+				List<UdpSocketTable.Row> rows = rowsByAddress.get(key);
+				if (rows == null) {
+					rows = new ArrayList<UdpSocketTable.Row>(1);
+					rowsByAddress.put(key, rows);
+				}
+				rows.add(row);
+			}
+		}
+		for (Watch watch : watches) {
+			List<UdpSocketTable.Row> rows = rowsByAddress.get(key(watch.address, watch.port));
+			if (rows == null) {
+				// bound to the wildcard address, as on Windows
+				rows = rowsByAddress.get(key(0, watch.port));
+			}
+			if (rows != null) {
+				watch.backlog.update(rows);
+			} else {
+				watch.backlog.notFound();
+			}
+		}
+		UdpSnmpCounters counters = UdpSnmpCounters.read(snmpFile);
+		if (first == null) {
+			first = counters;
+		}
+		inErrors = counters.getInErrors() - first.getInErrors();
+		rcvbufErrors = counters.getRcvbufErrors() - first.getRcvbufErrors();
+		sampleCount++;
+	}
+
+	private void readOwnInodes() throws IOException {
+		ownInodes.clear();
+		if (fdDirectory == null) {
+			return;
+		}
+		try (DirectoryStream<Path> fds = Files.newDirectoryStream(fdDirectory.toPath())) {
+			for (Path fd : fds) {
+				String target;
+				try {
+					target = Files.readSymbolicLink(fd).toString();
+				} catch (IOException e) {
+					// closed since listing
+					continue;
+				}
+				if (target.startsWith(SOCKET_LINK_PREFIX) && target.endsWith("]")) {
+					ownInodes.add(Long.parseLong(target.substring(SOCKET_LINK_PREFIX.length(), target.length() - 1)));
+				}
+			}
+		}
+	}
+
+	private static long key(int address, int port) {
+		return ((address & 0xffffffffL) << 16) | port;
+	}
+
+	/**
+	 * Host wide UDP receive errors since the first sample.
+	 */
+	public long getInErrors() {
+		return inErrors;
+	}
+
+	/**
+	 * Host wide receive buffer overflows since the first sample.
+	 */
+	public long getRcvbufErrors() {
+		return rcvbufErrors;
+	}
+
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Kernel UDP  | RcvbufErrors %9d InErrors %9d since start, host wide", rcvbufErrors, inErrors);
+	}
+
+	private static final class Watch {
+
+		private final int address;
+
+		private final int port;
+
+		private final SocketBacklog backlog;
+
+		Watch(int address, int port, SocketBacklog backlog) {
+			this.address = address;
+			this.port = port;
+			this.backlog = backlog;
+		}
+
+	}
+
+}
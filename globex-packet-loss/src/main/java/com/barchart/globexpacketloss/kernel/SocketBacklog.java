@@ -0,0 +1,105 @@
+package com.barchart.globexpacketloss.kernel;
+
+import java.util.List;
+
+/**
+ * What the kernel reports for one of our sockets, written by the sampler
+ * thread and read by the reporter. Several sockets bound to the same group
+ * and port are reported as one.
+ */
+public final class SocketBacklog {
+
+	private volatile boolean found;
+
+	private volatile long inode;
+
+	private volatile long rxQueue;
+
+	private volatile long rxQueueHighWater;
+
+	private volatile long drops;
+
+	private volatile int socketCount;
+
+	/**
+	 * @param rows
+	 *            every watched row bound to the socket's group and port
+	 */
+	void update(List<UdpSocketTable.Row> rows) {
+		long queue = 0;
+		long dropped = 0;
+		for (UdpSocketTable.Row row : rows) {
+			queue += row.getRxQueue();
+			dropped += row.getDrops();
+		}
+		inode = rows.get(0).getInode();
+		rxQueue = queue;
+		if (queue > rxQueueHighWater) {
+			rxQueueHighWater = queue;
+		}
+		drops = dropped;
+		socketCount = rows.size();
+		found = true;
+	}
+
+	void notFound() {
+		found = false;
+		rxQueue = 0;
+		socketCount = 0;
+	}
+
+	/**
+	 * False until the socket shows up in <code>/proc/net/udp</code>, or once
+	 * it is gone.
+	 */
+	public boolean isFound() {
+		return found;
+	}
+
+	/**
+	 * Inode of the first socket found.
+	 */
+	public long getInode() {
+		return inode;
+	}
+
+	/**
+	 * Sockets bound to the same group and port. <code>/proc/net/udp</code>
+	 * cannot tell them apart, so when there is more than one their queues and
+	 * drops are reported together.
+	 */
+	public int getSocketCount() {
+		return socketCount;
+	}
+
+	/**
+	 * Bytes waiting in the receive buffer at the last sample.
+	 */
+	public long getRxQueue() {
+		return rxQueue;
+	}
+
+	/**
+	 * Most bytes seen waiting at any sample.
+	 */
+	public long getRxQueueHighWater() {
+		return rxQueueHighWater;
+	}
+
+	/**
+	 * Datagrams the kernel dropped on this socket.
+	 */
+	public long getDrops() {
+		return drops;
+	}
+
+	@Override
+	public String toString() {
+		if (!found) {
+			return String.format("%-44s", "socket not found");
+		}
+		String str = String.format("queue %7d KB hw %7d KB drops %9d", rxQueue / 1024, rxQueueHighWater / 1024, drops);
+		return socketCount > 1 ? str + " (" + socketCount + " sockets)" : str;
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.barchart.globexpacketloss.kernel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The host wide <code>Udp:</code> counters of <code>/proc/net/snmp</code>.
+ */
+public final class UdpSnmpCounters {
+
+	private static final String PREFIX = "Udp:";
+
+	private final long inDatagrams;
+
+	private final long inErrors;
+
+	private final long rcvbufErrors;
+
+	UdpSnmpCounters(long inDatagrams, long inErrors, long rcvbufErrors) {
+		this.inDatagrams = inDatagrams;
+		this.inErrors = inErrors;
+		this.rcvbufErrors = rcvbufErrors;
+	}
+
+	public static UdpSnmpCounters read(File file) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(PREFIX)) {
+					// a line of names followed by a line of values
+					String values = reader.readLine();
+					if (values == null || !values.startsWith(PREFIX)) {
+						break;
+					}
+					return parse(line, values);
+				}
+			}
+		}
+		throw new IOException("No " + PREFIX + " counters in " + file);
+	}
+
+	static UdpSnmpCounters parse(String namesLine, String valuesLine) {
+		String[] names = namesLine.trim().split("\\s+");
+		String[] values = valuesLine.trim().split("\\s+");
+		long inDatagrams = 0;
+		long inErrors = 0;
+		long rcvbufErrors = 0;
+		for (int i = 1; i < names.length && i < values.length; i++) {
+			switch (names[i]) {
+			case "InDatagrams":
+				inDatagrams = Long.parseLong(values[i]);
+				break;
+			case "InErrors":
+				inErrors = Long.parseLong(values[i]);
+				break;
+			case "RcvbufErrors":
+				rcvbufErrors = Long.parseLong(values[i]);
+				break;
+			default:
+				break;
+			}
+		}
+		return new UdpSnmpCounters(inDatagrams, inErrors, rcvbufErrors);
+	}
+
+	public long getInDatagrams() {
+		return inDatagrams;
+	}
+
+	/**
+	 * Datagrams the host could not deliver, including receive buffer errors.
+	 */
+	public long getInErrors() {
+		return inErrors;
+	}
+
+	/**
+	 * Datagrams dropped because a socket's receive buffer was full.
+	 */
+	public long getRcvbufErrors() {
+		return rcvbufErrors;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.barchart.globexpacketloss.kernel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows of <code>/proc/net/udp</code>: one per IPv4 UDP socket on the host
+ * with its bound address, receive queue and drop count.
+ */
+public final class UdpSocketTable {
+
+	private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	private UdpSocketTable() {
+	}
+
+	public static List<Row> read(File file) throws IOException {
+		List<Row> rows = new ArrayList<Row>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII))) {
+			// column header
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				Row row = parse(line);
+				if (row != null) {
+					rows.add(row);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @return null for a line that is not a socket row
+	 */
+	static Row parse(String line) {
+		// sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+		String[] fields = line.trim().split("\\s+");
+		if (fields.length < 13) {
+			return null;
+		}
+		int colon = fields[1].indexOf(':');
+		int queueColon = fields[4].indexOf(':');
+		if (colon < 0 || queueColon < 0) {
+			return null;
+		}
+		try {
+			int address = (int) Long.parseLong(fields[1].substring(0, colon), 16);
+			int port = Integer.parseInt(fields[1].substring(colon + 1), 16);
+			long rxQueue = Long.parseLong(fields[4].substring(queueColon + 1), 16);
+			long inode = Long.parseLong(fields[9]);
+			long drops = Long.parseLong(fields[12]);
+			// the kernel prints the network order address as a host order int
+			return new Row(LITTLE_ENDIAN ? Integer.reverseBytes(address) : address, port, rxQueue, inode, drops);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public static final class Row {
+
+		private final int address;
+
+		private final int port;
+
+		private final long rxQueue;
+
+		private final long inode;
+
+		private final long drops;
+
+		Row(int address, int port, long rxQueue, long inode, long drops) {
+			this.address = address;
+			this.port = port;
+			this.rxQueue = rxQueue;
+			this.inode = inode;
+			this.drops = drops;
+		}
+
+		/**
+		 * Bound IPv4 address, first octet in the high byte.
+		 */
+		public int getAddress() {
+			return address;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * Bytes waiting in the socket receive buffer.
+		 */
+		public long getRxQueue() {
+			return rxQueue;
+		}
+
+		public long getInode() {
+			return inode;
+		}
+
+		/**
+		 * Datagrams dropped by this socket since it was opened, mostly because
+		 * its receive buffer was full.
+		 */
+		public long getDrops() {
+			return drops;
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.barchart.globexpacketloss.metrics;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+
+/**
+ * Immutable copy of one channel's counters.
+ */
+public final class ChannelMetrics {
+
+	public static final int LINE_A = 0;
+
+	public static final int LINE_B = 1;
+
+	public static final int LINE_COMBINED = 2;
+
+	static final String[] LINE_NAMES = { "A", "B", "C" };
+
+	private final int channelId;
+
+	private final long[] received = new long[3];
+
+	private final long[] missed = new long[3];
+
+	private final long[] incidents = new long[3];
+
+	private final long[] old = new long[3];
+
+	public ChannelMetrics(int channelId) {
+		this.channelId = channelId;
+	}
+
+	public ChannelMetrics(int channelId, Statistics stats) {
+		this.channelId = channelId;
+		received[LINE_A] = stats.getAFeedReceivedCount();
+		missed[LINE_A] = stats.getAFeedMissedCount();
+		incidents[LINE_A] = stats.getAFeedIncidentCount();
+		old[LINE_A] = stats.getAFeedOldCount();
+		received[LINE_B] = stats.getBFeedReceivedCount();
+		missed[LINE_B] = stats.getBFeedMissedCount();
+		incidents[LINE_B] = stats.getBFeedIncidentCount();
+		old[LINE_B] = stats.getBFeedOldCount();
+		received[LINE_COMBINED] = stats.getCombinedFeedReceivedCount();
+		missed[LINE_COMBINED] = stats.getCombinedFeedMissedCount();
+		incidents[LINE_COMBINED] = stats.getCombinedFeedIncidentCount();
+		old[LINE_COMBINED] = stats.getCombinedFeedOldCount();
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	public long getReceived(int line) {
+		return received[line];
+	}
+
+	public long getMissed(int line) {
+		return missed[line];
+	}
+
+	public long getIncidents(int line) {
+		return incidents[line];
+	}
+
+	public long getOld(int line) {
+		return old[line];
+	}
+
+}
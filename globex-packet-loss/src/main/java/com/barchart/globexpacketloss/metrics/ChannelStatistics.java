@@ -0,0 +1,143 @@
+package com.barchart.globexpacketloss.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * JMX view of one channel in the latest published snapshot. A read of several
+ * attributes at once, as consoles do on refresh, is answered from a single
+ * snapshot, so the counters it returns agree with each other.
+ */
+public final class ChannelStatistics implements DynamicMBean {
+
+	private static final String[] LINES = { "A", "B", "Combined" };
+
+	private static final int[] LINE_INDEXES = { ChannelMetrics.LINE_A, ChannelMetrics.LINE_B, ChannelMetrics.LINE_COMBINED };
+
+	private static final String[] COUNTERS = { "Received", "Missed", "Incidents", "Old" };
+
+	private static final MBeanInfo INFO = createInfo();
+
+	private final int channelId;
+
+	private final MetricsPublisher publisher;
+
+	private final ObjectName name;
+
+	private final ChannelMetrics empty;
+
+	public ChannelStatistics(int channelId, MetricsPublisher publisher) throws JMException {
+		this.channelId = channelId;
+		this.publisher = publisher;
+		this.name = new ObjectName("com.barchart.globexpacketloss:type=Channel,channel=" + channelId);
+		this.empty = new ChannelMetrics(channelId);
+	}
+
+	private static MBeanInfo createInfo() {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[2 + LINES.length * COUNTERS.length];
+		int i = 0;
+		attributes[i++] = new MBeanAttributeInfo("ChannelId", "int", "Channel id", true, false, false);
+		attributes[i++] = new MBeanAttributeInfo("SnapshotTime", "long", "Time of the snapshot, millis since the epoch", true, false, false);
+		for (String line : LINES) {
+			for (String counter : COUNTERS) {
+				attributes[i++] = new MBeanAttributeInfo(line + counter, "long", line + " " + counter.toLowerCase(), true, false, false);
+			}
+		}
+		return new MBeanInfo(ChannelStatistics.class.getName(), "Packet loss counters of one channel", attributes, new MBeanConstructorInfo[0],
+				new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+	}
+
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, name);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		return read(publisher.getLatest(), attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		MetricsSnapshot snapshot = publisher.getLatest();
+		AttributeList list = new AttributeList(attributes.length);
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, read(snapshot, attribute)));
+			} catch (AttributeNotFoundException e) {
+				// left out, as for any MBean
+			}
+		}
+		return list;
+	}
+
+	private Object read(MetricsSnapshot snapshot, String attribute) throws AttributeNotFoundException {
+		if ("ChannelId".equals(attribute)) {
+			return channelId;
+		}
+		if ("SnapshotTime".equals(attribute)) {
+			return snapshot.getTime();
+		}
+		ChannelMetrics metrics = snapshot.getChannel(channelId);
+		if (metrics == null) {
+			metrics = empty;
+		}
+		for (int i = 0; i < LINES.length; i++) {
+			if (attribute != null && attribute.startsWith(LINES[i])) {
+				int line = LINE_INDEXES[i];
+				switch (attribute.substring(LINES[i].length())) {
+				case "Received":
+					return metrics.getReceived(line);
+				case "Missed":
+					return metrics.getMissed(line);
+				case "Incidents":
+					return metrics.getIncidents(line);
+				case "Old":
+					return metrics.getOld(line);
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Read only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		return INFO;
+	}
+
+}
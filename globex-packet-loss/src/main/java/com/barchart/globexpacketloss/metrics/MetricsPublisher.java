@@ -0,0 +1,19 @@
+package com.barchart.globexpacketloss.metrics;
+
+/**
+ * Hands the latest snapshot from the thread that takes it to any number of
+ * readers through a single volatile reference.
+ */
+public final class MetricsPublisher {
+
+	private volatile MetricsSnapshot latest = MetricsSnapshot.EMPTY;
+
+	public void publish(MetricsSnapshot snapshot) {
+		latest = snapshot;
+	}
+
+	public MetricsSnapshot getLatest() {
+		return latest;
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.barchart.globexpacketloss.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable set of channel counters taken at one point in time.
+ */
+public final class MetricsSnapshot {
+
+	public static final MetricsSnapshot EMPTY = new MetricsSnapshot(0L, Collections.<ChannelMetrics> emptyList());
+
+	private final long time;
+
+	private final List<ChannelMetrics> channels;
+
+	private final ChannelMetrics[] channelsById;
+
+	public MetricsSnapshot(long time, List<ChannelMetrics> channels) {
+		this.time = time;
+		this.channels = Collections.unmodifiableList(channels);
+		int maxChannelId = -1;
+		for (ChannelMetrics channel : channels) {
+			maxChannelId = Math.max(maxChannelId, channel.getChannelId());
+		}
+		this.channelsById = new ChannelMetrics[maxChannelId + 1];
+		for (ChannelMetrics channel : channels) {
+			channelsById[channel.getChannelId()] = channel;
+		}
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public List<ChannelMetrics> getChannels() {
+		return channels;
+	}
+
+	public ChannelMetrics getChannel(int channelId) {
+		return channelId >= 0 && channelId < channelsById.length ? channelsById[channelId] : null;
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.barchart.globexpacketloss.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the latest published snapshot at <code>/metrics</code> in the
+ * Prometheus text exposition format.
+ */
+public final class PrometheusEndpoint implements HttpHandler {
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricsPublisher publisher;
+
+	private final HttpServer server;
+
+	public PrometheusEndpoint(MetricsPublisher publisher, int port) throws IOException {
+		this.publisher = publisher;
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", this);
+	}
+
+	public void start() {
+		server.start();
+		System.out.println("Serving Prometheus metrics on " + server.getAddress() + "/metrics");
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = format(publisher.getLatest()).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	static String format(MetricsSnapshot snapshot) {
+		StringBuilder builder = new StringBuilder();
+		counter(builder, snapshot, "globex_packets_received_total", "Packets received per channel and line (C is the arbitrated feed).", 0);
+		counter(builder, snapshot, "globex_packets_missed_total", "Sequence numbers never received per channel and line.", 1);
+		counter(builder, snapshot, "globex_gap_incidents_total", "Sequence gaps per channel and line.", 2);
+		counter(builder, snapshot, "globex_packets_old_total", "Packets older than the next expected sequence per channel and line.", 3);
+		builder.append("# HELP globex_snapshot_timestamp_seconds When the counters were copied from the receive threads.\n");
+		builder.append("# TYPE globex_snapshot_timestamp_seconds gauge\n");
+		builder.append("globex_snapshot_timestamp_seconds ").append(snapshot.getTime() / 1000.0).append('\n');
+		return builder.toString();
+	}
+
+	private static void counter(StringBuilder builder, MetricsSnapshot snapshot, String name, String help, int field) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(" counter\n");
+		for (ChannelMetrics channel : snapshot.getChannels()) {
+			for (int line = 0; line < ChannelMetrics.LINE_NAMES.length; line++) {
+				builder.append(name).append("{channel=\"").append(channel.getChannelId()).append("\",line=\"").append(ChannelMetrics.LINE_NAMES[line])
+						.append("\"} ").append(value(channel, line, field)).append('\n');
+			}
+		}
+	}
+
+	private static long value(ChannelMetrics channel, int line, int field) {
+		switch (field) {
+		case 0:
+			return channel.getReceived(line);
+		case 1:
+			return channel.getMissed(line);
+		case 2:
+			return channel.getIncidents(line);
+		default:
+			return channel.getOld(line);
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.barchart.globexpacketloss.multticast;
+
+/**
+ * Histogram of datagrams drained per selector wakeup, bucketed by powers of
+ * two: 0, 1, 2-3, 4-7, ... 512+.
+ */
+public final class BatchStats {
+
+	private static final int BUCKETS = 11;
+
+	private final long[] buckets = new long[BUCKETS];
+
+	private long wakeups;
+
+	private long packets;
+
+	private int max;
+
+	public void record(int batchSize) {
+		wakeups++;
+		packets += batchSize;
+		if (batchSize > max) {
+			max = batchSize;
+		}
+		buckets[bucketOf(batchSize)]++;
+	}
+
+	private static int bucketOf(int batchSize) {
+		if (batchSize == 0) {
+			return 0;
+		}
+		int bucket = 32 - Integer.numberOfLeadingZeros(batchSize);
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+
+	public long getWakeups() {
+		return wakeups;
+	}
+
+	public long getPackets() {
+		return packets;
+	}
+
+	public int getMax() {
+		return max;
+	}
+
+	public double getAverage() {
+		return wakeups == 0 ? 0.0 : packets / (double) wakeups;
+	}
+
+	public int getBucketCount() {
+		return BUCKETS;
+	}
+
+	public long getBucket(int bucket) {
+		return buckets[bucket];
+	}
+
+	public static String getBucketLabel(int bucket) {
+		if (bucket == 0) {
+			return "0";
+		}
+		int low = 1 << (bucket - 1);
+		if (bucket == BUCKETS - 1) {
+			return low + "+";
+		}
+		int high = (1 << bucket) - 1;
+		return low == high ? Integer.toString(low) : low + "-" + high;
+	}
+
+	public void copyFrom(BatchStats other) {
+		System.arraycopy(other.buckets, 0, buckets, 0, BUCKETS);
+		this.wakeups = other.wakeups;
+		this.packets = other.packets;
+		this.max = other.max;
+	}
+
+	public void plusEquals(BatchStats other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] += other.buckets[i];
+		}
+		this.wakeups += other.wakeups;
+		this.packets += other.packets;
+		this.max = Math.max(max, other.max);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = 0L;
+		}
+		this.wakeups = 0L;
+		this.packets = 0L;
+		this.max = 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%9d wakeups avg %5.2f max %4d [", wakeups, getAverage(), max));
+		for (int i = 1; i < BUCKETS; i++) {
+			if (i > 1) {
+				builder.append(' ');
+			}
+			builder.append(getBucketLabel(i)).append(':').append(buckets[i]);
+		}
+		builder.append(']');
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.barchart.globexpacketloss.multticast;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+
+/**
+ * Receives from one blocking channel on a thread of its own until the channel
+ * is closed. Each datagram is read outside <code>lock</code> and dispatched
+ * holding it, so the A and B lines of a channel can be read on separate
+ * threads and still hand their packets to one arbitrageur in turn.
+ */
+public final class BlockingReceiveLoop implements Runnable {
+
+	private final DatagramChannel channel;
+
+	private final PoolingMulticastReceiver receiver;
+
+	private final Lock lock;
+
+	private final Clock clock;
+
+	public BlockingReceiveLoop(DatagramChannel channel, PoolingMulticastReceiver receiver, Lock lock, Clock clock) {
+		this.channel = channel;
+		this.receiver = receiver;
+		this.lock = lock;
+		this.clock = clock;
+	}
+
+	/**
+	 * Puts the channel in blocking mode and starts receiving on a thread from
+	 * <code>threadFactory</code>. Failures other than the channel being
+	 * closed go to the thread's uncaught exception handler.
+	 */
+	public Thread start(ThreadFactory threadFactory, String name, Thread.UncaughtExceptionHandler failureHandler) throws IOException {
+		channel.configureBlocking(true);
+		Thread thread = threadFactory.newThread(this);
+		thread.setName(name);
+		thread.setUncaughtExceptionHandler(failureHandler);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				receiver.receiveBlocking(channel, lock, clock);
+			}
+		} catch (ClosedChannelException e) {
+			// left the group
+		} catch (Exception e) {
+			throw new IllegalStateException("Receive failed on " + Thread.currentThread().getName(), e);
+		}
+	}
+
+}
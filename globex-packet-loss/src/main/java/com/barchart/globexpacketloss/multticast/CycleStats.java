@@ -0,0 +1,138 @@
+package com.barchart.globexpacketloss.multticast;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.LogHistogram;
+
+/**
+ * Loss and loop statistics for one line of a recovery feed (market data
+ * snapshots or instrument definitions). These feeds replay their content in
+ * a loop and restart the packet sequence number at 1 on every pass, so a
+ * sequence number back at 1, or more than {@link #RESTART_DROP} below the
+ * expected one in case the first packets of a pass were lost, starts a new
+ * cycle. Any other sequence number below the expected one is a late or
+ * duplicate packet and counted as old. Packets per cycle count what arrived,
+ * so they can be compared with the loss.
+ */
+public final class CycleStats {
+
+	static final long RESTART_DROP = 1000;
+
+	private final LogHistogram cycleMillis = new LogHistogram();
+
+	private long expected = Long.MIN_VALUE;
+
+	private long cycleStartNanos = Long.MIN_VALUE;
+
+	private long packetsInCycle;
+
+	private long receivedCount;
+
+	private long missedCount;
+
+	private long oldCount;
+
+	private long incidentCount;
+
+	private long cycleCount;
+
+	private long lastCyclePackets;
+
+	private long maxCyclePackets;
+
+	public void receive(long sequenceNumber, long nanoTime) {
+		receivedCount++;
+		if (sequenceNumber == expected) {
+			expected++;
+			packetsInCycle++;
+			return;
+		}
+		if (expected != Long.MIN_VALUE && sequenceNumber < expected) {
+			if (sequenceNumber != 1 && expected - sequenceNumber <= RESTART_DROP) {
+				oldCount++;
+				return;
+			}
+			if (cycleStartNanos != Long.MIN_VALUE) {
+				cycleMillis.record((nanoTime - cycleStartNanos) / 1000000L);
+				lastCyclePackets = packetsInCycle;
+				maxCyclePackets = Math.max(maxCyclePackets, packetsInCycle);
+				cycleCount++;
+			}
+			cycleStartNanos = nanoTime;
+			packetsInCycle = 0;
+			expected = 1;
+		} else if (expected == Long.MIN_VALUE) {
+			if (sequenceNumber == 1) {
+				cycleStartNanos = nanoTime;
+			}
+			expected = sequenceNumber;
+		}
+		if (sequenceNumber > expected) {
+			missedCount += sequenceNumber - expected;
+			incidentCount++;
+		}
+		expected = sequenceNumber + 1;
+		packetsInCycle++;
+	}
+
+	public long getReceivedCount() {
+		return receivedCount;
+	}
+
+	public long getMissedCount() {
+		return missedCount;
+	}
+
+	/**
+	 * Late or duplicate packets.
+	 */
+	public long getOldCount() {
+		return oldCount;
+	}
+
+	public long getIncidentCount() {
+		return incidentCount;
+	}
+
+	public double getPercentageMissed() {
+		return receivedCount == 0 ? 0.0 : (missedCount / (double) receivedCount) * 100.0;
+	}
+
+	/**
+	 * Completed cycles, not counting the partial one the detector joined in.
+	 */
+	public long getCycleCount() {
+		return cycleCount;
+	}
+
+	public LogHistogram getCycleMillis() {
+		return cycleMillis;
+	}
+
+	public long getLastCyclePackets() {
+		return lastCyclePackets;
+	}
+
+	public long getMaxCyclePackets() {
+		return maxCyclePackets;
+	}
+
+	public void copyFrom(CycleStats other) {
+		cycleMillis.copyFrom(other.cycleMillis);
+		this.expected = other.expected;
+		this.cycleStartNanos = other.cycleStartNanos;
+		this.packetsInCycle = other.packetsInCycle;
+		this.receivedCount = other.receivedCount;
+		this.missedCount = other.missedCount;
+		this.oldCount = other.oldCount;
+		this.incidentCount = other.incidentCount;
+		this.cycleCount = other.cycleCount;
+		this.lastCyclePackets = other.lastCyclePackets;
+		this.maxCyclePackets = other.maxCyclePackets;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("rx %9d dr %7d %7.3f%% | %5d cycles, p50 %6d ms, max %6d ms, %7d packets", receivedCount, missedCount,
+				getPercentageMissed(), cycleCount, cycleMillis.getValueAtPercentile(50), cycleMillis.getMax(), lastCyclePackets);
+	}
+
+}
@@ -3,31 +3,194 @@ package com.barchart.globexpacketloss.multticast;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.Lock;
+
+import com.barchart.globexpacketloss.capture.CaptureJournal;
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
 
 public abstract class PoolingMulticastReceiver implements MulticastReceiver {
 
 	private final ByteBuffer[] buffers;
 
+	private final ByteBuffer[] batch;
+
+	private final BatchStats batchStats;
+
+	private final long[] stamps;
+
 	private int index;
 
+	private CaptureJournal journal;
+
+	private Clock journalClock;
+
+	private Clock receiveClock;
+
+	private int journalChannelId;
+
+	private byte journalFeed;
+
 	public PoolingMulticastReceiver(int bufferCount, int bufferSize, ByteOrder byteOrder) {
+		this(bufferCount, bufferSize, byteOrder, 1);
+	}
+
+	/**
+	 * @param batchBudget
+	 *            maximum number of datagrams drained from the channel per
+	 *            wakeup. 1 reads a single datagram per wakeup.
+	 */
+	public PoolingMulticastReceiver(int bufferCount, int bufferSize, ByteOrder byteOrder, int batchBudget) {
+		if (batchBudget <= 0 || batchBudget > bufferCount / 2) {
+			throw new IllegalArgumentException("Batch budget must be between 1 and " + bufferCount / 2 + ".  Not: " + batchBudget);
+		}
 		this.buffers = new ByteBuffer[bufferCount];
 		for (int i = 0; i < buffers.length; i++) {
 			buffers[i] = ByteBuffer.allocateDirect(bufferSize).order(byteOrder);
 		}
+		this.batch = new ByteBuffer[batchBudget];
+		this.batchStats = new BatchStats();
+		this.stamps = new long[batchBudget];
 		this.index = 0;
 	}
 
 	@Override
 	public final void receiveFrom(DatagramChannel channel) throws Exception {
+		if (batch.length == 1) {
+			ByteBuffer buffer = buffers[index];
+			buffer.clear();
+			index = (index + 1) % buffers.length;
+			channel.receive(buffer);
+			if (receiveClock != null) {
+				receiveClock.stamp();
+			}
+			buffer.flip();
+			if (journal != null) {
+				capture(buffer);
+			}
+			receiveByteBuffer(buffer);
+		} else {
+			drainFrom(channel);
+		}
+	}
+
+	/**
+	 * Waits for one datagram on a blocking channel, then dispatches it holding
+	 * <code>lock</code>, with <code>clock</code> set to when it arrived. Used
+	 * by {@link BlockingReceiveLoop}; batching and capture do not apply.
+	 */
+	public final void receiveBlocking(DatagramChannel channel, Lock lock, Clock clock) throws Exception {
 		ByteBuffer buffer = buffers[index];
 		buffer.clear();
 		index = (index + 1) % buffers.length;
 		channel.receive(buffer);
+		long nanoTime = clock.isPrecise() ? System.nanoTime() : 0;
+		buffer.flip();
+		lock.lock();
+		try {
+			if (clock.isPrecise()) {
+				clock.stamp(nanoTime);
+			} else {
+				clock.update();
+			}
+			receiveByteBuffer(buffer);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the readable bytes of <code>payload</code> into the next pooled
+	 * buffer and dispatches it as if it had been received from a channel. Used
+	 * when replaying captured traffic.
+	 */
+	public final void receiveCopyOf(ByteBuffer payload) throws Exception {
+		ByteBuffer buffer = buffers[index];
+		buffer.clear();
+		index = (index + 1) % buffers.length;
+		int position = payload.position();
+		buffer.put(payload);
+		payload.position(position);
 		buffer.flip();
 		receiveByteBuffer(buffer);
 	}
 
+	private void drainFrom(DatagramChannel channel) throws Exception {
+		int count = 0;
+		while (count < batch.length) {
+			ByteBuffer buffer = buffers[index];
+			buffer.clear();
+			if (channel.receive(buffer) == null) {
+				break;
+			}
+			if (receiveClock != null) {
+				receiveClock.stamp();
+				stamps[count] = receiveClock.getNanoTime();
+			}
+			index = (index + 1) % buffers.length;
+			buffer.flip();
+			if (journal != null) {
+				capture(buffer);
+			}
+			batch[count++] = buffer;
+		}
+		batchStats.record(count);
+		if (count > 0) {
+			if (receiveClock != null) {
+				receiveStamped(count);
+			} else {
+				receiveBatch(batch, count);
+			}
+		}
+	}
+
+	/**
+	 * Dispatches one at a time, restoring each packet's stamp first.
+	 */
+	private void receiveStamped(int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			receiveClock.stamp(stamps[i]);
+			receiveByteBuffer(batch[i]);
+		}
+	}
+
+	private void capture(ByteBuffer buffer) throws Exception {
+		journal.append(journalClock.getTimestampNanos(), journalChannelId, journalFeed, buffer);
+	}
+
+	/**
+	 * Records every received datagram to <code>journal</code>, which must only
+	 * be written from the thread calling {@link #receiveFrom(DatagramChannel)}.
+	 */
+	public final void setCaptureJournal(CaptureJournal journal, Clock clock, int channelId, byte feed) {
+		this.journal = journal;
+		this.journalClock = clock;
+		this.journalChannelId = channelId;
+		this.journalFeed = feed;
+	}
+
+	/**
+	 * Stamps every datagram with <code>clock</code> as it is received. Batches
+	 * are then dispatched a packet at a time rather than through
+	 * {@link #receiveBatch(ByteBuffer[], int)}.
+	 */
+	public final void setReceiveClock(Clock clock) {
+		this.receiveClock = clock;
+	}
+
+	protected void receiveBatch(ByteBuffer[] batch, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			receiveByteBuffer(batch[i]);
+		}
+	}
+
 	protected abstract void receiveByteBuffer(ByteBuffer buffer) throws Exception;
 
+	public final BatchStats getBatchStats() {
+		return batchStats;
+	}
+
+	public final boolean isBatching() {
+		return batch.length > 1;
+	}
+
 }
@@ -0,0 +1,49 @@
+package com.barchart.globexpacketloss.multticast;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for {@link BlockingReceiveLoop}s: virtual threads when built with
+ * the <code>jdk21</code> profile and run on Java 21 or later, otherwise daemon
+ * platform threads.
+ */
+public final class ReceiveThreads {
+
+	private static final String VIRTUAL_THREAD_FACTORY = "com.barchart.globexpacketloss.multticast.VirtualThreadFactory";
+
+	private ReceiveThreads() {
+	}
+
+	/**
+	 * @return null if virtual threads are not available in this build or JVM
+	 */
+	public static ThreadFactory newVirtualThreadFactory() {
+		try {
+			return (ThreadFactory) Class.forName(VIRTUAL_THREAD_FACTORY).getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create virtual thread factory.", e);
+		}
+	}
+
+	public static ThreadFactory newPlatformThreadFactory() {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Virtual threads if available, otherwise platform threads.
+	 */
+	public static ThreadFactory newThreadFactory() {
+		ThreadFactory factory = newVirtualThreadFactory();
+		return factory == null ? newPlatformThreadFactory() : factory;
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.barchart.globexpacketloss.multticast;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Only compiled by the <code>jdk21</code> profile; found by
+ * {@link ReceiveThreads} through reflection so the default build needs no
+ * Java 21 API.
+ */
+final class VirtualThreadFactory implements ThreadFactory {
+
+	private final ThreadFactory factory = Thread.ofVirtual().factory();
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		return factory.newThread(runnable);
+	}
+
+}
@@ -1,15 +1,142 @@
 package com.barchart.globexpacketloss.multticast.arbitrage;
 
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time source of one receive thread.
+ * <p>
+ * By default the wall clock is read once per selector wakeup and every packet
+ * of the wakeup shares that millisecond. A precise clock instead stamps each
+ * packet with the monotonic clock as it is received and derives wall clock
+ * time from an offset, which {@link #calibrate()} refreshes from another
+ * thread. Reading the time of a packet then costs no system call.
+ * <p>
+ * Latency is measured against the same calibrated offset in both modes, so
+ * it is neither biased by where within a millisecond the clock was created
+ * nor different between clocks.
+ */
 public final class Clock {
 
+	private final boolean precise;
+
 	private long time;
 
+	private long nanoTime;
+
+	private boolean replaying;
+
+	private volatile long epochOffsetNanos;
+
+	public Clock() {
+		this(false);
+	}
+
+	public Clock(boolean precise) {
+		this.precise = precise;
+		calibrate();
+	}
+
+	public boolean isPrecise() {
+		return precise;
+	}
+
 	public void update() {
-		this.time = System.currentTimeMillis();
+		if (precise) {
+			this.nanoTime = System.nanoTime();
+		} else {
+			this.time = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Stamps the packet being received with the monotonic clock. Only
+	 * meaningful for a precise clock.
+	 */
+	public void stamp() {
+		this.nanoTime = System.nanoTime();
+	}
+
+	/**
+	 * Restores a stamp taken earlier, for packets received in a batch and
+	 * processed after it.
+	 */
+	public void stamp(long nanoTime) {
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * Re-measures the offset between the monotonic and the wall clock, so
+	 * drift and wall clock adjustments are followed. Spins until the wall
+	 * clock ticks, up to its resolution, to measure at the edge of a
+	 * millisecond rather than anywhere within it. Safe to call from any
+	 * thread.
+	 */
+	public void calibrate() {
+		long millis = System.currentTimeMillis();
+		long nanos;
+		long tick;
+		do {
+			nanos = System.nanoTime();
+			tick = System.currentTimeMillis();
+		} while (tick == millis);
+		epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(tick) - nanos;
+	}
+
+	/**
+	 * Takes over the offset another clock last calibrated, instead of spinning
+	 * to measure it again.
+	 */
+	public void calibrate(Clock clock) {
+		epochOffsetNanos = clock.epochOffsetNanos;
+	}
+
+	/**
+	 * Drives the clock from recorded timestamps instead of the system clocks.
+	 */
+	public void replay(long epochNanos) {
+		this.replaying = true;
+		this.nanoTime = epochNanos;
+		this.time = TimeUnit.NANOSECONDS.toMillis(epochNanos);
 	}
 
 	public long getTime() {
+		if (precise && !replaying) {
+			return TimeUnit.NANOSECONDS.toMillis(nanoTime + epochOffsetNanos);
+		}
 		return time;
 	}
-	
+
+	/**
+	 * Nanosecond time for measuring intervals between packets; not related to
+	 * wall clock time unless replaying. For a precise clock this is the stamp
+	 * of the current packet.
+	 */
+	public long getNanoTime() {
+		return replaying || precise ? nanoTime : System.nanoTime();
+	}
+
+	/**
+	 * Nanoseconds since the epoch, for comparing with exchange timestamps.
+	 * Live, this is the monotonic clock offset by the wall clock, so it is
+	 * only as accurate as the last calibration.
+	 */
+	public long getEpochNanoTime() {
+		if (replaying) {
+			return nanoTime;
+		}
+		return (precise ? nanoTime : System.nanoTime()) + epochOffsetNanos;
+	}
+
+	/**
+	 * Nanoseconds since the epoch to record a packet or event with: the
+	 * packet's own stamp for a precise clock, otherwise the millisecond of
+	 * the selector wakeup.
+	 */
+	public long getTimestampNanos() {
+		if (replaying) {
+			return nanoTime;
+		}
+		return precise ? nanoTime + epochOffsetNanos : TimeUnit.MILLISECONDS.toNanos(time);
+	}
+
 }
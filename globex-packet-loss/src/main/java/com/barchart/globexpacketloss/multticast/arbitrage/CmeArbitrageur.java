@@ -1,11 +1,24 @@
 package com.barchart.globexpacketloss.multticast.arbitrage;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class CmeArbitrageur {
 
 	private static final long INT_MASK = 0xffffffffL;
 
+	// MDP 3.0 packet header: MsgSeqNum u32, SendingTime u64 nanos since epoch
+	private static final int SENDING_TIME_OFFSET = 4;
+
+	private static final int PACKET_HEADER_SIZE = 12;
+
+	public static final long GAP_TIMEOUT_MILLIS = 100;
+
+	private static final int IDLE_CHECKS_PER_TIMEOUT = 4;
+
+	private static final long GAP_POLL_MILLIS = GAP_TIMEOUT_MILLIS / 2;
+
 	private final Statistics stats;
 
 	private final PacketCache packetCache;
@@ -16,11 +29,61 @@ public abstract class CmeArbitrageur {
 
 	private long lastGoodPacketTime;
 
+	private RaceStats raceStats;
+
+	private final TimerWheel.Timer gapTimer;
+
+	private final TimerWheel.Timer idleTimer;
+
+	private final LineActivity aActivity;
+
+	private final LineActivity bActivity;
+
+	private final LineActivity combinedActivity;
+
+	private TimerWheel timerWheel;
+
+	private long idleTimeoutMillis;
+
+	private Lock lock;
+
 	public CmeArbitrageur(Clock clock, int cacheSize, int channelId) {
 		this.clock = clock;
 		this.packetCache = new PacketCache(cacheSize);
-		this.stats = new Statistics(channelId);
+		this.stats = new Statistics(channelId, clock);
 		this.expectedSequenceNumber = Long.MIN_VALUE;
+		this.gapTimer = new TimerWheel.Timer() {
+			@Override
+			protected void onTimeout(long nowMillis) throws Exception {
+				if (lock == null) {
+					checkPacketLoss(nowMillis);
+					scheduleGapTimer();
+				} else {
+					checkPacketLossLocked();
+					CmeArbitrageur.this.timerWheel.schedule(this, nowMillis + GAP_POLL_MILLIS);
+				}
+			}
+		};
+		this.idleTimer = new TimerWheel.Timer() {
+			@Override
+			protected void onTimeout(long nowMillis) {
+				if (lock == null) {
+					checkInboundActivity(nowMillis);
+				} else {
+					lock.lock();
+					try {
+						// stamps idle incidents with now, not the last packet
+						CmeArbitrageur.this.clock.update();
+						checkInboundActivity(nowMillis);
+					} finally {
+						lock.unlock();
+					}
+				}
+			}
+		};
+		this.aActivity = new LineActivity();
+		this.bActivity = new LineActivity();
+		this.combinedActivity = new LineActivity();
 	}
 
 	protected abstract void dispatch(ByteBuffer buffer) throws Exception;
@@ -29,33 +92,186 @@ public abstract class CmeArbitrageur {
 
 	protected abstract void reportIdleChannel(long millisSinceLastMessage);
 
+	/**
+	 * One line stopped delivering while the other still does. Called once per
+	 * idle period.
+	 */
+	protected void reportIdleLine(byte line, long millisSinceLastMessage) {
+	}
+
 	public long receiveOnAFeed(ByteBuffer buffer) throws Exception {
 		long seq = buffer.getInt(0) & INT_MASK;
 		stats.aFeedReceived(seq);
+		if (buffer.limit() >= PACKET_HEADER_SIZE) {
+			stats.aFeedLatency(clock.getEpochNanoTime() - buffer.getLong(SENDING_TIME_OFFSET));
+		}
+		if (raceStats != null) {
+			raceStats.record(seq, RaceStats.LINE_A, clock.getNanoTime());
+		}
 		return handlePacket(seq, buffer);
 	}
 
 	public long receiveOnBFeed(ByteBuffer buffer) throws Exception {
 		long seq = buffer.getInt(0) & INT_MASK;
 		stats.bFeedReceived(seq);
+		if (buffer.limit() >= PACKET_HEADER_SIZE) {
+			stats.bFeedLatency(clock.getEpochNanoTime() - buffer.getLong(SENDING_TIME_OFFSET));
+		}
+		if (raceStats != null) {
+			raceStats.record(seq, RaceStats.LINE_B, clock.getNanoTime());
+		}
 		return handlePacket(seq, buffer);
 	}
 
-	protected void feedCheck() throws Exception {
-		// Check for missing inputs on inbound feeds...
-		// Check for packet loss..
-		checkInboundActivity();
-		checkPacketLoss();
+	/**
+	 * Most packets held waiting for a gap to fill.
+	 */
+	public int getReorderHighWater() {
+		return packetCache.getHighWater();
+	}
+
+	/**
+	 * Packets that arrived ahead of a gap but could not be held.
+	 */
+	public long getReorderOverflowCount() {
+		return packetCache.getOverflowCount();
+	}
+
+	public int getReorderCapacity() {
+		return packetCache.getCacheSize();
+	}
+
+	public void receiveBatchOnAFeed(ByteBuffer[] buffers, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			receiveOnAFeed(buffers[i]);
+		}
+	}
+
+	public void receiveBatchOnBFeed(ByteBuffer[] buffers, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			receiveOnBFeed(buffers[i]);
+		}
+	}
+
+	/**
+	 * Drives gap flushing and idle detection from <code>timerWheel</code>, so a
+	 * gap is given up on and a silent line is noticed even when no further
+	 * packet arrives. Without a wheel both are only checked as packets arrive.
+	 * Must be called on the thread that advances the wheel, as must
+	 * {@link #stopTimers()}.
+	 */
+	public final void startTimers(TimerWheel timerWheel) {
+		this.timerWheel = timerWheel;
+		if (idleTimeoutMillis > 0) {
+			aActivity.lastActiveTime = -1;
+			bActivity.lastActiveTime = -1;
+			combinedActivity.lastActiveTime = -1;
+			// the first check only takes the baseline
+			timerWheel.schedule(idleTimer, 0);
+		}
+		if (lock == null) {
+			scheduleGapTimer();
+		} else {
+			// the receive threads cannot arm the timer, so it polls
+			timerWheel.schedule(gapTimer, 0);
+		}
+	}
+
+	public final void stopTimers() {
+		if (timerWheel != null) {
+			timerWheel.cancel(gapTimer);
+			timerWheel.cancel(idleTimer);
+			timerWheel = null;
+		}
+	}
+
+	/**
+	 * How long a line or the whole channel may go without packets before it is
+	 * reported idle; 0 disables idle detection. Takes effect on the next
+	 * {@link #startTimers(TimerWheel)}.
+	 */
+	public final void setIdleTimeout(long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Idle timeout must not be negative.  Not: " + idleTimeoutMillis);
+		}
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public final long getIdleTimeout() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Guards the arbitrageur with a lock so its A and B lines can be received
+	 * on separate threads. Receivers must dispatch holding {@link #getLock()};
+	 * timers take it themselves and poll for gaps rather than being armed
+	 * from the receive path, as the timer wheel belongs to another thread. A
+	 * {@link ReentrantLock} rather than a monitor, since a virtual thread
+	 * blocked on a monitor pins its carrier thread. Must be called before
+	 * packets arrive and before {@link #startTimers(TimerWheel)}.
+	 */
+	public final void enableLocking() {
+		this.lock = new ReentrantLock();
+	}
 
+	/**
+	 * @return null unless {@link #enableLocking()} was called
+	 */
+	public final Lock getLock() {
+		return lock;
 	}
 
-	private void checkInboundActivity() {
-		stats.getBFeedReceivedCount();
+	/**
+	 * The clock of a locking arbitrageur is its own and otherwise only moves
+	 * when a packet arrives, so it is brought up to now first; a gap on a line
+	 * gone quiet would never time out otherwise.
+	 */
+	private void checkPacketLossLocked() throws Exception {
+		lock.lock();
+		try {
+			clock.update();
+			checkPacketLoss(clock.getTime());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void scheduleGapTimer() {
+		if (lock == null && timerWheel != null && packetCache.getCount() > 0 && !gapTimer.isScheduled()) {
+			timerWheel.schedule(gapTimer, lastGoodPacketTime + GAP_TIMEOUT_MILLIS + 1);
+		}
+	}
+
+	/**
+	 * Compares received counts with the previous check rather than stamping
+	 * every packet, so an idle period is noticed between one and one and a
+	 * quarter timeouts after the last packet.
+	 */
+	private void checkInboundActivity(long nowMillis) {
+		boolean channelIdle = combinedActivity.check(stats.getCombinedFeedReceivedCount(), nowMillis, idleTimeoutMillis);
+		if (channelIdle && !combinedActivity.reported) {
+			combinedActivity.reported = true;
+			reportIdleChannel(nowMillis - combinedActivity.lastActiveTime);
+		}
+		boolean aIdle = aActivity.check(stats.getAFeedReceivedCount(), nowMillis, idleTimeoutMillis);
+		boolean bIdle = bActivity.check(stats.getBFeedReceivedCount(), nowMillis, idleTimeoutMillis);
+		// a line is only reported on its own while the other one still delivers
+		if (!channelIdle) {
+			if (aIdle && !bIdle && !aActivity.reported) {
+				aActivity.reported = true;
+				reportIdleLine(Statistics.LINE_A, nowMillis - aActivity.lastActiveTime);
+			}
+			if (bIdle && !aIdle && !bActivity.reported) {
+				bActivity.reported = true;
+				reportIdleLine(Statistics.LINE_B, nowMillis - bActivity.lastActiveTime);
+			}
+		}
+		timerWheel.schedule(idleTimer, nowMillis + Math.max(idleTimeoutMillis / IDLE_CHECKS_PER_TIMEOUT, timerWheel.getTickMillis()));
 	}
 
-	private void checkPacketLoss() throws Exception {
+	private void checkPacketLoss(long nowMillis) throws Exception {
 		int cacheCount = packetCache.getCount();
-		if ((cacheCount > packetCache.getCacheSize() / 2) || (cacheCount > 0 && timeSinceLastGoodPacket() > 100)) {
+		if ((cacheCount > packetCache.getCacheSize() / 2) || (cacheCount > 0 && nowMillis - lastGoodPacketTime > GAP_TIMEOUT_MILLIS)) {
 			ByteBuffer buffer;
 			final long startPacketLoss = expectedSequenceNumber;
 			int lostPacketCount = 0;
@@ -69,10 +285,6 @@ public abstract class CmeArbitrageur {
 
 	}
 
-	private long timeSinceLastGoodPacket() {
-		return (clock.getTime() - lastGoodPacketTime);
-	}
-
 	private long handlePacket(long seq, ByteBuffer buffer) throws Exception {
 		if (isExpectedSequence(seq)) {
 			handleExpectedPacket(seq, buffer);
@@ -85,7 +297,7 @@ public abstract class CmeArbitrageur {
 			// This is normal for A/B line arbitrage.
 			// Drop it.
 		}
-		checkPacketLoss();
+		checkPacketLoss(clock.getTime());
 		return seq;
 	}
 
@@ -110,10 +322,12 @@ public abstract class CmeArbitrageur {
 		dispatch(buffer);
 		stats.combinedFeedReceived(seq);
 		expectedSequenceNumber = seq + 1;
+		this.lastGoodPacketTime = clock.getTime();
 	}
 
 	private void handleFuturePacket(long seq, ByteBuffer buffer) {
 		packetCache.put(seq, buffer);
+		scheduleGapTimer();
 	}
 
 	private boolean isFirstPacket() {
@@ -132,4 +346,46 @@ public abstract class CmeArbitrageur {
 		return stats;
 	}
 
+	public final Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Starts recording which line wins each sequence number. Must be called
+	 * before packets arrive.
+	 */
+	public final void enableRaceStats(int ringSize) {
+		this.raceStats = new RaceStats(ringSize);
+	}
+
+	/**
+	 * @return null unless {@link #enableRaceStats(int)} was called
+	 */
+	public final RaceStats getRaceStats() {
+		return raceStats;
+	}
+
+	private static final class LineActivity {
+
+		private long count;
+
+		private long lastActiveTime;
+
+		private boolean reported;
+
+		/**
+		 * @return true if nothing was received for the timeout
+		 */
+		boolean check(long currentCount, long nowMillis, long timeoutMillis) {
+			if (lastActiveTime < 0 || currentCount != count) {
+				count = currentCount;
+				lastActiveTime = nowMillis;
+				reported = false;
+				return false;
+			}
+			return nowMillis - lastActiveTime >= timeoutMillis;
+		}
+
+	}
+
 }
@@ -0,0 +1,138 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single producer, single consumer ring of sequence gap and
+ * idle line incidents. The receive thread writes primitives only; a background consumer
+ * formats them. When the ring is full new incidents are dropped and counted.
+ */
+public final class GapEventRing {
+
+	public interface Handler {
+
+		void onGap(int channelId, byte line, long expected, long received, long epochNanos, long durationNanos);
+
+		void onIdle(int channelId, byte line, long idleMillis, long epochNanos);
+
+	}
+
+	private static final byte KIND_GAP = 0;
+
+	private static final byte KIND_IDLE = 1;
+
+	private final int channelId;
+
+	private final byte[] kinds;
+
+	private final byte[] lines;
+
+	private final long[] expected;
+
+	private final long[] received;
+
+	private final long[] times;
+
+	private final long[] durations;
+
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private final AtomicLong overflow = new AtomicLong();
+
+	private long reportedOverflow;
+
+	public GapEventRing(int channelId, int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two.  Not: " + capacity);
+		}
+		this.channelId = channelId;
+		this.kinds = new byte[capacity];
+		this.lines = new byte[capacity];
+		this.expected = new long[capacity];
+		this.received = new long[capacity];
+		this.times = new long[capacity];
+		this.durations = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Producer side. <code>durationNanos</code> is the time since the packet
+	 * before the gap.
+	 *
+	 * @return false if the ring was full and the incident was dropped
+	 */
+	public boolean offer(byte line, long expectedSequence, long receivedSequence, long epochNanos, long durationNanos) {
+		return offer(KIND_GAP, line, expectedSequence, receivedSequence, epochNanos, durationNanos);
+	}
+
+	/**
+	 * Producer side. <code>line</code> is {@link Statistics#LINE_COMBINED} when
+	 * the whole channel went quiet.
+	 *
+	 * @return false if the ring was full and the incident was dropped
+	 */
+	public boolean offerIdle(byte line, long idleMillis, long epochNanos) {
+		return offer(KIND_IDLE, line, idleMillis, 0, epochNanos, TimeUnit.MILLISECONDS.toNanos(idleMillis));
+	}
+
+	private boolean offer(byte kind, byte line, long expectedSequence, long receivedSequence, long epochNanos, long durationNanos) {
+		long t = tail.get();
+		if (t - head.get() > mask) {
+			overflow.lazySet(overflow.get() + 1);
+			return false;
+		}
+		int index = (int) (t & mask);
+		kinds[index] = kind;
+		lines[index] = line;
+		expected[index] = expectedSequence;
+		received[index] = receivedSequence;
+		times[index] = epochNanos;
+		durations[index] = durationNanos;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Consumer side.
+	 *
+	 * @return number of incidents handed to <code>handler</code>
+	 */
+	public int drain(Handler handler) {
+		long h = head.get();
+		long t = tail.get();
+		for (long i = h; i < t; i++) {
+			int index = (int) (i & mask);
+			if (kinds[index] == KIND_IDLE) {
+				handler.onIdle(channelId, lines[index], expected[index], times[index]);
+			} else {
+				handler.onGap(channelId, lines[index], expected[index], received[index], times[index], durations[index]);
+			}
+		}
+		head.lazySet(t);
+		return (int) (t - h);
+	}
+
+	public int getChannelId() {
+		return channelId;
+	}
+
+	public long getOverflowCount() {
+		return overflow.get();
+	}
+
+	/**
+	 * Consumer side. Overflow since the previous call.
+	 */
+	public long takeNewOverflow() {
+		long current = overflow.get();
+		long delta = current - reportedOverflow;
+		reportedOverflow = current;
+		return delta;
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+/**
+ * Distribution of receive time minus MDP sending time for one line.
+ * Latencies below zero mean the local clock is behind the exchange's; they are
+ * counted separately and recorded as zero.
+ */
+public final class LatencyStats {
+
+	private final LogHistogram histogram = new LogHistogram();
+
+	private long negativeCount;
+
+	public void record(long latencyNanos) {
+		if (latencyNanos < 0) {
+			negativeCount++;
+		}
+		histogram.record(latencyNanos);
+	}
+
+	public LogHistogram getHistogram() {
+		return histogram;
+	}
+
+	public long getCount() {
+		return histogram.getCount();
+	}
+
+	public long getNegativeCount() {
+		return negativeCount;
+	}
+
+	public long getValueAtPercentile(double percentile) {
+		return histogram.getValueAtPercentile(percentile);
+	}
+
+	public void copyFrom(LatencyStats other) {
+		histogram.copyFrom(other.histogram);
+		this.negativeCount = other.negativeCount;
+	}
+
+	public void plusEquals(LatencyStats other) {
+		histogram.plusEquals(other.histogram);
+		this.negativeCount += other.negativeCount;
+	}
+
+	public void reset() {
+		histogram.reset();
+		this.negativeCount = 0L;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("us p50 %8.1f p99 %8.1f p99.9 %8.1f max %9.1f neg %6d", histogram.getValueAtPercentile(50) / 1000.0,
+				histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0, negativeCount);
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+/**
+ * Fixed size histogram of non-negative longs. Values are bucketed by power of
+ * two, each power split into {@link #SUB_BUCKETS} linear sub-buckets, so
+ * percentiles are accurate to about 6%. Recording never allocates.
+ */
+public final class LogHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[(MAGNITUDES + 1) * SUB_BUCKETS];
+
+	private long count;
+
+	private long max;
+
+	private long sum;
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		int subBucket = (int) (value >>> magnitude) - SUB_BUCKETS;
+		return SUB_BUCKETS + magnitude * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << magnitude) - 1;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0.0 : sum / (double) count;
+	}
+
+	/**
+	 * @param percentile
+	 *            0 - 100
+	 * @return upper bound of the bucket holding the percentile, capped at the
+	 *         maximum recorded value
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0L;
+		}
+		long target = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	public void copyFrom(LogHistogram other) {
+		System.arraycopy(other.counts, 0, counts, 0, counts.length);
+		this.count = other.count;
+		this.max = other.max;
+		this.sum = other.sum;
+	}
+
+	public void plusEquals(LogHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		this.count += other.count;
+		this.max = Math.max(max, other.max);
+		this.sum += other.sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0L;
+		}
+		this.count = 0L;
+		this.max = 0L;
+		this.sum = 0L;
+	}
+
+}
@@ -1,71 +1,189 @@
 package com.barchart.globexpacketloss.multticast.arbitrage;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+/**
+ * Holds packets that arrived ahead of the expected sequence number until the
+ * gap before them fills.
+ * <p>
+ * Packets are copied into slots of an off-heap slab owned by the cache, so
+ * they stay valid however long they wait, regardless of the receive buffer
+ * pool wrapping. The slab grows in chunks as slots are needed, up to the
+ * capacity, and free slots are kept on a stack. Slots are found through a
+ * ring indexed by sequence number, which doubles when two waiting sequence
+ * numbers collide. Only growing allocates.
+ */
 class PacketCache {
 
-	private final BufferHolder[] elements;
+	static final int SLOT_SIZE = 1500;
+
+	private static final int CHUNK_SLOTS = 256;
+
+	private static final int INITIAL_INDEX_SIZE = 1024;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private final int capacity;
+
+	private final int maxIndexSize;
+
+	private long[] indexSeqs;
+
+	private int[] indexSlots;
+
+	private int indexMask;
+
+	private ByteBuffer[] slots;
+
+	private int slotCount;
+
+	private int[] freeSlots;
+
+	private int freeCount;
+
 	private int count;
 
+	private int highWater;
+
+	private long overflowCount;
+
 	PacketCache(int cacheSize) {
 		if (cacheSize <= 0) {
 			throw new IllegalArgumentException("CacheSize must be positive.  Not: " + cacheSize);
 		}
+		this.capacity = cacheSize;
+		// the power of two at or above eight times the capacity
+		this.maxIndexSize = Integer.highestOneBit((cacheSize << 3) - 1) << 1;
 		this.count = 0;
-		this.elements = new BufferHolder[cacheSize];
-		initElements();
+		allocateIndex(Math.min(INITIAL_INDEX_SIZE, maxIndexSize));
+		this.slots = new ByteBuffer[0];
+		this.freeSlots = new int[0];
 	}
 
-	private void initElements() {
-		for (int i = 0; i < elements.length; i++) {
-			elements[i] = new BufferHolder();
-		}
+	private void allocateIndex(int size) {
+		this.indexSeqs = new long[size];
+		this.indexSlots = new int[size];
+		this.indexMask = size - 1;
+		Arrays.fill(indexSeqs, EMPTY);
 	}
 
-	public void put(long seq, ByteBuffer buffer) {
-		int index = getIndex(seq);
-		BufferHolder holder = elements[index];
-		if (holder.seq != seq) {
-			count++;
+	/**
+	 * Copies the readable bytes of <code>buffer</code> into the cache. A
+	 * sequence number already held is ignored.
+	 *
+	 * @return false if the packet could not be held, because the cache is full
+	 *         or the packet is too far ahead of the others
+	 */
+	public boolean put(long seq, ByteBuffer buffer) {
+		int index = (int) seq & indexMask;
+		while (indexSeqs[index] != EMPTY) {
+			if (indexSeqs[index] == seq) {
+				return true;
+			}
+			if (!growIndex()) {
+				overflowCount++;
+				return false;
+			}
+			index = (int) seq & indexMask;
+		}
+		if (count == capacity || buffer.remaining() > SLOT_SIZE) {
+			overflowCount++;
+			return false;
 		}
-		holder.seq = seq;
-		holder.buffer = buffer;
+		if (freeCount == 0) {
+			growSlab();
+		}
+		int slot = freeSlots[--freeCount];
+		ByteBuffer copy = slots[slot];
+		copy.clear();
+		copy.order(buffer.order());
+		int position = buffer.position();
+		copy.put(buffer);
+		buffer.position(position);
+		copy.flip();
+		indexSeqs[index] = seq;
+		indexSlots[index] = slot;
+		if (++count > highWater) {
+			highWater = count;
+		}
+		return true;
 	}
 
+	/**
+	 * @return the cached copy, valid until the next {@link #put}, or null
+	 */
 	public ByteBuffer remove(long seq) {
-		int index = getIndex(seq);
-		BufferHolder holder = elements[index];
-		if (holder.seq == seq) {
+		int index = (int) seq & indexMask;
+		if (indexSeqs[index] == seq) {
 			count--;
-			holder.seq = Long.MIN_VALUE;
-			return holder.buffer;
+			indexSeqs[index] = EMPTY;
+			int slot = indexSlots[index];
+			freeSlots[freeCount++] = slot;
+			return slots[slot];
 		} else {
 			return null;
 		}
 	}
-	
+
+	private boolean growIndex() {
+		if (indexSeqs.length >= maxIndexSize) {
+			return false;
+		}
+		long[] oldSeqs = indexSeqs;
+		int[] oldSlots = indexSlots;
+		allocateIndex(oldSeqs.length << 1);
+		for (int i = 0; i < oldSeqs.length; i++) {
+			long seq = oldSeqs[i];
+			if (seq != EMPTY) {
+				// sequence numbers apart in the old ring stay apart in the new one
+				int index = (int) seq & indexMask;
+				indexSeqs[index] = seq;
+				indexSlots[index] = oldSlots[i];
+			}
+		}
+		return true;
+	}
+
+	private void growSlab() {
+		int chunk = Math.min(CHUNK_SLOTS, capacity - slotCount);
+		ByteBuffer slab = ByteBuffer.allocateDirect(chunk * SLOT_SIZE);
+		slots = Arrays.copyOf(slots, slotCount + chunk);
+		freeSlots = Arrays.copyOf(freeSlots, slotCount + chunk);
+		for (int i = 0; i < chunk; i++) {
+			slab.limit((i + 1) * SLOT_SIZE).position(i * SLOT_SIZE);
+			slots[slotCount] = slab.slice();
+			freeSlots[freeCount++] = slotCount++;
+		}
+	}
+
 	public int getCount() {
 		return count;
 	}
-	
+
 	public int getCacheSize() {
-		return elements.length;
+		return capacity;
 	}
 
-	private int getIndex(long seq) {
-		return (int) (seq % elements.length);
+	/**
+	 * Most packets held at once.
+	 */
+	public int getHighWater() {
+		return highWater;
 	}
 
-	private static final class BufferHolder {
-
-		ByteBuffer buffer;
-
-		long seq;
-
-		BufferHolder() {
-			this.seq = 0L;
-		}
+	/**
+	 * Packets that could not be held.
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
 
+	/**
+	 * Current size of the sequence number ring.
+	 */
+	public int getWindow() {
+		return indexSeqs.length;
 	}
 
 }
@@ -0,0 +1,157 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+/**
+ * Which line delivered each sequence number first, and by how much. Arrivals
+ * are kept in a primitive ring indexed by sequence number, so recording never
+ * allocates. A sequence seen on only one line is counted when its slot is
+ * reused, i.e. once the ring has moved on by its length.
+ */
+public final class RaceStats {
+
+	public static final byte LINE_A = 1;
+
+	public static final byte LINE_B = 2;
+
+	private static final byte MATCHED = 3;
+
+	private final long[] sequences;
+
+	private final long[] arrivals;
+
+	private final byte[] lines;
+
+	private final int mask;
+
+	private final LogHistogram aFirstSkew = new LogHistogram();
+
+	private final LogHistogram bFirstSkew = new LogHistogram();
+
+	private long aWins;
+
+	private long bWins;
+
+	private long aOnly;
+
+	private long bOnly;
+
+	private long late;
+
+	public RaceStats(int ringSize) {
+		if (Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("Ring size must be a power of two.  Not: " + ringSize);
+		}
+		this.sequences = new long[ringSize];
+		this.arrivals = new long[ringSize];
+		this.lines = new byte[ringSize];
+		this.mask = ringSize - 1;
+	}
+
+	public void record(long sequence, byte line, long arrivalNanos) {
+		int index = (int) (sequence & mask);
+		byte slotLine = lines[index];
+		long slotSequence = sequences[index];
+		if (slotLine != 0 && slotSequence == sequence) {
+			if (slotLine != line && slotLine != MATCHED) {
+				long skew = arrivalNanos - arrivals[index];
+				if (slotLine == LINE_A) {
+					aWins++;
+					aFirstSkew.record(skew);
+				} else {
+					bWins++;
+					bFirstSkew.record(skew);
+				}
+				lines[index] = MATCHED;
+			}
+			return;
+		}
+		if (slotLine != 0 && slotSequence > sequence && slotSequence - sequence <= mask) {
+			late++;
+			return;
+		}
+		if (slotLine == LINE_A) {
+			aOnly++;
+		} else if (slotLine == LINE_B) {
+			bOnly++;
+		}
+		sequences[index] = sequence;
+		arrivals[index] = arrivalNanos;
+		lines[index] = line;
+	}
+
+	public long getAWins() {
+		return aWins;
+	}
+
+	public long getBWins() {
+		return bWins;
+	}
+
+	public double getAWinPercentage() {
+		long races = aWins + bWins;
+		return races == 0 ? 0.0 : (aWins / (double) races) * 100.0;
+	}
+
+	/**
+	 * Sequences that only arrived on A, i.e. B lost them and arbitrage
+	 * covered the gap.
+	 */
+	public long getAOnlyCount() {
+		return aOnly;
+	}
+
+	public long getBOnlyCount() {
+		return bOnly;
+	}
+
+	/**
+	 * Copies that arrived after their ring slot had been reused.
+	 */
+	public long getLateCount() {
+		return late;
+	}
+
+	/**
+	 * Nanoseconds B arrived after A, for sequences A won.
+	 */
+	public LogHistogram getAFirstSkew() {
+		return aFirstSkew;
+	}
+
+	/**
+	 * Nanoseconds A arrived after B, for sequences B won.
+	 */
+	public LogHistogram getBFirstSkew() {
+		return bFirstSkew;
+	}
+
+	/**
+	 * Copies the counters, not the ring.
+	 */
+	public void copyFrom(RaceStats other) {
+		aFirstSkew.copyFrom(other.aFirstSkew);
+		bFirstSkew.copyFrom(other.bFirstSkew);
+		this.aWins = other.aWins;
+		this.bWins = other.bWins;
+		this.aOnly = other.aOnly;
+		this.bOnly = other.bOnly;
+		this.late = other.late;
+	}
+
+	public void reset() {
+		aFirstSkew.reset();
+		bFirstSkew.reset();
+		this.aWins = 0L;
+		this.bWins = 0L;
+		this.aOnly = 0L;
+		this.bOnly = 0L;
+		this.late = 0L;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("A won %6.2f%% of %9d | A only %7d B only %7d late %5d | A first skew ns p50 %9d p99 %9d | B first skew ns p50 %9d p99 %9d",
+				getAWinPercentage(), aWins + bWins, aOnly, bOnly, late, aFirstSkew.getValueAtPercentile(50), aFirstSkew.getValueAtPercentile(99),
+				bFirstSkew.getValueAtPercentile(50), bFirstSkew.getValueAtPercentile(99));
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import java.util.Arrays;
+
+/**
+ * Received, missed and incident counts of one line in per-second buckets
+ * covering the last hour, with running sums over the last 1, 5 and 60
+ * minutes.
+ * <p>
+ * A bucket's counts are subtracted from a window's sum as the bucket slides
+ * out of that window, so recording and reading a window are both constant
+ * time. Copies only carry the sums, not the buckets.
+ */
+public final class RollingWindow {
+
+	public static final int ONE_MINUTE = 0;
+
+	public static final int FIVE_MINUTES = 1;
+
+	public static final int ONE_HOUR = 2;
+
+	private static final String[] NAMES = { "1m", "5m", "1h" };
+
+	private static final long[] WINDOW_SECONDS = { 60, 300, 3600 };
+
+	// power of two, at least the longest window
+	private static final int BUCKETS = 4096;
+
+	private static final int MASK = BUCKETS - 1;
+
+	private final long[] receivedSums = new long[WINDOW_SECONDS.length];
+
+	private final long[] missedSums = new long[WINDOW_SECONDS.length];
+
+	private final long[] incidentSums = new long[WINDOW_SECONDS.length];
+
+	private int[] received;
+
+	private long[] missed;
+
+	private int[] incidents;
+
+	private long firstSecond;
+
+	private long currentSecond = Long.MIN_VALUE;
+
+	public void received(long timeMillis) {
+		int bucket = advance(timeMillis);
+		received[bucket]++;
+		receivedSums[ONE_MINUTE]++;
+		receivedSums[FIVE_MINUTES]++;
+		receivedSums[ONE_HOUR]++;
+	}
+
+	public void missed(long timeMillis, long count) {
+		int bucket = advance(timeMillis);
+		missed[bucket] += count;
+		incidents[bucket]++;
+		for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+			missedSums[i] += count;
+			incidentSums[i]++;
+		}
+	}
+
+	/**
+	 * Slides the windows forward to the given time, expiring buckets that
+	 * fell out of them. Returns the current bucket.
+	 */
+	public int advance(long timeMillis) {
+		long second = timeMillis / 1000;
+		if (second == currentSecond) {
+			return (int) (second & MASK);
+		}
+		if (currentSecond == Long.MIN_VALUE) {
+			start(second);
+		} else if (second < currentSecond) {
+			// clock stepped back, keep counting in the current bucket
+			return (int) (currentSecond & MASK);
+		} else if (second - currentSecond >= BUCKETS) {
+			clear();
+			start(second);
+		} else {
+			for (long s = currentSecond + 1; s <= second; s++) {
+				for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+					int expired = (int) ((s - WINDOW_SECONDS[i]) & MASK);
+					receivedSums[i] -= received[expired];
+					missedSums[i] -= missed[expired];
+					incidentSums[i] -= incidents[expired];
+				}
+				int bucket = (int) (s & MASK);
+				received[bucket] = 0;
+				missed[bucket] = 0;
+				incidents[bucket] = 0;
+			}
+			currentSecond = second;
+		}
+		return (int) (second & MASK);
+	}
+
+	private void start(long second) {
+		if (received == null) {
+			received = new int[BUCKETS];
+			missed = new long[BUCKETS];
+			incidents = new int[BUCKETS];
+		}
+		firstSecond = second;
+		currentSecond = second;
+	}
+
+	private void clear() {
+		if (received != null) {
+			Arrays.fill(received, 0);
+			Arrays.fill(missed, 0L);
+			Arrays.fill(incidents, 0);
+		}
+		Arrays.fill(receivedSums, 0L);
+		Arrays.fill(missedSums, 0L);
+		Arrays.fill(incidentSums, 0L);
+		currentSecond = Long.MIN_VALUE;
+	}
+
+	public long getReceived(int window) {
+		return receivedSums[window];
+	}
+
+	public long getMissed(int window) {
+		return missedSums[window];
+	}
+
+	public long getIncidents(int window) {
+		return incidentSums[window];
+	}
+
+	/**
+	 * Seconds of data in the window, less than its length until the line has
+	 * been running that long.
+	 */
+	public long getSeconds(int window) {
+		if (currentSecond == Long.MIN_VALUE) {
+			return 0;
+		}
+		return Math.min(WINDOW_SECONDS[window], currentSecond - firstSecond + 1);
+	}
+
+	public double getPercentageMissed(int window) {
+		long receivedSum = receivedSums[window];
+		return receivedSum == 0 ? 0.0 : (missedSums[window] / (double) receivedSum) * 100.0;
+	}
+
+	public double getRate(int window) {
+		long seconds = getSeconds(window);
+		return seconds == 0 ? 0.0 : receivedSums[window] / (double) seconds;
+	}
+
+	public static int getWindowCount() {
+		return WINDOW_SECONDS.length;
+	}
+
+	public static String getName(int window) {
+		return NAMES[window];
+	}
+
+	void copyFrom(RollingWindow other) {
+		System.arraycopy(other.receivedSums, 0, receivedSums, 0, receivedSums.length);
+		System.arraycopy(other.missedSums, 0, missedSums, 0, missedSums.length);
+		System.arraycopy(other.incidentSums, 0, incidentSums, 0, incidentSums.length);
+		firstSecond = other.firstSecond;
+		currentSecond = other.currentSecond;
+	}
+
+	/**
+	 * Adds another window's sums, for totals. Only the sums are combined.
+	 */
+	void plusEquals(RollingWindow other) {
+		for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+			receivedSums[i] += other.receivedSums[i];
+			missedSums[i] += other.missedSums[i];
+			incidentSums[i] += other.incidentSums[i];
+		}
+		if (other.currentSecond != Long.MIN_VALUE) {
+			if (currentSecond == Long.MIN_VALUE) {
+				firstSecond = other.firstSecond;
+				currentSecond = other.currentSecond;
+			} else {
+				firstSecond = Math.min(firstSecond, other.firstSecond);
+				currentSecond = Math.max(currentSecond, other.currentSecond);
+			}
+		}
+	}
+
+	void reset() {
+		clear();
+	}
+
+}
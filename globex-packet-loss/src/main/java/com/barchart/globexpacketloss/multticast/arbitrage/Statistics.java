@@ -4,6 +4,14 @@ import org.ietf.jgss.ChannelBinding;
 
 public final class Statistics {
 
+	public static final byte LINE_A = 'A';
+
+	public static final byte LINE_B = 'B';
+
+	public static final byte LINE_COMBINED = 'C';
+
+	private static final int GAP_RING_SIZE = 1024;
+
 	private final LineStats aFeedStats;
 
 	private final LineStats bFeedStats;
@@ -12,30 +20,70 @@ public final class Statistics {
 
 	private final int channelId;
 
-	Statistics(int channelId) {
+	private final GapEventRing gapEvents;
+
+	private final Clock clock;
+
+	private final LatencyStats aFeedLatency = new LatencyStats();
+
+	private final LatencyStats bFeedLatency = new LatencyStats();
+
+	public Statistics(int channelId) {
+		this(channelId, new Clock());
+	}
+
+	/**
+	 * @param clock
+	 *            time source for the rolling windows and gap incidents, read on
+	 *            the receive thread.
+	 */
+	public Statistics(int channelId, Clock clock) {
 		this.channelId = channelId;
-		this.aFeedStats = new LineStats(channelId + "-A");
-		this.bFeedStats = new LineStats(channelId + "-A");
-		this.combinedFeedStats = new LineStats(channelId + "-C");
+		this.clock = clock;
+		this.gapEvents = new GapEventRing(channelId, GAP_RING_SIZE);
+		this.aFeedStats = new LineStats(LINE_A, gapEvents);
+		this.bFeedStats = new LineStats(LINE_B, gapEvents);
+		this.combinedFeedStats = new LineStats(LINE_COMBINED, gapEvents);
 	}
 
 	public Statistics(LineStats aStats, LineStats bStats, LineStats cStats) {
 		this.channelId = 0;
+		this.clock = new Clock();
+		this.gapEvents = new GapEventRing(0, 1);
 		this.aFeedStats = aStats;
 		this.bFeedStats = bStats;
 		this.combinedFeedStats = cStats;
 	}
 
 	public void aFeedReceived(long sequenceNumber) {
-		aFeedStats.receive(sequenceNumber);
+		aFeedStats.receive(sequenceNumber, clock);
 	}
 
 	public void bFeedReceived(long sequenceNumber) {
-		bFeedStats.receive(sequenceNumber);
+		bFeedStats.receive(sequenceNumber, clock);
+	}
+
+	public void aFeedLatency(long latencyNanos) {
+		aFeedLatency.record(latencyNanos);
+	}
+
+	public void bFeedLatency(long latencyNanos) {
+		bFeedLatency.record(latencyNanos);
 	}
 
 	public void combinedFeedReceived(long sequenceNumber) {
-		combinedFeedStats.receive(sequenceNumber);
+		combinedFeedStats.receive(sequenceNumber, clock);
+	}
+
+	/**
+	 * Slides the rolling windows to the current time so idle lines age out.
+	 * Call on the receive thread before copying.
+	 */
+	public void advanceWindows() {
+		long time = clock.getTime();
+		aFeedStats.window.advance(time);
+		bFeedStats.window.advance(time);
+		combinedFeedStats.window.advance(time);
 	}
 
 	private static final class LineStats {
@@ -50,16 +98,27 @@ public final class Statistics {
 
 		private long missedCount;
 
-		private final String name;
+		private long lastTimeNanos;
 
-		LineStats(String name) {
-			this.name = name;
+		private final byte line;
+
+		private final GapEventRing gapEvents;
+
+		private final RollingWindow window;
+
+		LineStats(byte line, GapEventRing gapEvents) {
+			this.line = line;
+			this.gapEvents = gapEvents;
+			this.window = new RollingWindow();
 			this.expected = Long.MIN_VALUE;
 		}
 
-		public void receive(long sequenceNumber) {
+		public void receive(long sequenceNumber, Clock clock) {
+			long timeMillis = clock.getTime();
+			long timeNanos = clock.getTimestampNanos();
 //			 System.out.println("Seq num: " + sequenceNumber + ", expected: " + expected);
 			receivedCount++;
+			window.received(timeMillis);
 			if (sequenceNumber == expected) {
 				expected++;
 			} else if (expected == Long.MIN_VALUE) {
@@ -67,11 +126,14 @@ public final class Statistics {
 			} else if (sequenceNumber < expected) {
 				oldCount++;
 			} else {
-				System.out.println("Packet loss on " + name + ". Received: " + sequenceNumber + ", expexted: " + expected + ", missing: " + (sequenceNumber - expected));
+				// how long the line was without the missing packets
+				gapEvents.offer(line, expected, sequenceNumber, timeNanos, timeNanos - lastTimeNanos);
+				window.missed(timeMillis, sequenceNumber - expected);
 				missedCount += (sequenceNumber - expected);
 				incidentCount++;
 				expected = sequenceNumber + 1;
 			}
+			lastTimeNanos = timeNanos;
 		}
 
 		public double getPercentageMissed() {
@@ -82,13 +144,22 @@ public final class Statistics {
 			}
 		}
 
+		private void copyFrom(LineStats other) {
+			this.expected = other.expected;
+			this.receivedCount = other.receivedCount;
+			this.oldCount = other.oldCount;
+			this.incidentCount = other.incidentCount;
+			this.missedCount = other.missedCount;
+			this.window.copyFrom(other.window);
+		}
+
 		private void plusEquals(LineStats other) {
 			this.expected += other.expected;
 			this.receivedCount += other.receivedCount;
 			this.oldCount += other.oldCount;
 			this.incidentCount += other.incidentCount;
 			this.missedCount += other.missedCount;
-
+			this.window.plusEquals(other.window);
 		}
 
 		public void reset() {
@@ -97,6 +168,7 @@ public final class Statistics {
 			this.oldCount = 0L;
 			this.incidentCount = 0L;
 			this.missedCount = 0L;
+			this.window.reset();
 		}
 
 	}
@@ -113,6 +185,10 @@ public final class Statistics {
 		return aFeedStats.incidentCount;
 	}
 
+	public long getAFeedOldCount() {
+		return aFeedStats.oldCount;
+	}
+
 	public double getAFeedPercentageMissed() {
 		return aFeedStats.getPercentageMissed();
 	}
@@ -129,10 +205,37 @@ public final class Statistics {
 		return bFeedStats.incidentCount;
 	}
 
+	public long getBFeedOldCount() {
+		return bFeedStats.oldCount;
+	}
+
 	public double getBFeedPercentageMissed() {
 		return bFeedStats.getPercentageMissed();
 	}
 
+	public RollingWindow getAFeedWindow() {
+		return aFeedStats.window;
+	}
+
+	public RollingWindow getBFeedWindow() {
+		return bFeedStats.window;
+	}
+
+	public RollingWindow getCombinedFeedWindow() {
+		return combinedFeedStats.window;
+	}
+
+	/**
+	 * Receive time minus MDP sending time on the A line.
+	 */
+	public LatencyStats getAFeedLatency() {
+		return aFeedLatency;
+	}
+
+	public LatencyStats getBFeedLatency() {
+		return bFeedLatency;
+	}
+
 	public long getCombinedFeedReceivedCount() {
 		return combinedFeedStats.receivedCount;
 	}
@@ -145,14 +248,19 @@ public final class Statistics {
 		return combinedFeedStats.incidentCount;
 	}
 
+	public long getCombinedFeedOldCount() {
+		return combinedFeedStats.oldCount;
+	}
+
 	public double getCombinedFeedPercentageMissed() {
 		return combinedFeedStats.getPercentageMissed();
 	}
 
 	public static Statistics aggregate(Iterable<Statistics> all) {
-		LineStats aStats = new LineStats("all-a");
-		LineStats bStats = new LineStats("all-b");
-		LineStats cStats = new LineStats("all-c");
+		GapEventRing unused = new GapEventRing(0, 1);
+		LineStats aStats = new LineStats(LINE_A, unused);
+		LineStats bStats = new LineStats(LINE_B, unused);
+		LineStats cStats = new LineStats(LINE_COMBINED, unused);
 		for (Statistics stats : all) {
 			aStats.plusEquals(stats.aFeedStats);
 			bStats.plusEquals(stats.aFeedStats);
@@ -165,12 +273,32 @@ public final class Statistics {
 		aFeedStats.plusEquals(statistics.aFeedStats);
 		bFeedStats.plusEquals(statistics.bFeedStats);
 		combinedFeedStats.plusEquals(statistics.combinedFeedStats);
+		aFeedLatency.plusEquals(statistics.aFeedLatency);
+		bFeedLatency.plusEquals(statistics.bFeedLatency);
+	}
+
+	/**
+	 * Gap incidents recorded by the receive thread, for a background consumer
+	 * to drain.
+	 */
+	public GapEventRing getGapEvents() {
+		return gapEvents;
+	}
+
+	public void copyFrom(Statistics statistics) {
+		aFeedStats.copyFrom(statistics.aFeedStats);
+		bFeedStats.copyFrom(statistics.bFeedStats);
+		combinedFeedStats.copyFrom(statistics.combinedFeedStats);
+		aFeedLatency.copyFrom(statistics.aFeedLatency);
+		bFeedLatency.copyFrom(statistics.bFeedLatency);
 	}
 
 	public void reset() {
 		aFeedStats.reset();
 		bFeedStats.reset();
 		combinedFeedStats.reset();
+		aFeedLatency.reset();
+		bFeedLatency.reset();
 	}
 
 }
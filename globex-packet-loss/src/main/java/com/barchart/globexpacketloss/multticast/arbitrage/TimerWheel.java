@@ -0,0 +1,173 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+/**
+ * Hashed timer wheel driven by the thread that owns it, normally once per
+ * selector wakeup. Deadlines are rounded up to a tick and hashed into a
+ * bucket by tick; deadlines more than one revolution away wait out the extra
+ * revolutions in their bucket. Scheduling and cancelling are constant time
+ * and each elapsed tick visits only the timers of one bucket, however many
+ * are scheduled. Timers are intrusive list nodes, so nothing is allocated
+ * after they are created.
+ * <p>
+ * Not thread safe. A timer's callback may reschedule or cancel itself, but no
+ * other timer.
+ */
+public final class TimerWheel {
+
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	private static final int DEFAULT_BUCKETS = 512;
+
+	private final long tickMillis;
+
+	private final Timer[] heads;
+
+	private final int mask;
+
+	private long currentTick;
+
+	private int count;
+
+	public TimerWheel(long startMillis) {
+		this(startMillis, DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS);
+	}
+
+	public TimerWheel(long startMillis, long tickMillis, int buckets) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Tick must be positive.  Not: " + tickMillis);
+		}
+		if (Integer.bitCount(buckets) != 1) {
+			throw new IllegalArgumentException("Buckets must be a power of two.  Not: " + buckets);
+		}
+		this.tickMillis = tickMillis;
+		this.heads = new Timer[buckets];
+		this.mask = buckets - 1;
+		this.currentTick = startMillis / tickMillis;
+	}
+
+	/**
+	 * Schedules <code>timer</code> to fire on the first tick at or after
+	 * <code>deadlineMillis</code>, moving it if already scheduled. A deadline
+	 * already passed fires on the next tick.
+	 */
+	public void schedule(Timer timer, long deadlineMillis) {
+		if (timer.bucket >= 0) {
+			cancel(timer);
+		}
+		long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+		long ticks = Math.max(deadlineTick - currentTick, 1);
+		int bucket = (int) ((currentTick + ticks) & mask);
+		timer.rounds = (ticks - 1) / heads.length;
+		link(timer, bucket);
+		count++;
+	}
+
+	public void cancel(Timer timer) {
+		if (timer.bucket < 0) {
+			return;
+		}
+		if (timer.prev == null) {
+			heads[timer.bucket] = timer.next;
+		} else {
+			timer.prev.next = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.next = null;
+		timer.prev = null;
+		timer.bucket = -1;
+		count--;
+	}
+
+	/**
+	 * Fires every timer whose deadline tick has passed by
+	 * <code>nowMillis</code>. A clock that went back fires nothing.
+	 */
+	public void advance(long nowMillis) throws Exception {
+		long nowTick = nowMillis / tickMillis;
+		while (currentTick < nowTick) {
+			currentTick++;
+			if (count > 0) {
+				expire((int) (currentTick & mask), nowMillis);
+			}
+		}
+	}
+
+	private void expire(int bucket, long nowMillis) throws Exception {
+		Timer timer = heads[bucket];
+		while (timer != null) {
+			// rescheduling links at the head, so the rest of the list is intact
+			Timer next = timer.next;
+			if (timer.rounds == 0) {
+				cancel(timer);
+				timer.onTimeout(nowMillis);
+			} else {
+				timer.rounds--;
+			}
+			timer = next;
+		}
+	}
+
+	/**
+	 * Milliseconds from <code>nowMillis</code> until the first tick with a
+	 * timer due, at most <code>maxMillis</code>, for a thread that blocks
+	 * between ticks. Looks at one bucket per tick in <code>maxMillis</code>.
+	 *
+	 * @return 0 if a timer is already due
+	 */
+	public long millisUntilNextDeadline(long nowMillis, long maxMillis) {
+		if (count > 0) {
+			long lastTick = currentTick + Math.min(maxMillis / tickMillis + 1, heads.length);
+			for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+				for (Timer timer = heads[(int) (tick & mask)]; timer != null; timer = timer.next) {
+					if (timer.rounds == 0) {
+						return Math.max(Math.min(tick * tickMillis - nowMillis, maxMillis), 0);
+					}
+				}
+			}
+		}
+		return maxMillis;
+	}
+
+	private void link(Timer timer, int bucket) {
+		Timer head = heads[bucket];
+		timer.next = head;
+		timer.prev = null;
+		if (head != null) {
+			head.prev = timer;
+		}
+		heads[bucket] = timer;
+		timer.bucket = bucket;
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	/**
+	 * Timers currently scheduled.
+	 */
+	public int size() {
+		return count;
+	}
+
+	public abstract static class Timer {
+
+		private Timer next;
+
+		private Timer prev;
+
+		private int bucket = -1;
+
+		private long rounds;
+
+		public final boolean isScheduled() {
+			return bucket >= 0;
+		}
+
+		protected abstract void onTimeout(long nowMillis) throws Exception;
+
+	}
+
+}
@@ -0,0 +1,472 @@
+package com.barchart.globexpacketloss.replay;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.barchart.globexpacketloss.ChannelTracker;
+import com.barchart.globexpacketloss.CmeXmlConfig;
+import com.barchart.globexpacketloss.DetectorOptions;
+import com.barchart.globexpacketloss.GapEventLogger;
+import com.barchart.globexpacketloss.capture.CaptureJournal;
+import com.barchart.globexpacketloss.capture.CaptureJournalReader;
+import com.barchart.globexpacketloss.incident.IncidentLog;
+import com.barchart.globexpacketloss.incident.LossCorrelator;
+import com.barchart.globexpacketloss.multticast.PoolingMulticastReceiver;
+import com.barchart.globexpacketloss.multticast.arbitrage.Clock;
+import com.barchart.globexpacketloss.multticast.arbitrage.CmeArbitrageur;
+import com.barchart.globexpacketloss.multticast.arbitrage.TimerWheel;
+import com.google.common.net.HostAndPort;
+
+/**
+ * Runs the A/B arbitrage and loss analysis offline over libpcap files or
+ * capture journal segments. A timer wheel runs on capture time, so gaps are
+ * given up on and idle lines noticed when they would have been live, and the
+ * gaps still open when the capture ends are given up on before the report.
+ * All the files are read together and merged by timestamp, so the journals of
+ * several shards, or pcaps of the A and B lines taken on separate appliances,
+ * replay as one capture.
+ */
+public final class PacketReplay {
+
+	private static final int MAX_PAYLOAD_SIZE = 1500;
+
+	private static final int GAP_DRAIN_MASK = 255;
+
+	private final Clock clock;
+
+	private final List<ChannelTracker> trackers;
+
+	private final ChannelTracker totalTracker;
+
+	private final double speed;
+
+	private final boolean raceStats;
+
+	private final GapEventLogger gapEventLogger;
+
+	private long[] routeKeys;
+
+	private PoolingMulticastReceiver[] routeReceivers;
+
+	private PoolingMulticastReceiver[] journalReceivers;
+
+	private TimerWheel timerWheel;
+
+	private long replayedCount;
+
+	private long unroutedCount;
+
+	private long firstTimestampNanos = Long.MIN_VALUE;
+
+	private long firstWallNanos;
+
+	/**
+	 * @param speed
+	 *            0 to replay as fast as possible, otherwise a multiple of the
+	 *            original capture rate.
+	 */
+	public PacketReplay(double speed, DetectorOptions options) {
+		this.clock = new Clock();
+		this.trackers = new ArrayList<ChannelTracker>();
+		this.totalTracker = new ChannelTracker(clock, 0, null, null, false);
+		this.speed = speed;
+		this.raceStats = options.getRaceRingSize() > 0;
+		this.gapEventLogger = new GapEventLogger();
+		if (options.getCorrelationWindowMillis() > 0) {
+			gapEventLogger.enableCorrelation(options.getCorrelationWindowMillis());
+		}
+	}
+
+	public void createTrackers(CmeXmlConfig xmlConfig, List<Integer> channelIds, DetectorOptions options) throws Exception {
+		for (Integer channelId : channelIds) {
+			HostAndPort incrementalFeedA = xmlConfig.getIncrementalFeedA(channelId);
+			HostAndPort incrementalFeedB = xmlConfig.getIncrementalFeedB(channelId);
+			ChannelTracker tracker = new ChannelTracker(clock, channelId, incrementalFeedA, incrementalFeedB, false, options);
+			trackers.add(tracker);
+			gapEventLogger.register(tracker.getStatistics().getGapEvents());
+		}
+		buildRoutes();
+	}
+
+	private void buildRoutes() throws Exception {
+		int size = trackers.size() * 2;
+		long[] keys = new long[size];
+		PoolingMulticastReceiver[] receivers = new PoolingMulticastReceiver[size];
+		int i = 0;
+		for (ChannelTracker tracker : trackers) {
+			keys[i] = routeKey(tracker.getFeedAHostAndPort());
+			receivers[i++] = tracker.getFeedReceiverA();
+			keys[i] = routeKey(tracker.getFeedBHostAndPort());
+			receivers[i++] = tracker.getFeedReceiverB();
+		}
+		// sort receivers alongside their keys for binary search
+		Integer[] order = new Integer[size];
+		for (int j = 0; j < size; j++) {
+			order[j] = j;
+		}
+		final long[] unsorted = keys;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(unsorted[a], unsorted[b]);
+			}
+		});
+		routeKeys = new long[size];
+		routeReceivers = new PoolingMulticastReceiver[size];
+		for (int j = 0; j < size; j++) {
+			routeKeys[j] = keys[order[j]];
+			routeReceivers[j] = receivers[order[j]];
+		}
+		// journal records name their channel and feed, A at 2 * id, B after it
+		int maxChannelId = 0;
+		for (ChannelTracker tracker : trackers) {
+			maxChannelId = Math.max(maxChannelId, tracker.getChannelId());
+		}
+		journalReceivers = new PoolingMulticastReceiver[(maxChannelId + 1) * 2];
+		for (ChannelTracker tracker : trackers) {
+			journalReceivers[tracker.getChannelId() * 2] = tracker.getFeedReceiverA();
+			journalReceivers[tracker.getChannelId() * 2 + 1] = tracker.getFeedReceiverB();
+		}
+	}
+
+	private static long routeKey(HostAndPort hostAndPort) throws Exception {
+		byte[] address = InetAddress.getByName(hostAndPort.getHostText()).getAddress();
+		int ip = ((address[0] & 0xff) << 24) | ((address[1] & 0xff) << 16) | ((address[2] & 0xff) << 8) | (address[3] & 0xff);
+		return routeKey(ip, hostAndPort.getPort());
+	}
+
+	private static long routeKey(int address, int port) {
+		return ((address & 0xffffffffL) << 16) | port;
+	}
+
+	/**
+	 * Replays the packets of all the files in timestamp order, packets with
+	 * the same timestamp in the order of the files.
+	 */
+	public void replay(List<File> files) throws Exception {
+		PriorityQueue<Source> sources = new PriorityQueue<Source>(Math.max(1, files.size()), new Comparator<Source>() {
+			@Override
+			public int compare(Source a, Source b) {
+				int order = Long.compare(a.getTimestampNanos(), b.getTimestampNanos());
+				return order != 0 ? order : Integer.compare(a.order, b.order);
+			}
+		});
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				File file = files.get(i);
+				offer(sources, file.getName().endsWith(CaptureJournal.SUFFIX) ? new JournalSource(file, i) : new PcapSource(file, i));
+			}
+			Source source;
+			while ((source = sources.poll()) != null) {
+				// stay on one file while it is still the earliest
+				Source next = sources.peek();
+				do {
+					replay(source.getTimestampNanos(), source.getReceiver(), source.getPayload());
+				} while (source.next() && (next == null || source.getTimestampNanos() < next.getTimestampNanos()));
+				if (source.isDone()) {
+					source.close();
+				} else {
+					sources.add(source);
+				}
+			}
+		} finally {
+			for (Source source : sources) {
+				source.close();
+			}
+		}
+	}
+
+	private static void offer(PriorityQueue<Source> sources, Source source) throws Exception {
+		if (source.next()) {
+			sources.add(source);
+		} else {
+			source.close();
+		}
+	}
+
+	/**
+	 * Packets of one file, positioned on the next one for the selected
+	 * channels.
+	 */
+	private abstract class Source implements AutoCloseable {
+
+		final int order;
+
+		private boolean done;
+
+		Source(int order) {
+			this.order = order;
+		}
+
+		/**
+		 * @return false at the end of the file
+		 */
+		final boolean next() throws Exception {
+			while (read()) {
+				if (getReceiver() != null) {
+					return true;
+				}
+				unroutedCount++;
+			}
+			done = true;
+			return false;
+		}
+
+		final boolean isDone() {
+			return done;
+		}
+
+		abstract boolean read() throws Exception;
+
+		abstract long getTimestampNanos();
+
+		abstract PoolingMulticastReceiver getReceiver();
+
+		abstract ByteBuffer getPayload();
+
+	}
+
+	private final class PcapSource extends Source {
+
+		private final File file;
+
+		private final PcapReader reader;
+
+		private PoolingMulticastReceiver receiver;
+
+		PcapSource(File file, int order) throws Exception {
+			super(order);
+			this.file = file;
+			this.reader = new PcapReader(file);
+		}
+
+		@Override
+		boolean read() throws Exception {
+			if (!reader.next()) {
+				return false;
+			}
+			int route = Arrays.binarySearch(routeKeys, routeKey(reader.getDestinationAddress(), reader.getDestinationPort()));
+			receiver = route < 0 ? null : routeReceivers[route];
+			return true;
+		}
+
+		@Override
+		long getTimestampNanos() {
+			return reader.getTimestampNanos();
+		}
+
+		@Override
+		PoolingMulticastReceiver getReceiver() {
+			return receiver;
+		}
+
+		@Override
+		ByteBuffer getPayload() {
+			return reader.getPayload();
+		}
+
+		@Override
+		public void close() throws Exception {
+			if (isDone()) {
+				System.out.println(file + ": " + reader.getPacketCount() + " packets, " + reader.getSkippedCount() + " not IPv4/UDP.");
+			}
+			reader.close();
+		}
+
+	}
+
+	private final class JournalSource extends Source {
+
+		private final CaptureJournalReader reader;
+
+		private PoolingMulticastReceiver receiver;
+
+		JournalSource(File segmentFile, int order) throws Exception {
+			super(order);
+			this.reader = new CaptureJournalReader(segmentFile);
+		}
+
+		@Override
+		boolean read() {
+			if (!reader.next()) {
+				return false;
+			}
+			receiver = findReceiver(reader.getChannelId(), reader.getFeed());
+			return true;
+		}
+
+		@Override
+		long getTimestampNanos() {
+			return reader.getReceiveTimeNanos();
+		}
+
+		@Override
+		PoolingMulticastReceiver getReceiver() {
+			return receiver;
+		}
+
+		@Override
+		ByteBuffer getPayload() {
+			return reader.getPayload();
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+	private PoolingMulticastReceiver findReceiver(int channelId, byte feed) {
+		int index = channelId * 2 + (feed == 'A' ? 0 : 1);
+		return channelId >= 0 && index < journalReceivers.length ? journalReceivers[index] : null;
+	}
+
+	private void replay(long timestampNanos, PoolingMulticastReceiver receiver, ByteBuffer payload) throws Exception {
+		if (payload.remaining() > MAX_PAYLOAD_SIZE || payload.remaining() < 4) {
+			unroutedCount++;
+			return;
+		}
+		if (speed > 0) {
+			pace(timestampNanos);
+		}
+		clock.replay(timestampNanos);
+		advanceTimers();
+		receiver.receiveCopyOf(payload);
+		if ((++replayedCount & GAP_DRAIN_MASK) == 0) {
+			gapEventLogger.drain();
+		}
+	}
+
+	private void pace(long timestampNanos) throws InterruptedException {
+		long now = System.nanoTime();
+		if (firstTimestampNanos == Long.MIN_VALUE) {
+			firstTimestampNanos = timestampNanos;
+			firstWallNanos = now;
+			return;
+		}
+		long due = firstWallNanos + (long) ((timestampNanos - firstTimestampNanos) / speed);
+		long wait = due - now;
+		if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * Runs the timers due by the replayed time, first starting the wheel at
+	 * the time of the first packet.
+	 */
+	private void advanceTimers() throws Exception {
+		if (timerWheel == null) {
+			timerWheel = new TimerWheel(clock.getTime());
+			for (ChannelTracker tracker : trackers) {
+				tracker.startTimers(timerWheel);
+			}
+		}
+		timerWheel.advance(clock.getTime());
+	}
+
+	/**
+	 * Moves replayed time past the gap timeout, so the gaps still waiting for
+	 * packets when the capture ended are reported.
+	 */
+	private void flushGaps() throws Exception {
+		if (timerWheel != null) {
+			long endMillis = clock.getTime() + CmeArbitrageur.GAP_TIMEOUT_MILLIS + timerWheel.getTickMillis();
+			clock.replay(TimeUnit.MILLISECONDS.toNanos(endMillis));
+			timerWheel.advance(endMillis);
+		}
+	}
+
+	/**
+	 * Replayed incidents are logged with their original times.
+	 */
+	public void setIncidentLog(IncidentLog incidentLog) {
+		gapEventLogger.setIncidentLog(incidentLog);
+	}
+
+	public void printReport() throws Exception {
+		flushGaps();
+		gapEventLogger.drain();
+		gapEventLogger.close();
+		totalTracker.reset();
+		System.out.println(ChannelTracker.HEADER);
+		for (ChannelTracker tracker : trackers) {
+			System.out.println(tracker.toString());
+			totalTracker.getStatistics().plusEquals(tracker.getStatistics());
+		}
+		System.out.println(totalTracker.toString());
+		LossCorrelator correlator = gapEventLogger.getCorrelator();
+		if (correlator != null) {
+			System.out.println(String.format("Loss events: %d single channel, %d single line, %d host-wide, %d incidents too late to correlate.",
+					correlator.getEventCount(LossCorrelator.Scope.CHANNEL), correlator.getEventCount(LossCorrelator.Scope.LINE),
+					correlator.getEventCount(LossCorrelator.Scope.HOST), correlator.getLateCount()));
+		}
+		if (raceStats) {
+			for (ChannelTracker tracker : trackers) {
+				tracker.takeSnapshot();
+				System.out.println(tracker.toRaceSnapshotString());
+			}
+		}
+	}
+
+	public long getReplayedCount() {
+		return replayedCount;
+	}
+
+	public long getUnroutedCount() {
+		return unroutedCount;
+	}
+
+	private static List<File> expandFiles(String[] args, int start) {
+		List<File> files = new ArrayList<File>();
+		for (int i = start; i < args.length; i++) {
+			File file = new File(args[i]);
+			if (file.isDirectory()) {
+				File[] segments = file.listFiles();
+				Arrays.sort(segments);
+				for (File segment : segments) {
+					if (segment.getName().endsWith(CaptureJournal.SUFFIX)) {
+						files.add(segment);
+					}
+				}
+			} else {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: PacketReplay <config.xml> <channelIds> <file.pcap | journal.gxj | journal directory>...");
+			System.out.println("  -Dglobex.replaySpeed=<multiple of capture rate> (default 0, as fast as possible)");
+			return;
+		}
+		CmeXmlConfig xmlConfig = CmeXmlConfig.parse(new File(args[0]).toURI().toURL());
+		List<Integer> channelIds = xmlConfig.selectChannels(args[1]);
+		double speed = Double.parseDouble(System.getProperty("globex.replaySpeed", "0"));
+		DetectorOptions options = DetectorOptions.fromSystemProperties();
+		PacketReplay replay = new PacketReplay(speed, options);
+		replay.createTrackers(xmlConfig, channelIds, options);
+		if (options.getIncidentDirectory() != null) {
+			replay.setIncidentLog(new IncidentLog(options.getIncidentDirectory()));
+		}
+
+		long start = System.nanoTime();
+		replay.replay(expandFiles(args, 2));
+		long elapsedNanos = System.nanoTime() - start;
+
+		replay.printReport();
+		double seconds = elapsedNanos / 1e9;
+		System.out.println(String.format("Replayed %d packets (%d not for the selected channels) in %.3f s, %.0f packets/s.", replay.getReplayedCount(),
+				replay.getUnroutedCount(), seconds, replay.getReplayedCount() / seconds));
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.barchart.globexpacketloss.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads IPv4/UDP datagrams out of a classic libpcap file through a sliding
+ * memory mapped window. Packets that are not unfragmented IPv4 UDP are
+ * skipped. Nothing is allocated per packet: the payload is exposed as the
+ * position/limit of a buffer that is only valid until the next call to
+ * {@link #next()}.
+ */
+public final class PcapReader implements AutoCloseable {
+
+	private static final int MAGIC_MICROS = 0xa1b2c3d4;
+
+	private static final int MAGIC_NANOS = 0xa1b23c4d;
+
+	private static final int GLOBAL_HEADER_SIZE = 24;
+
+	private static final int RECORD_HEADER_SIZE = 16;
+
+	private static final int LINKTYPE_ETHERNET = 1;
+
+	private static final int LINKTYPE_LINUX_SLL = 113;
+
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+
+	private static final int ETHERTYPE_VLAN = 0x8100;
+
+	private static final int IP_PROTOCOL_UDP = 17;
+
+	private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long fileSize;
+
+	private final ByteOrder headerOrder;
+
+	private final boolean nanosecondTimestamps;
+
+	private final int linkType;
+
+	private MappedByteBuffer window;
+
+	private long windowStart;
+
+	private ByteBuffer payload;
+
+	private long timestampNanos;
+
+	private int destinationAddress;
+
+	private int destinationPort;
+
+	private long packetCount;
+
+	private long skippedCount;
+
+	public PcapReader(File pcapFile) throws IOException {
+		this.file = new RandomAccessFile(pcapFile, "r");
+		this.channel = file.getChannel();
+		this.fileSize = channel.size();
+		map(0);
+		if (fileSize < GLOBAL_HEADER_SIZE) {
+			close();
+			throw new IOException("Not a pcap file: " + pcapFile);
+		}
+		int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+		ByteOrder order = ByteOrder.BIG_ENDIAN;
+		if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+			magic = Integer.reverseBytes(magic);
+			order = ByteOrder.LITTLE_ENDIAN;
+		}
+		if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+			close();
+			throw new IOException("Not a classic libpcap file (pcapng is not supported): " + pcapFile);
+		}
+		this.headerOrder = order;
+		this.nanosecondTimestamps = magic == MAGIC_NANOS;
+		this.linkType = window.order(headerOrder).getInt(20);
+		if (linkType != LINKTYPE_ETHERNET && linkType != LINKTYPE_LINUX_SLL) {
+			close();
+			throw new IOException("Unsupported pcap link type " + linkType + " in " + pcapFile);
+		}
+		window.position(GLOBAL_HEADER_SIZE);
+	}
+
+	/**
+	 * Advances to the next UDP datagram.
+	 *
+	 * @return false at end of file
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			long recordStart = windowStart + window.position();
+			if (recordStart + RECORD_HEADER_SIZE > fileSize) {
+				return false;
+			}
+			if (window.remaining() < RECORD_HEADER_SIZE) {
+				map(recordStart);
+			}
+			window.order(headerOrder);
+			int base = window.position();
+			long seconds = window.getInt(base) & 0xffffffffL;
+			long fraction = window.getInt(base + 4) & 0xffffffffL;
+			int capturedLength = window.getInt(base + 8);
+			if (capturedLength < 0 || recordStart + RECORD_HEADER_SIZE + capturedLength > fileSize) {
+				// truncated final record
+				return false;
+			}
+			if (window.remaining() < RECORD_HEADER_SIZE + capturedLength) {
+				map(recordStart);
+				base = 0;
+			}
+			int frameStart = base + RECORD_HEADER_SIZE;
+			int frameEnd = frameStart + capturedLength;
+			window.position(frameEnd);
+			packetCount++;
+			timestampNanos = seconds * 1000000000L + (nanosecondTimestamps ? fraction : fraction * 1000L);
+			if (parseFrame(frameStart, frameEnd)) {
+				return true;
+			}
+			skippedCount++;
+		}
+	}
+
+	private boolean parseFrame(int frameStart, int frameEnd) {
+		window.order(ByteOrder.BIG_ENDIAN);
+		int ipStart;
+		int etherType;
+		if (linkType == LINKTYPE_ETHERNET) {
+			if (frameEnd - frameStart < 14) {
+				return false;
+			}
+			etherType = window.getShort(frameStart + 12) & 0xffff;
+			ipStart = frameStart + 14;
+			if (etherType == ETHERTYPE_VLAN) {
+				if (frameEnd - frameStart < 18) {
+					return false;
+				}
+				etherType = window.getShort(frameStart + 16) & 0xffff;
+				ipStart = frameStart + 18;
+			}
+		} else {
+			if (frameEnd - frameStart < 16) {
+				return false;
+			}
+			etherType = window.getShort(frameStart + 14) & 0xffff;
+			ipStart = frameStart + 16;
+		}
+		if (etherType != ETHERTYPE_IPV4 || frameEnd - ipStart < 20) {
+			return false;
+		}
+		int versionAndLength = window.get(ipStart) & 0xff;
+		if ((versionAndLength >> 4) != 4) {
+			return false;
+		}
+		int ipHeaderLength = (versionAndLength & 0x0f) * 4;
+		int fragment = window.getShort(ipStart + 6) & 0x3fff;
+		int protocol = window.get(ipStart + 9) & 0xff;
+		if (protocol != IP_PROTOCOL_UDP || fragment != 0) {
+			return false;
+		}
+		int udpStart = ipStart + ipHeaderLength;
+		if (frameEnd - udpStart < 8) {
+			return false;
+		}
+		destinationAddress = window.getInt(ipStart + 16);
+		destinationPort = window.getShort(udpStart + 2) & 0xffff;
+		int udpLength = window.getShort(udpStart + 4) & 0xffff;
+		int payloadStart = udpStart + 8;
+		int payloadEnd = Math.min(udpStart + udpLength, frameEnd);
+		if (payloadEnd < payloadStart) {
+			return false;
+		}
+		payload.limit(payloadEnd);
+		payload.position(payloadStart);
+		return true;
+	}
+
+	private void map(long position) throws IOException {
+		long size = Math.min(WINDOW_SIZE, fileSize - position);
+		window = channel.map(MapMode.READ_ONLY, position, size);
+		windowStart = position;
+		payload = window.duplicate();
+	}
+
+	/**
+	 * Capture time of the current packet in nanoseconds since the epoch.
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/**
+	 * IPv4 destination address of the current packet, network order packed
+	 * into an int.
+	 */
+	public int getDestinationAddress() {
+		return destinationAddress;
+	}
+
+	public int getDestinationPort() {
+		return destinationPort;
+	}
+
+	/**
+	 * UDP payload of the current packet between position and limit.
+	 */
+	public ByteBuffer getPayload() {
+		return payload;
+	}
+
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+
+}
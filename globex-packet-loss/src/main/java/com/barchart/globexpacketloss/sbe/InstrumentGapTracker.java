@@ -0,0 +1,201 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.util.Arrays;
+
+/**
+ * Tracks RptSeq per SecurityID from incremental refresh entries and counts
+ * instrument level gaps. Each security gets a dense slot through a
+ * {@link LongLongHashMap}; slots of securities that have had a gap are listed
+ * separately so snapshots only copy those.
+ */
+public final class InstrumentGapTracker {
+
+	private static final long NO_SLOT = -1L;
+
+	private static final int TOP_INSTRUMENTS = 5;
+
+	private final LongLongHashMap slots;
+
+	private int[] securityIds;
+
+	private long[] lastRptSeqs;
+
+	private long[] missed;
+
+	private long[] incidents;
+
+	private int securityCount;
+
+	private int[] affected;
+
+	private int affectedCount;
+
+	private long entryCount;
+
+	private long incidentCount;
+
+	private long missedCount;
+
+	public InstrumentGapTracker(int expectedSecurities) {
+		this.slots = new LongLongHashMap(expectedSecurities, NO_SLOT);
+		int capacity = Math.max(16, expectedSecurities);
+		this.securityIds = new int[capacity];
+		this.lastRptSeqs = new long[capacity];
+		this.missed = new long[capacity];
+		this.incidents = new long[capacity];
+		this.affected = new int[16];
+	}
+
+	public void entry(int securityId, long rptSeq) {
+		entryCount++;
+		long slot = slots.get(securityId);
+		if (slot == NO_SLOT) {
+			addSecurity(securityId, rptSeq);
+			return;
+		}
+		int index = (int) slot;
+		long expected = lastRptSeqs[index] + 1;
+		if (rptSeq > expected) {
+			long gap = rptSeq - expected;
+			if (incidents[index] == 0) {
+				addAffected(index);
+			}
+			missed[index] += gap;
+			incidents[index]++;
+			missedCount += gap;
+			incidentCount++;
+			lastRptSeqs[index] = rptSeq;
+		} else if (rptSeq == expected || rptSeq == 1) {
+			// in order, or RptSeq restarted after a channel reset
+			lastRptSeqs[index] = rptSeq;
+		}
+	}
+
+	private void addSecurity(int securityId, long rptSeq) {
+		if (securityCount == securityIds.length) {
+			int capacity = securityIds.length << 1;
+			securityIds = Arrays.copyOf(securityIds, capacity);
+			lastRptSeqs = Arrays.copyOf(lastRptSeqs, capacity);
+			missed = Arrays.copyOf(missed, capacity);
+			incidents = Arrays.copyOf(incidents, capacity);
+		}
+		int index = securityCount++;
+		securityIds[index] = securityId;
+		lastRptSeqs[index] = rptSeq;
+		slots.put(securityId, index);
+	}
+
+	private void addAffected(int index) {
+		if (affectedCount == affected.length) {
+			affected = Arrays.copyOf(affected, affectedCount << 1);
+		}
+		affected[affectedCount++] = index;
+	}
+
+	public int getSecurityCount() {
+		return securityCount;
+	}
+
+	public int getAffectedCount() {
+		return affectedCount;
+	}
+
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	public long getIncidentCount() {
+		return incidentCount;
+	}
+
+	public long getMissedCount() {
+		return missedCount;
+	}
+
+	/**
+	 * Slots of the most affected securities by missed updates, at most
+	 * <code>limit</code>. Allocates; for the reporting thread.
+	 */
+	public int[] getMostAffected(int limit) {
+		int[] sorted = Arrays.copyOf(affected, affectedCount);
+		// selection of the top few, affected lists are short
+		int n = Math.min(limit, sorted.length);
+		for (int i = 0; i < n; i++) {
+			int best = i;
+			for (int j = i + 1; j < sorted.length; j++) {
+				if (missed[sorted[j]] > missed[sorted[best]]) {
+					best = j;
+				}
+			}
+			int tmp = sorted[i];
+			sorted[i] = sorted[best];
+			sorted[best] = tmp;
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+
+	public int getSecurityId(int slot) {
+		return securityIds[slot];
+	}
+
+	public long getMissed(int slot) {
+		return missed[slot];
+	}
+
+	public long getIncidents(int slot) {
+		return incidents[slot];
+	}
+
+	/**
+	 * Copies the totals and the affected securities. The copy can only be
+	 * read, not fed entries.
+	 */
+	public void copyFrom(InstrumentGapTracker other) {
+		if (affected.length < other.affectedCount) {
+			affected = new int[other.affected.length];
+		}
+		if (securityIds.length < other.affectedCount) {
+			int capacity = other.affected.length;
+			securityIds = new int[capacity];
+			missed = new long[capacity];
+			incidents = new long[capacity];
+		}
+		// compact: slot i of the copy is the i-th affected security
+		for (int i = 0; i < other.affectedCount; i++) {
+			int slot = other.affected[i];
+			securityIds[i] = other.securityIds[slot];
+			missed[i] = other.missed[slot];
+			incidents[i] = other.incidents[slot];
+			affected[i] = i;
+		}
+		this.affectedCount = other.affectedCount;
+		this.securityCount = other.securityCount;
+		this.entryCount = other.entryCount;
+		this.incidentCount = other.incidentCount;
+		this.missedCount = other.missedCount;
+	}
+
+	public void reset() {
+		for (int i = 0; i < affectedCount; i++) {
+			missed[affected[i]] = 0L;
+			incidents[affected[i]] = 0L;
+		}
+		this.affectedCount = 0;
+		this.entryCount = 0L;
+		this.incidentCount = 0L;
+		this.missedCount = 0L;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("instruments %6d affected %5d | rpt gaps %7d missed %8d |", securityCount, affectedCount, incidentCount, missedCount));
+		int[] top = getMostAffected(TOP_INSTRUMENTS);
+		for (int i = 0; i < top.length; i++) {
+			builder.append(String.format(" %d: %d missed in %d gaps", securityIds[top[i]], missed[top[i]], incidents[top[i]]));
+			builder.append(i < top.length - 1 ? "," : "");
+		}
+		return builder.toString();
+	}
+
+}
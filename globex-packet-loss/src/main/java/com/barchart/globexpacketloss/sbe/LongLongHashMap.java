@@ -0,0 +1,117 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing long to long hash map with linear probing over two parallel
+ * arrays. No boxing; only growing the table allocates. Not thread safe.
+ */
+public final class LongLongHashMap {
+
+	private static final double LOAD_FACTOR = 0.5;
+
+	private final long missingValue;
+
+	private long[] keys;
+
+	private long[] values;
+
+	private boolean[] used;
+
+	private int mask;
+
+	private int size;
+
+	private int resizeThreshold;
+
+	/**
+	 * @param expectedSize
+	 *            entries to hold without growing
+	 * @param missingValue
+	 *            returned by {@link #get(long)} for absent keys
+	 */
+	public LongLongHashMap(int expectedSize, long missingValue) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Expected size must not be negative.  Not: " + expectedSize);
+		}
+		this.missingValue = missingValue;
+		allocate(Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1);
+	}
+
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.values = new long[capacity];
+		this.used = new boolean[capacity];
+		this.mask = capacity - 1;
+		this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public long get(long key) {
+		int index = hash(key) & mask;
+		while (used[index]) {
+			if (keys[index] == key) {
+				return values[index];
+			}
+			index = (index + 1) & mask;
+		}
+		return missingValue;
+	}
+
+	public void put(long key, long value) {
+		int index = hash(key) & mask;
+		while (used[index]) {
+			if (keys[index] == key) {
+				values[index] = value;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		used[index] = true;
+		keys[index] = key;
+		values[index] = value;
+		if (++size > resizeThreshold) {
+			rehash();
+		}
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int index = hash(oldKeys[i]) & mask;
+				while (used[index]) {
+					index = (index + 1) & mask;
+				}
+				used[index] = true;
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	public long getMissingValue() {
+		return missingValue;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Walks the SBE messages of an MDP 3.0 packet, counting them into
+ * {@link MessageStats} and feeding the SecurityID and RptSeq of incremental
+ * refresh entries to an {@link InstrumentGapTracker}. Either may be null. One
+ * decoder per receive thread; it holds a single reusable flyweight.
+ */
+public final class MdpPacketDecoder {
+
+	/**
+	 * MsgSeqNum and SendingTime.
+	 */
+	public static final int PACKET_HEADER_SIZE = 12;
+
+	// blockLength u16, numInGroup u8
+	private static final int GROUP_HEADER_SIZE = 3;
+
+	/*
+	 * Offset of SecurityID in the NoMDEntries entries of the schema 1 version 9
+	 * incremental refresh templates that carry RptSeq, which always follows
+	 * it. -1 for other templates.
+	 */
+	private static final int[] SECURITY_ID_OFFSETS = new int[MessageStats.MAX_TEMPLATE_ID + 1];
+
+	static {
+		Arrays.fill(SECURITY_ID_OFFSETS, -1);
+		SECURITY_ID_OFFSETS[37] = 4; // Volume
+		SECURITY_ID_OFFSETS[46] = 12; // Book
+		SECURITY_ID_OFFSETS[48] = 12; // TradeSummary
+		SECURITY_ID_OFFSETS[49] = 12; // DailyStatistics
+		SECURITY_ID_OFFSETS[50] = 24; // LimitsBanding
+		SECURITY_ID_OFFSETS[51] = 8; // SessionStatistics
+	}
+
+	private final SbeMessageFlyweight message = new SbeMessageFlyweight();
+
+	private final MessageStats stats;
+
+	private final InstrumentGapTracker instruments;
+
+	public MdpPacketDecoder(MessageStats stats, InstrumentGapTracker instruments) {
+		this.stats = stats;
+		this.instruments = instruments;
+	}
+
+	/**
+	 * Decodes the packet between 0 and its limit. Returns the number of
+	 * complete messages found.
+	 */
+	public int decode(ByteBuffer packet) {
+		int end = packet.limit();
+		int offset = PACKET_HEADER_SIZE;
+		int messages = 0;
+		while (offset + SbeMessageFlyweight.HEADER_LENGTH <= end) {
+			message.wrap(packet, offset);
+			int size = message.getMessageSize();
+			if (size < SbeMessageFlyweight.HEADER_LENGTH || offset + size > end) {
+				break;
+			}
+			int templateId = message.getTemplateId();
+			if (stats != null) {
+				stats.message(templateId, size);
+			}
+			if (instruments != null && templateId <= MessageStats.MAX_TEMPLATE_ID && SECURITY_ID_OFFSETS[templateId] >= 0) {
+				decodeEntries(packet, offset + SbeMessageFlyweight.HEADER_LENGTH + message.getBlockLength(), offset + size,
+						SECURITY_ID_OFFSETS[templateId]);
+			}
+			messages++;
+			offset += size;
+		}
+		if (stats != null) {
+			stats.packet(messages, offset != end);
+		}
+		return messages;
+	}
+
+	private void decodeEntries(ByteBuffer packet, int group, int messageEnd, int securityIdOffset) {
+		if (group + GROUP_HEADER_SIZE > messageEnd) {
+			return;
+		}
+		int entryLength = packet.getShort(group) & 0xffff;
+		int count = packet.get(group + 2) & 0xff;
+		if (entryLength < securityIdOffset + 8) {
+			return;
+		}
+		int entry = group + GROUP_HEADER_SIZE;
+		for (int i = 0; i < count && entry + entryLength <= messageEnd; i++) {
+			instruments.entry(packet.getInt(entry + securityIdOffset), packet.getInt(entry + securityIdOffset + 4) & 0xffffffffL);
+			entry += entryLength;
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.barchart.globexpacketloss.multticast.arbitrage.LogHistogram;
+
+/**
+ * Messages per packet, and message and byte counts per template id, for one
+ * channel. Template ids above {@link #MAX_TEMPLATE_ID} are counted together.
+ */
+public final class MessageStats {
+
+	public static final int MAX_TEMPLATE_ID = 255;
+
+	private static final int TOP_TEMPLATES = 5;
+
+	private final LogHistogram messagesPerPacket = new LogHistogram();
+
+	private final long[] templateMessages = new long[MAX_TEMPLATE_ID + 1];
+
+	private final long[] templateBytes = new long[MAX_TEMPLATE_ID + 1];
+
+	private long otherMessages;
+
+	private long otherBytes;
+
+	private long malformedCount;
+
+	void message(int templateId, int size) {
+		if (templateId <= MAX_TEMPLATE_ID) {
+			templateMessages[templateId]++;
+			templateBytes[templateId] += size;
+		} else {
+			otherMessages++;
+			otherBytes += size;
+		}
+	}
+
+	void packet(int messages, boolean malformed) {
+		messagesPerPacket.record(messages);
+		if (malformed) {
+			malformedCount++;
+		}
+	}
+
+	public LogHistogram getMessagesPerPacket() {
+		return messagesPerPacket;
+	}
+
+	public long getTemplateMessages(int templateId) {
+		return templateMessages[templateId];
+	}
+
+	public long getTemplateBytes(int templateId) {
+		return templateBytes[templateId];
+	}
+
+	public long getOtherMessages() {
+		return otherMessages;
+	}
+
+	public long getOtherBytes() {
+		return otherBytes;
+	}
+
+	/**
+	 * Packets with bytes left over that did not form a complete message.
+	 */
+	public long getMalformedCount() {
+		return malformedCount;
+	}
+
+	/**
+	 * Template ids that have been seen, by descending message count.
+	 */
+	public List<Integer> getTemplatesByCount() {
+		List<Integer> templates = new ArrayList<Integer>();
+		for (int i = 0; i <= MAX_TEMPLATE_ID; i++) {
+			if (templateMessages[i] > 0) {
+				templates.add(i);
+			}
+		}
+		Collections.sort(templates, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(templateMessages[b], templateMessages[a]);
+			}
+		});
+		return templates;
+	}
+
+	public void copyFrom(MessageStats other) {
+		messagesPerPacket.copyFrom(other.messagesPerPacket);
+		System.arraycopy(other.templateMessages, 0, templateMessages, 0, templateMessages.length);
+		System.arraycopy(other.templateBytes, 0, templateBytes, 0, templateBytes.length);
+		this.otherMessages = other.otherMessages;
+		this.otherBytes = other.otherBytes;
+		this.malformedCount = other.malformedCount;
+	}
+
+	public void reset() {
+		messagesPerPacket.reset();
+		for (int i = 0; i <= MAX_TEMPLATE_ID; i++) {
+			templateMessages[i] = 0L;
+			templateBytes[i] = 0L;
+		}
+		this.otherMessages = 0L;
+		this.otherBytes = 0L;
+		this.malformedCount = 0L;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("msgs/packet p50 %3d p99 %3d max %3d | malformed %6d |", messagesPerPacket.getValueAtPercentile(50),
+				messagesPerPacket.getValueAtPercentile(99), messagesPerPacket.getMax(), malformedCount));
+		List<Integer> templates = getTemplatesByCount();
+		for (int i = 0; i < Math.min(TOP_TEMPLATES, templates.size()); i++) {
+			int templateId = templates.get(i);
+			builder.append(String.format(" %d: %d msgs %d KB", templateId, templateMessages[templateId], templateBytes[templateId] / 1024));
+			builder.append(i < Math.min(TOP_TEMPLATES, templates.size()) - 1 ? "," : "");
+		}
+		if (otherMessages > 0) {
+			builder.append(String.format(" other: %d msgs %d KB", otherMessages, otherBytes / 1024));
+		}
+		return builder.toString();
+	}
+
+}
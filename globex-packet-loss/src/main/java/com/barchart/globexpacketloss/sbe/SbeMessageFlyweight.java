@@ -0,0 +1,55 @@
+package com.barchart.globexpacketloss.sbe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * View of one MDP 3.0 message in a packet: the 2 byte message size followed by
+ * the SBE message header. Reads in place with absolute gets, so wrapping a new
+ * message never allocates. The buffer must be little endian.
+ */
+public final class SbeMessageFlyweight {
+
+	/**
+	 * Message size plus SBE header (block length, template id, schema id,
+	 * version).
+	 */
+	public static final int HEADER_LENGTH = 10;
+
+	private ByteBuffer buffer;
+
+	private int offset;
+
+	public SbeMessageFlyweight wrap(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Length of the whole message including the size field itself.
+	 */
+	public int getMessageSize() {
+		return buffer.getShort(offset) & 0xffff;
+	}
+
+	public int getBlockLength() {
+		return buffer.getShort(offset + 2) & 0xffff;
+	}
+
+	public int getTemplateId() {
+		return buffer.getShort(offset + 4) & 0xffff;
+	}
+
+	public int getSchemaId() {
+		return buffer.getShort(offset + 6) & 0xffff;
+	}
+
+	public int getVersion() {
+		return buffer.getShort(offset + 8) & 0xffff;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.barchart.globexpacketloss.capture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptureJournalTest {
+
+	private static final int SEGMENT_SIZE = 128 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rollsSegmentsAndReadsBackEveryRecord() throws Exception {
+		File dir = folder.newFolder();
+		ByteBuffer payload = ByteBuffer.allocate(1000);
+		try (CaptureJournal journal = new CaptureJournal(dir, "test", SEGMENT_SIZE)) {
+			for (int i = 0; i < 300; i++) {
+				payload.clear();
+				payload.putInt(0, i);
+				journal.append(1000L * i, 7, i % 2 == 0 ? (byte) 'A' : (byte) 'B', payload);
+				assertEquals(0, payload.position());
+			}
+			assertEquals(300, journal.getRecordCount());
+			assertEquals(2, journal.getSegmentNumber());
+		}
+		int record = 0;
+		for (int number = 0; number <= 2; number++) {
+			CaptureJournalReader reader = new CaptureJournalReader(CaptureJournal.segmentFile(dir, "test", number));
+			assertEquals(number, reader.getSegmentNumber());
+			while (reader.next()) {
+				assertEquals(1000L * record, reader.getReceiveTimeNanos());
+				assertEquals(7, reader.getChannelId());
+				assertEquals(record % 2 == 0 ? 'A' : 'B', reader.getFeed());
+				assertEquals(1000, reader.getPayload().remaining());
+				assertEquals(record, reader.getPayload().getInt(reader.getPayload().position()));
+				record++;
+			}
+			assertEquals(number < 2, reader.isRolled());
+		}
+		assertEquals(300, record);
+	}
+
+	@Test
+	public void cutsLastSegmentToLengthWritten() throws Exception {
+		File dir = folder.newFolder();
+		try (CaptureJournal journal = new CaptureJournal(dir, "test", SEGMENT_SIZE)) {
+			journal.append(1, 7, (byte) 'A', ByteBuffer.allocate(100));
+			journal.append(2, 7, (byte) 'B', ByteBuffer.allocate(100));
+		}
+		File file = CaptureJournal.segmentFile(dir, "test", 0);
+		assertEquals(CaptureJournal.SEGMENT_HEADER_SIZE + 2 * (CaptureJournal.RECORD_HEADER_SIZE + 100), file.length());
+		CaptureJournalReader reader = new CaptureJournalReader(file);
+		assertTrue(reader.next());
+		assertTrue(reader.next());
+		assertFalse(reader.next());
+		assertFalse(reader.isRolled());
+	}
+
+	@Test
+	public void keepsFullSegmentsWhole() throws Exception {
+		File dir = folder.newFolder();
+		try (CaptureJournal journal = new CaptureJournal(dir, "test", SEGMENT_SIZE)) {
+			for (int i = 0; i < 200; i++) {
+				journal.append(i, 7, (byte) 'A', ByteBuffer.allocate(1000));
+			}
+		}
+		assertEquals(SEGMENT_SIZE, CaptureJournal.segmentFile(dir, "test", 0).length());
+		assertTrue(CaptureJournal.segmentFile(dir, "test", 1).length() < SEGMENT_SIZE);
+	}
+
+}
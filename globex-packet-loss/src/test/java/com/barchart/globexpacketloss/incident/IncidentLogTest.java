@@ -0,0 +1,153 @@
+package com.barchart.globexpacketloss.incident;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncidentLogTest {
+
+	private static final long START = TimeUnit.MILLISECONDS.toNanos(1791898140000L);
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesRecordFields() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			log.appendGap(START, 7, (byte) 'A', 1001, 3, 1500000);
+			log.appendIdle(START + MS, 8, (byte) 'C', TimeUnit.SECONDS.toNanos(60));
+			log.appendEvent(START - MS, IncidentLog.HOST_LINE, 30, 60, 90, 2 * MS);
+			assertEquals(3, log.getAppendedCount());
+		}
+		IncidentLogReader reader = new IncidentLogReader(IncidentLog.segmentFile(dir, 0));
+		assertEquals(0, reader.getSegmentNumber());
+		assertEquals(3, reader.getRecordCount());
+		assertEquals(START, reader.getFirstTimeNanos());
+		assertEquals(START + MS, reader.getMaxTimeNanos());
+		reader.seek(0);
+		assertEquals(START, reader.getEpochNanos());
+		assertEquals(IncidentLog.KIND_GAP, reader.getKind());
+		assertEquals(7, reader.getChannelId());
+		assertEquals('A', reader.getLine());
+		assertEquals(1001, reader.getFirstMissingSequence());
+		assertEquals(3, reader.getMissingCount());
+		assertEquals(1500, reader.getDurationMicros());
+		reader.seek(1);
+		assertEquals(IncidentLog.KIND_IDLE, reader.getKind());
+		assertEquals('C', reader.getLine());
+		assertEquals(60000000, reader.getDurationMicros());
+		reader.seek(2);
+		assertEquals(IncidentLog.KIND_EVENT, reader.getKind());
+		assertEquals(IncidentLog.HOST_LINE, reader.getLine());
+		assertEquals(30, reader.getChannelId());
+		assertEquals(60, reader.getMissingCount());
+		assertEquals(90, reader.getFirstMissingSequence());
+	}
+
+	@Test
+	public void carriesOnInLastSegmentAfterRestart() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			for (int i = 0; i < 100; i++) {
+				log.appendGap(START + i * MS, 7, (byte) 'B', i, 1, MS);
+			}
+		}
+		try (IncidentLog log = new IncidentLog(dir)) {
+			assertEquals(0, log.getSegmentNumber());
+			// earlier than anything written before the restart
+			log.appendGap(START - MS, 7, (byte) 'B', 100, 1, MS);
+			for (int i = 0; i < 100; i++) {
+				log.appendGap(START + (100 + i) * MS, 7, (byte) 'B', 100 + i, 1, MS);
+			}
+			assertEquals(101, log.getAppendedCount());
+		}
+		IncidentLogReader reader = new IncidentLogReader(IncidentLog.segmentFile(dir, 0));
+		assertEquals(201, reader.getRecordCount());
+		assertEquals(START, reader.getFirstTimeNanos());
+		assertEquals(START + 199 * MS, reader.getMaxTimeNanos());
+		reader.seek(100);
+		assertEquals(START - MS, reader.getEpochNanos());
+		// the index keeps the latest time across the restart
+		assertEquals(64, reader.findStart(START + 99 * MS));
+		assertEquals(128, reader.findStart(START + 150 * MS));
+	}
+
+	@Test
+	public void rollsToNewSegmentWhenFull() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			for (int i = 0; i < IncidentLog.RECORDS_PER_SEGMENT + 10; i++) {
+				log.appendGap(START + i * 1000L, 7, (byte) 'A', i, 1, 1000);
+			}
+			assertEquals(1, log.getSegmentNumber());
+		}
+		assertArrayEquals(new int[] { 0, 1 }, IncidentLog.segmentNumbers(dir));
+		IncidentLogReader first = new IncidentLogReader(IncidentLog.segmentFile(dir, 0));
+		assertEquals(IncidentLog.RECORDS_PER_SEGMENT, first.getRecordCount());
+		IncidentLogReader second = new IncidentLogReader(IncidentLog.segmentFile(dir, 1));
+		assertEquals(1, second.getSegmentNumber());
+		assertEquals(10, second.getRecordCount());
+		assertEquals(START + IncidentLog.RECORDS_PER_SEGMENT * 1000L, second.getFirstTimeNanos());
+		try (IncidentLog log = new IncidentLog(dir)) {
+			assertEquals(1, log.getSegmentNumber());
+		}
+	}
+
+	@Test
+	public void findStartSkipsOnlyEarlierRecords() throws Exception {
+		File dir = folder.newFolder();
+		Random random = new Random(7);
+		long[] times = new long[5000];
+		try (IncidentLog log = new IncidentLog(dir)) {
+			for (int i = 0; i < times.length; i++) {
+				// channels drained slightly out of time order
+				times[i] = START + i * MS - random.nextInt(50) * MS;
+				log.appendGap(times[i], i % 10, (byte) 'A', i, 1, MS);
+			}
+		}
+		IncidentLogReader reader = new IncidentLogReader(IncidentLog.segmentFile(dir, 0));
+		for (long t = START - 100 * MS; t < START + 5100 * MS; t += 7 * MS) {
+			int start = reader.findStart(t);
+			assertEquals(0, start % IncidentLog.INDEX_INTERVAL);
+			for (int i = 0; i < start; i++) {
+				assertTrue(times[i] < t);
+			}
+			// at most one interval of records and the disorder before the first match
+			int first = 0;
+			while (first < times.length && times[first] < t) {
+				first++;
+			}
+			assertTrue(start + 2 * IncidentLog.INDEX_INTERVAL + 50 >= Math.min(first, times.length - 1));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void readerRejectsOtherFiles() throws Exception {
+		File file = folder.newFile();
+		Files.write(file.toPath(), new byte[IncidentLog.RECORDS_OFFSET]);
+		new IncidentLogReader(file);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void readerSeeksOnlyWrittenRecords() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			log.appendGap(START, 7, (byte) 'A', 1, 1, MS);
+		}
+		new IncidentLogReader(IncidentLog.segmentFile(dir, 0)).seek(1);
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.barchart.globexpacketloss.incident;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.BitSet;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncidentQueryTest {
+
+	private static final TimeZone CHICAGO = TimeZone.getTimeZone("America/Chicago");
+
+	private static final long START = IncidentQuery.parseTimeNanos("2026-10-13 08:29", CHICAGO);
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsEventsWrittenAfterTheirCloseDelay() throws Exception {
+		File dir = folder.newFolder();
+		IncidentLog log = new IncidentLog(dir);
+		for (int i = 0; i < 500; i++) {
+			log.appendGap(START + i * 10 * MS, 7, (byte) 'A', i, 1, MS);
+			if (i == 350) {
+				// an event that began at 1.0 s, closed and written at 3.5 s
+				log.appendEvent(START + 1000 * MS, IncidentLog.HOST_LINE, 30, 60, 90, 2 * MS);
+			}
+		}
+		log.close();
+		String out = query(dir, START + 900 * MS, START + 1100 * MS, "event");
+		assertTrue(out, out.contains("host-wide loss on 30 channels, 60 incidents, 90 missing"));
+		assertEquals(1, lines(out));
+		assertEquals(21, lines(query(dir, START + 900 * MS, START + 1100 * MS, "gap")));
+		assertEquals(22, lines(query(dir, START + 900 * MS, START + 1100 * MS, "all")));
+	}
+
+	@Test
+	public void filtersByChannelLineAndKind() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			for (int i = 0; i < 100; i++) {
+				log.appendGap(START + i * MS, 300 + i % 10, i % 2 == 0 ? (byte) 'A' : (byte) 'B', 1000 + i, 2, MS);
+			}
+			log.appendIdle(START + 50 * MS, 305, (byte) 'C', TimeUnit.SECONDS.toNanos(60));
+		}
+		long to = START + 99 * MS;
+		assertEquals(101, lines(query(dir, START, to, null, "ABC", "all")));
+		assertEquals(20, lines(query(dir, START, to, IncidentQuery.parseChannels("301,303"), "ABC", "gap")));
+		assertEquals(30, lines(query(dir, START, to, IncidentQuery.parseChannels("300-304"), "A", "gap")));
+		String idle = query(dir, START, to, IncidentQuery.parseChannels("305"), "C", "idle");
+		assertEquals("2026-10-13 08:29:00.050000 305-C idle for 60000 ms", idle.trim());
+		String gap = query(dir, START + 7 * MS, START + 7 * MS, null, "ABC", "gap");
+		assertEquals("2026-10-13 08:29:00.007000 307-B missing 2 from 1007, 1000 us since previous packet", gap.trim());
+	}
+
+	@Test
+	public void leavesEventsOutOfFilteredQueriesOfAllKinds() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			log.appendGap(START, 7, (byte) 'A', 1000, 1, MS);
+			log.appendGap(START, 8, (byte) 'A', 2000, 1, MS);
+			log.appendEvent(START, (byte) 'A', 2, 2, 2, MS);
+		}
+		assertEquals(3, lines(query(dir, START, START, null, "ABC", "all")));
+		assertEquals(1, lines(query(dir, START, START, IncidentQuery.parseChannels("7"), "ABC", "all")));
+		assertEquals(2, lines(query(dir, START, START, null, "A", "all")));
+		assertEquals(1, lines(query(dir, START, START, IncidentQuery.parseChannels("7"), "A", "event")));
+	}
+
+	@Test
+	public void readsLittleMoreThanTheRange() throws Exception {
+		File dir = folder.newFolder();
+		try (IncidentLog log = new IncidentLog(dir)) {
+			for (int i = 0; i < 100000; i++) {
+				log.appendGap(START + i * MS, 7, (byte) 'A', i, 1, MS);
+			}
+		}
+		IncidentQuery query = new IncidentQuery(START + 50000 * MS, START + 50099 * MS, null, "ABC", "gap", CHICAGO);
+		assertEquals(100, query.run(dir, new PrintStream(new ByteArrayOutputStream())));
+		// an index interval before, the disorder tolerance after
+		assertTrue(String.valueOf(query.getScannedCount()), query.getScannedCount() <= 100 + IncidentLog.INDEX_INTERVAL + 1001);
+	}
+
+	@Test
+	public void parsesTimesAndChannels() {
+		assertEquals(START, IncidentQuery.parseTimeNanos("2026-10-13T08:29", CHICAGO));
+		assertEquals(START + 1500 * MS, IncidentQuery.parseTimeNanos("2026-10-13 08:29:01.500", CHICAGO));
+		assertEquals(START, IncidentQuery.parseTimeNanos(Long.toString(TimeUnit.NANOSECONDS.toMillis(START)), CHICAGO));
+		assertEquals(IncidentQuery.parseChannels("7, 310-312"), IncidentQuery.parseChannels("7,310,311,312"));
+		assertEquals(null, IncidentQuery.parseChannels("all"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBadTime() {
+		IncidentQuery.parseTimeNanos("2026-13-40 08:29", CHICAGO);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBadKinds() {
+		new IncidentQuery(START, START, null, "ABC", "gaps", CHICAGO);
+	}
+
+	private static String query(File dir, long from, long to, String kinds) throws Exception {
+		return query(dir, from, to, null, "ABC", kinds);
+	}
+
+	private static String query(File dir, long from, long to, BitSet channels, String lines, String kinds) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, "UTF-8");
+		new IncidentQuery(from, to, channels, lines, kinds, CHICAGO).run(dir, out);
+		return bytes.toString("UTF-8");
+	}
+
+	private static int lines(String out) {
+		return out.isEmpty() ? 0 : out.split("\n").length;
+	}
+
+}
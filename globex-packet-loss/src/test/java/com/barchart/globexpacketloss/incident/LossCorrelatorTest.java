@@ -0,0 +1,125 @@
+package com.barchart.globexpacketloss.incident;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.barchart.globexpacketloss.incident.LossCorrelator.Scope;
+import com.barchart.globexpacketloss.multticast.arbitrage.Statistics;
+
+public class LossCorrelatorTest {
+
+	private static final long T = TimeUnit.MILLISECONDS.toNanos(1767225600000L);
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final List<String> events = new ArrayList<String>();
+
+	private LossCorrelator correlator;
+
+	@Before
+	public void setUp() {
+		correlator = new LossCorrelator(1, new LossCorrelator.Handler() {
+			@Override
+			public void onLossEvent(LossCorrelator.Event event) {
+				StringBuilder builder = new StringBuilder();
+				builder.append(event.getScope()).append(' ').append((event.getStartNanos() - T) / 1000).append("us");
+				builder.append(" span ").append((event.getEndNanos() - event.getStartNanos()) / 1000).append("us");
+				builder.append(" channels ").append(event.getChannelCount()).append(event.hasMoreChannels() ? "+" : "");
+				builder.append(" incidents ").append(event.getIncidentCount()).append(" missing ").append(event.getMissingCount());
+				if (event.getScope() == Scope.LINE) {
+					builder.append(" line ").append((char) event.getLine());
+				}
+				events.add(builder.toString());
+			}
+		});
+	}
+
+	@Test
+	public void groupsLossOfManyChannelsOnBothLinesIntoHostEvent() {
+		for (int channel = 0; channel < 40; channel++) {
+			correlator.onLoss(channel, Statistics.LINE_A, T + 10 * MS + channel * 10000, T + 12 * MS, 2);
+			correlator.onLoss(channel, Statistics.LINE_B, T + 10 * MS + 300000, T + 12 * MS, 2);
+		}
+		// combined gaps are given up on a timeout later, but began with the others
+		for (int channel = 0; channel < 40; channel++) {
+			correlator.onLoss(channel, Statistics.LINE_COMBINED, T + 10 * MS + 200000, T + 112 * MS, 2);
+		}
+		assertEquals(0, events.size());
+		correlator.flush();
+		assertEquals("HOST 10000us span 390us channels 32+ incidents 120 missing 240", events.get(0));
+		assertEquals(1, correlator.getEventCount(Scope.HOST));
+	}
+
+	@Test
+	public void classifiesChannelAndLineEvents() {
+		correlator.onLoss(7, Statistics.LINE_A, T + 300 * MS, T + 301 * MS, 1);
+		correlator.onLoss(7, Statistics.LINE_B, T + 300 * MS, T + 301 * MS, 1);
+		// out of start order, as drained from the rings of different channels
+		for (int channel = 104; channel >= 100; channel--) {
+			correlator.onLoss(channel, Statistics.LINE_B, T + 500 * MS + channel * 1000, T + 502 * MS, 3);
+		}
+		correlator.flush();
+		assertEquals(2, events.size());
+		assertEquals("CHANNEL 300000us span 0us channels 1 incidents 2 missing 2", events.get(0));
+		assertEquals("LINE 500100us span 4us channels 5 incidents 5 missing 15 line B", events.get(1));
+	}
+
+	@Test
+	public void reportsEventsOnceTheirWindowsCloseAHorizonLater() {
+		correlator.onLoss(1, Statistics.LINE_A, T, T, 1);
+		correlator.onLoss(2, Statistics.LINE_A, T + MS, T + MS, 1);
+		correlator.onLoss(3, Statistics.LINE_A, T + 3 * MS, T + 3 * MS, 1);
+		correlator.advance(T + LossCorrelator.HORIZON_NANOS + MS);
+		assertEquals(0, events.size());
+		correlator.advance(T + LossCorrelator.HORIZON_NANOS + 3 * MS);
+		// the empty window at 2 ms ends the first event
+		assertEquals(1, events.size());
+		assertEquals("LINE 0us span 1000us channels 2 incidents 2 missing 2 line A", events.get(0));
+		correlator.advance(T + LossCorrelator.HORIZON_NANOS + 5 * MS);
+		assertEquals("CHANNEL 3000us span 0us channels 1 incidents 1 missing 1", events.get(1));
+	}
+
+	@Test
+	public void countsIncidentsOfClosedWindowsAsLate() {
+		correlator.onLoss(9, Statistics.LINE_A, T + 3000 * MS, T + 3001 * MS, 1);
+		correlator.onLoss(9, Statistics.LINE_A, T + 1000 * MS, T + 3002 * MS, 1);
+		correlator.flush();
+		assertEquals(1, correlator.getLateCount());
+		assertEquals(1, events.size());
+		assertEquals(1, correlator.getEventCount(Scope.CHANNEL));
+	}
+
+	@Test
+	public void cutsSustainedLossIntoEventsOfMaxLength() {
+		for (int i = 0; i < 2500; i++) {
+			correlator.onLoss(i % 3, Statistics.LINE_A, T + i * MS, T + i * MS, 1);
+		}
+		correlator.flush();
+		assertEquals(3, events.size());
+		assertEquals("LINE 0us span 1000000us channels 3 incidents 1001 missing 1001 line A", events.get(0));
+		assertEquals("LINE 1001000us span 1000000us channels 3 incidents 1001 missing 1001 line A", events.get(1));
+		assertEquals("LINE 2002000us span 497000us channels 3 incidents 498 missing 498 line A", events.get(2));
+	}
+
+	@Test
+	public void skipsQuietStretchesBeyondTheRing() {
+		correlator.onLoss(1, Statistics.LINE_A, T, T, 1);
+		correlator.onLoss(2, Statistics.LINE_A, T + 60000 * MS, T + 60000 * MS, 1);
+		correlator.flush();
+		assertEquals(2, events.size());
+		assertEquals("CHANNEL 60000000us span 0us channels 1 incidents 1 missing 1", events.get(1));
+		assertEquals(0, correlator.getLateCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsWindowLongerThanHorizon() {
+		new LossCorrelator(LossCorrelator.MAX_WINDOW_MILLIS + 1, null);
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.barchart.globexpacketloss.kernel;
+
+import static com.barchart.globexpacketloss.kernel.UdpSocketTableTest.fixture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.net.HostAndPort;
+
+import org.junit.Assume;
+
+/**
+ * The udp fixture was captured with the detector on channels 7 and 8 and a
+ * second process that joined 224.0.31.1:14310 and never read: its row, inode
+ * 63870, is full and dropping, while the detector's own row for the same
+ * group and port, inode 63888, is empty.
+ */
+public class KernelUdpSamplerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File snmp;
+
+	private File fds;
+
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeTrue(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+		snmp = new File(folder.getRoot(), "snmp");
+		Files.copy(fixture("proc-net-snmp-start.txt").toPath(), snmp.toPath());
+		fds = folder.newFolder("fd");
+	}
+
+	@Test
+	public void matchesOnlyOwnSockets() throws Exception {
+		openFd(3, 63888);
+		SocketBacklog backlog = new SocketBacklog();
+		KernelUdpSampler sampler = sampler(fds);
+		sampler.watch(HostAndPort.fromParts("224.0.31.1", 14310), backlog);
+		sampler.sample();
+		assertTrue(backlog.isFound());
+		assertEquals(1, backlog.getSocketCount());
+		assertEquals(63888, backlog.getInode());
+		assertEquals(0, backlog.getRxQueue());
+		assertEquals(0, backlog.getDrops());
+	}
+
+	@Test
+	public void addsUpOwnSocketsBoundToTheSameGroupAndPort() throws Exception {
+		openFd(3, 63888);
+		openFd(4, 63870);
+		SocketBacklog first = new SocketBacklog();
+		SocketBacklog second = new SocketBacklog();
+		KernelUdpSampler sampler = sampler(fds);
+		sampler.watch(HostAndPort.fromParts("224.0.31.1", 14310), first);
+		sampler.watch(HostAndPort.fromParts("224.0.31.1", 14310), second);
+		sampler.sample();
+		for (SocketBacklog backlog : new SocketBacklog[] { first, second }) {
+			assertEquals(2, backlog.getSocketCount());
+			assertEquals(0x1fe00, backlog.getRxQueue());
+			assertEquals(0x1fe00, backlog.getRxQueueHighWater());
+			assertEquals(57017, backlog.getDrops());
+		}
+		assertTrue(first.toString().endsWith("(2 sockets)"));
+	}
+
+	@Test
+	public void matchesAnyProcessWithoutFdDirectory() throws Exception {
+		SocketBacklog backlog = new SocketBacklog();
+		KernelUdpSampler sampler = sampler(null);
+		sampler.watch(HostAndPort.fromParts("224.0.31.1", 14310), backlog);
+		sampler.sample();
+		assertEquals(2, backlog.getSocketCount());
+		assertEquals(57017, backlog.getDrops());
+	}
+
+	@Test
+	public void reportsSocketsNotFound() throws Exception {
+		openFd(3, 63888);
+		SocketBacklog backlog = new SocketBacklog();
+		KernelUdpSampler sampler = sampler(fds);
+		sampler.watch(HostAndPort.fromParts("224.0.31.9", 14390), backlog);
+		sampler.sample();
+		assertFalse(backlog.isFound());
+		assertEquals("socket not found", backlog.toString().trim());
+	}
+
+	@Test
+	public void countsHostErrorsSinceFirstSample() throws Exception {
+		KernelUdpSampler sampler = sampler(fds);
+		sampler.sample();
+		assertEquals(0, sampler.getRcvbufErrors());
+		Files.copy(fixture("proc-net-snmp-later.txt").toPath(), snmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		sampler.sample();
+		assertEquals(57030, sampler.getRcvbufErrors());
+		assertEquals(57030, sampler.getInErrors());
+		assertEquals(2, sampler.getSampleCount());
+	}
+
+	private KernelUdpSampler sampler(File fdDirectory) throws Exception {
+		return new KernelUdpSampler(fixture("proc-net-udp.txt"), snmp, fdDirectory, 1000);
+	}
+
+	private void openFd(int fd, long inode) throws Exception {
+		Files.createSymbolicLink(new File(fds, Integer.toString(fd)).toPath(), Paths.get("socket:[" + inode + "]"));
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.barchart.globexpacketloss.kernel;
+
+import static com.barchart.globexpacketloss.kernel.UdpSocketTableTest.fixture;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UdpSnmpCountersTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsUdpCountersNotUdpLite() throws Exception {
+		UdpSnmpCounters counters = UdpSnmpCounters.read(fixture("proc-net-snmp-later.txt"));
+		assertEquals(24642023, counters.getInDatagrams());
+		assertEquals(57030, counters.getInErrors());
+		assertEquals(57030, counters.getRcvbufErrors());
+	}
+
+	@Test
+	public void findsCountersByName() {
+		UdpSnmpCounters counters = UdpSnmpCounters.parse("Udp: RcvbufErrors InDatagrams Unknown InErrors", "Udp: 3 100 7 5");
+		assertEquals(100, counters.getInDatagrams());
+		assertEquals(5, counters.getInErrors());
+		assertEquals(3, counters.getRcvbufErrors());
+	}
+
+	@Test(expected = IOException.class)
+	public void failsWithoutUdpCounters() throws Exception {
+		File file = folder.newFile();
+		Files.write(file.toPath(), Arrays.asList("Ip: Forwarding DefaultTTL", "Ip: 2 64"), StandardCharsets.US_ASCII);
+		UdpSnmpCounters.read(file);
+	}
+
+}
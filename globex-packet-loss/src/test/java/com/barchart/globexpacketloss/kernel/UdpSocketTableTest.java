@@ -0,0 +1,50 @@
+package com.barchart.globexpacketloss.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class UdpSocketTableTest {
+
+	static final int GROUP_A = (224 << 24) | (0 << 16) | (31 << 8) | 1;
+
+	static File fixture(String name) throws Exception {
+		return new File(UdpSocketTableTest.class.getResource(name).toURI());
+	}
+
+	@Test
+	public void readsEverySocketRow() throws Exception {
+		List<UdpSocketTable.Row> rows = UdpSocketTable.read(fixture("proc-net-udp.txt"));
+		assertEquals(6, rows.size());
+	}
+
+	@Test
+	public void parsesQueueInodeAndDrops() throws Exception {
+		// captured on x86, where the kernel prints the address byte swapped
+		Assume.assumeTrue(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+		List<UdpSocketTable.Row> rows = UdpSocketTable.read(fixture("proc-net-udp.txt"));
+		UdpSocketTable.Row full = rows.get(2);
+		assertEquals(GROUP_A, full.getAddress());
+		assertEquals(14310, full.getPort());
+		assertEquals(0x1fe00, full.getRxQueue());
+		assertEquals(63870, full.getInode());
+		assertEquals(57017, full.getDrops());
+		UdpSocketTable.Row wildcard = rows.get(0);
+		assertEquals(0, wildcard.getAddress());
+		assertEquals(0xa456, wildcard.getPort());
+	}
+
+	@Test
+	public void skipsLinesThatAreNotRows() {
+		assertNull(UdpSocketTable.parse("   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops"));
+		assertNull(UdpSocketTable.parse(""));
+		assertNull(UdpSocketTable.parse(" 1317: 011F00E0:37E6 00000000:0000 07 00000000:zz 00:00000000 00000000 0 0 63888 2 00000000da28e716 0"));
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.barchart.globexpacketloss.multticast;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CycleStatsTest {
+
+	private static final long MILLIS = 1000000L;
+
+	@Test
+	public void countsLateAndDuplicatePacketsAsOld() {
+		CycleStats stats = new CycleStats();
+		receive(stats, 1, 10, 0);
+		stats.receive(7, 10 * MILLIS);
+		stats.receive(10, 11 * MILLIS);
+		assertEquals(0, stats.getCycleCount());
+		assertEquals(2, stats.getOldCount());
+		assertEquals(0, stats.getMissedCount());
+		receive(stats, 11, 5, 13 * MILLIS);
+		assertEquals(15, stats.getReceivedCount() - stats.getOldCount());
+		assertEquals(0, stats.getMissedCount());
+	}
+
+	@Test
+	public void startsCycleWhenSequenceReturnsToOne() {
+		CycleStats stats = new CycleStats();
+		receive(stats, 1, 100, 0);
+		receive(stats, 1, 100, 250 * MILLIS);
+		stats.receive(1, 600 * MILLIS);
+		assertEquals(2, stats.getCycleCount());
+		assertEquals(100, stats.getLastCyclePackets());
+		assertEquals(0, stats.getOldCount());
+		assertEquals(0, stats.getMissedCount());
+	}
+
+	@Test
+	public void startsCycleWhenFirstPacketsOfPassAreLost() {
+		CycleStats stats = new CycleStats();
+		receive(stats, 1, 5000, 0);
+		receive(stats, 4, 100, 300 * MILLIS);
+		assertEquals(1, stats.getCycleCount());
+		assertEquals(3, stats.getMissedCount());
+		assertEquals(1, stats.getIncidentCount());
+		assertEquals(0, stats.getOldCount());
+	}
+
+	private static void receive(CycleStats stats, long first, int count, long nanoTime) {
+		for (int i = 0; i < count; i++) {
+			stats.receive(first + i, nanoTime + i);
+		}
+	}
+
+}
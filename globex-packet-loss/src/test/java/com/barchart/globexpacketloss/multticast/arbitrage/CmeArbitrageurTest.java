@@ -0,0 +1,89 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class CmeArbitrageurTest {
+
+	@Test
+	public void lockingGapTimesOutWithoutFurtherPackets() throws Exception {
+		Clock clock = new Clock();
+		clock.update();
+		RecordingArbitrageur arbitrageur = new RecordingArbitrageur(clock);
+		arbitrageur.enableLocking();
+		TimerWheel wheel = new TimerWheel(System.currentTimeMillis());
+		arbitrageur.startTimers(wheel);
+		arbitrageur.receiveOnAFeed(packet(1));
+		arbitrageur.receiveOnAFeed(packet(3));
+		assertEquals(0, arbitrageur.lossCount);
+		// the line goes quiet; only the timer thread runs from here on
+		Thread.sleep(250);
+		wheel.advance(System.currentTimeMillis());
+		assertEquals(1, arbitrageur.lossCount);
+		assertEquals(2, arbitrageur.firstMissing);
+		assertEquals(1, arbitrageur.missing);
+		assertEquals(3, arbitrageur.lastDispatched);
+	}
+
+	@Test
+	public void gapTimerFlushesWithWheelTime() throws Exception {
+		Clock clock = new Clock();
+		clock.update();
+		RecordingArbitrageur arbitrageur = new RecordingArbitrageur(clock);
+		long start = System.currentTimeMillis();
+		TimerWheel wheel = new TimerWheel(start);
+		arbitrageur.startTimers(wheel);
+		arbitrageur.receiveOnAFeed(packet(10));
+		arbitrageur.receiveOnBFeed(packet(12));
+		arbitrageur.receiveOnBFeed(packet(13));
+		wheel.advance(clock.getTime() + 50);
+		assertEquals(0, arbitrageur.lossCount);
+		wheel.advance(clock.getTime() + 200);
+		assertEquals(1, arbitrageur.lossCount);
+		assertEquals(11, arbitrageur.firstMissing);
+		assertEquals(13, arbitrageur.lastDispatched);
+	}
+
+	private static ByteBuffer packet(int sequence) {
+		ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0, sequence);
+		return buffer;
+	}
+
+	private static final class RecordingArbitrageur extends CmeArbitrageur {
+
+		private int lossCount;
+
+		private long firstMissing;
+
+		private int missing;
+
+		private long lastDispatched;
+
+		RecordingArbitrageur(Clock clock) {
+			super(clock, 16, 7);
+		}
+
+		@Override
+		protected void dispatch(ByteBuffer buffer) {
+			lastDispatched = buffer.getInt(0);
+		}
+
+		@Override
+		protected void reportPacketLoss(long firstMissingSequence, int missingCount) {
+			lossCount++;
+			firstMissing = firstMissingSequence;
+			missing = missingCount;
+		}
+
+		@Override
+		protected void reportIdleChannel(long millisSinceLastMessage) {
+		}
+
+	}
+
+}
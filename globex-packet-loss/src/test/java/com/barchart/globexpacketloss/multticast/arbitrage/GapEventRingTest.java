@@ -0,0 +1,120 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GapEventRingTest {
+
+	@Test
+	public void drainsIncidentsInOrder() {
+		GapEventRing ring = new GapEventRing(7, 4);
+		assertTrue(ring.offer(Statistics.LINE_A, 10, 13, 1000, 50));
+		assertTrue(ring.offerIdle(Statistics.LINE_COMBINED, 2000, 3000));
+		RecordingHandler handler = new RecordingHandler();
+		assertEquals(2, ring.drain(handler));
+		assertEquals("gap 7 A 10 13 1000 50", handler.incidents.get(0));
+		assertEquals("idle 7 C 2000 3000", handler.incidents.get(1));
+		assertEquals(0, ring.drain(handler));
+	}
+
+	@Test
+	public void dropsAndCountsIncidentsWhenFull() {
+		GapEventRing ring = new GapEventRing(7, 4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.offer(Statistics.LINE_B, i, i + 2, i, 1));
+		}
+		assertFalse(ring.offer(Statistics.LINE_B, 4, 6, 4, 1));
+		assertFalse(ring.offerIdle(Statistics.LINE_B, 100, 5));
+		assertEquals(2, ring.getOverflowCount());
+		assertEquals(2, ring.takeNewOverflow());
+		assertEquals(0, ring.takeNewOverflow());
+		RecordingHandler handler = new RecordingHandler();
+		assertEquals(4, ring.drain(handler));
+		assertEquals("gap 7 B 3 5 3 1", handler.incidents.get(3));
+		assertTrue(ring.offer(Statistics.LINE_B, 7, 9, 7, 1));
+		assertEquals(2, ring.getOverflowCount());
+	}
+
+	@Test
+	public void wrapsAround() {
+		GapEventRing ring = new GapEventRing(8, 4);
+		RecordingHandler handler = new RecordingHandler();
+		for (int i = 0; i < 10; i++) {
+			ring.offer(Statistics.LINE_A, i, i + 1, i, 0);
+			ring.offer(Statistics.LINE_B, i, i + 1, i, 0);
+			assertEquals(2, ring.drain(handler));
+		}
+		assertEquals(20, handler.incidents.size());
+		assertEquals("gap 8 B 9 10 9 0", handler.incidents.get(19));
+		assertEquals(0, ring.getOverflowCount());
+	}
+
+	@Test
+	public void handsOverEveryIncidentAcrossThreads() throws Exception {
+		final GapEventRing ring = new GapEventRing(9, 64);
+		final int total = 200000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < total; i++) {
+					while (!ring.offer(Statistics.LINE_A, i, i + 1, i, i)) {
+						Thread.yield();
+					}
+				}
+			}
+		});
+		final long[] next = new long[1];
+		GapEventRing.Handler handler = new GapEventRing.Handler() {
+			@Override
+			public void onGap(int channelId, byte line, long expected, long received, long epochNanos, long durationNanos) {
+				if (expected != next[0] || received != expected + 1 || epochNanos != expected || durationNanos != expected) {
+					throw new AssertionError("Expected incident " + next[0] + ", not " + expected);
+				}
+				next[0]++;
+			}
+
+			@Override
+			public void onIdle(int channelId, byte line, long idleMillis, long epochNanos) {
+				throw new AssertionError("No idle incidents offered");
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (next[0] < total && System.currentTimeMillis() < deadline) {
+			if (ring.drain(handler) == 0) {
+				Thread.yield();
+			}
+		}
+		producer.join(1000);
+		assertEquals(total, next[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCapacityNotPowerOfTwo() {
+		new GapEventRing(1, 100);
+	}
+
+	private static final class RecordingHandler implements GapEventRing.Handler {
+
+		private final List<String> incidents = new ArrayList<String>();
+
+		@Override
+		public void onGap(int channelId, byte line, long expected, long received, long epochNanos, long durationNanos) {
+			incidents.add("gap " + channelId + " " + (char) line + " " + expected + " " + received + " " + epochNanos + " " + durationNanos);
+		}
+
+		@Override
+		public void onIdle(int channelId, byte line, long idleMillis, long epochNanos) {
+			incidents.add("idle " + channelId + " " + (char) line + " " + idleMillis + " " + epochNanos);
+		}
+
+	}
+
+}
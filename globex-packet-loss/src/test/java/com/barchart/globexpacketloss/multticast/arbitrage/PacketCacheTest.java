@@ -0,0 +1,133 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PacketCacheTest {
+
+	@Test
+	public void holdsCopyOfPacket() {
+		PacketCache cache = new PacketCache(16);
+		ByteBuffer buffer = packet(5, 100);
+		buffer.position(2);
+		assertTrue(cache.put(5, buffer));
+		assertEquals(2, buffer.position());
+		buffer.putInt(4, -1);
+		ByteBuffer copy = cache.remove(5);
+		assertEquals(98, copy.remaining());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, copy.order());
+		assertEquals(5, copy.getInt(2));
+		assertEquals(0, cache.getCount());
+		assertNull(cache.remove(5));
+	}
+
+	@Test
+	public void ignoresSequenceAlreadyHeld() {
+		PacketCache cache = new PacketCache(16);
+		assertTrue(cache.put(5, packet(5, 40)));
+		assertTrue(cache.put(5, packet(6, 40)));
+		assertEquals(1, cache.getCount());
+		assertEquals(5, cache.remove(5).getInt(4));
+	}
+
+	@Test
+	public void reusesFreedSlots() {
+		PacketCache cache = new PacketCache(4);
+		Set<ByteBuffer> used = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+		for (int seq = 0; seq < 10000; seq += 2) {
+			assertTrue(cache.put(seq, packet(seq, 1500)));
+			assertTrue(cache.put(seq + 1, packet(seq + 1, 1500)));
+			ByteBuffer slot = cache.remove(seq);
+			assertEquals(seq, slot.getInt(4));
+			used.add(slot);
+			slot = cache.remove(seq + 1);
+			assertEquals(seq + 1, slot.getInt(4));
+			used.add(slot);
+		}
+		assertEquals(2, used.size());
+		assertEquals(2, cache.getHighWater());
+		assertEquals(0, cache.getOverflowCount());
+	}
+
+	@Test
+	public void growsSlabUpToCapacity() {
+		PacketCache cache = new PacketCache(600);
+		for (int seq = 1; seq <= 600; seq++) {
+			assertTrue(cache.put(seq, packet(seq, 200)));
+		}
+		assertFalse(cache.put(601, packet(601, 200)));
+		assertEquals(1, cache.getOverflowCount());
+		for (int seq = 1; seq <= 600; seq++) {
+			assertEquals(seq, cache.remove(seq).getInt(4));
+		}
+		assertEquals(600, cache.getHighWater());
+	}
+
+	@Test
+	public void refusesPacketLargerThanSlot() {
+		PacketCache cache = new PacketCache(16);
+		assertFalse(cache.put(1, packet(1, PacketCache.SLOT_SIZE + 1)));
+		assertEquals(1, cache.getOverflowCount());
+		assertEquals(0, cache.getCount());
+	}
+
+	@Test
+	public void doublesRingWhenSequencesCollide() {
+		PacketCache cache = new PacketCache(4096);
+		assertEquals(1024, cache.getWindow());
+		assertTrue(cache.put(3, packet(3, 40)));
+		assertTrue(cache.put(3 + 1024, packet(3 + 1024, 40)));
+		assertEquals(2048, cache.getWindow());
+		assertEquals(3, cache.remove(3).getInt(4));
+		assertEquals(3 + 1024, cache.remove(3 + 1024).getInt(4));
+	}
+
+	@Test
+	public void growsRingToEightTimesTheCapacity() {
+		PacketCache cache = new PacketCache(4096);
+		for (int size = 1024; size < 32768; size <<= 1) {
+			assertTrue(cache.put(size, packet(size, 40)));
+			assertTrue(cache.put(size << 1, packet(size << 1, 40)));
+			assertEquals(size << 1, cache.getWindow());
+			cache.remove(size);
+			cache.remove(size << 1);
+		}
+		assertTrue(cache.put(1, packet(1, 40)));
+		assertFalse(cache.put(1 + 32768, packet(1 + 32768, 40)));
+		assertEquals(32768, cache.getWindow());
+	}
+
+	@Test
+	public void refusesSequenceTooFarAhead() {
+		PacketCache cache = new PacketCache(8);
+		int window = cache.getWindow();
+		assertEquals(64, window);
+		assertTrue(cache.put(3, packet(3, 40)));
+		assertFalse(cache.put(3 + window, packet(3 + window, 40)));
+		assertEquals(window, cache.getWindow());
+		assertEquals(1, cache.getOverflowCount());
+		assertEquals(3, cache.remove(3).getInt(4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyCache() {
+		new PacketCache(0);
+	}
+
+	private static ByteBuffer packet(int seq, int length) {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(4, seq);
+		return buffer;
+	}
+
+}
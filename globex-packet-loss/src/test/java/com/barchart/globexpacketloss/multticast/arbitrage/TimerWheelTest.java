@@ -0,0 +1,167 @@
+package com.barchart.globexpacketloss.multticast.arbitrage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	@Test
+	public void firesOnFirstTickAtOrAfterDeadline() throws Exception {
+		TimerWheel wheel = new TimerWheel(1000, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		wheel.schedule(timer, 1025);
+		assertTrue(timer.isScheduled());
+		assertEquals(1, wheel.size());
+		wheel.advance(1029);
+		assertEquals(0, timer.count);
+		wheel.advance(1030);
+		assertEquals(1, timer.count);
+		assertEquals(1030, timer.lastMillis);
+		assertFalse(timer.isScheduled());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void firesPassedDeadlineOnNextTick() throws Exception {
+		TimerWheel wheel = new TimerWheel(1000, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		wheel.schedule(timer, 500);
+		wheel.advance(1009);
+		assertEquals(0, timer.count);
+		wheel.advance(1010);
+		assertEquals(1, timer.count);
+	}
+
+	@Test
+	public void waitsOutRevolutions() throws Exception {
+		TimerWheel wheel = new TimerWheel(0, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		// 20 ticks on a wheel of 8 buckets passes its bucket twice first
+		wheel.schedule(timer, 200);
+		for (long now = 0; now < 200; now += 10) {
+			wheel.advance(now);
+			assertEquals(0, timer.count);
+		}
+		wheel.advance(200);
+		assertEquals(1, timer.count);
+	}
+
+	@Test
+	public void firesEveryTickSkippedAtOnce() throws Exception {
+		TimerWheel wheel = new TimerWheel(0, 10, 8);
+		CountingTimer near = new CountingTimer();
+		CountingTimer far = new CountingTimer();
+		wheel.schedule(near, 30);
+		wheel.schedule(far, 150);
+		wheel.advance(1000);
+		assertEquals(1, near.count);
+		assertEquals(1, far.count);
+		assertEquals(1000, far.lastMillis);
+	}
+
+	@Test
+	public void reschedulingMovesTimer() throws Exception {
+		TimerWheel wheel = new TimerWheel(0, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		wheel.schedule(timer, 50);
+		wheel.schedule(timer, 100);
+		assertEquals(1, wheel.size());
+		wheel.advance(90);
+		assertEquals(0, timer.count);
+		wheel.advance(100);
+		assertEquals(1, timer.count);
+		wheel.advance(500);
+		assertEquals(1, timer.count);
+	}
+
+	@Test
+	public void cancelledTimerDoesNotFire() throws Exception {
+		TimerWheel wheel = new TimerWheel(0, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		CountingTimer other = new CountingTimer();
+		wheel.schedule(timer, 50);
+		wheel.schedule(other, 50);
+		wheel.cancel(timer);
+		wheel.cancel(timer);
+		assertEquals(1, wheel.size());
+		wheel.advance(100);
+		assertEquals(0, timer.count);
+		assertEquals(1, other.count);
+	}
+
+	@Test
+	public void callbackMayRescheduleItself() throws Exception {
+		final TimerWheel wheel = new TimerWheel(0, 10, 8);
+		CountingTimer periodic = new CountingTimer() {
+			@Override
+			protected void onTimeout(long nowMillis) throws Exception {
+				super.onTimeout(nowMillis);
+				wheel.schedule(this, nowMillis + 30);
+			}
+		};
+		CountingTimer sameBucket = new CountingTimer();
+		wheel.schedule(sameBucket, 30);
+		wheel.schedule(periodic, 30);
+		for (long now = 0; now <= 300; now += 10) {
+			wheel.advance(now);
+		}
+		assertEquals(10, periodic.count);
+		assertEquals(1, sameBucket.count);
+		assertEquals(1, wheel.size());
+	}
+
+	@Test
+	public void clockGoingBackFiresNothing() throws Exception {
+		TimerWheel wheel = new TimerWheel(1000, 10, 8);
+		CountingTimer timer = new CountingTimer();
+		wheel.schedule(timer, 1010);
+		wheel.advance(900);
+		assertEquals(0, timer.count);
+		wheel.advance(1010);
+		assertEquals(1, timer.count);
+	}
+
+	@Test
+	public void findsNextDeadline() throws Exception {
+		TimerWheel wheel = new TimerWheel(1000, 10, 8);
+		assertEquals(100, wheel.millisUntilNextDeadline(1003, 100));
+		CountingTimer far = new CountingTimer();
+		// due after 3 revolutions of 8 ticks, beyond the 100 ms looked at
+		wheel.schedule(far, 1240);
+		assertEquals(100, wheel.millisUntilNextDeadline(1003, 100));
+		CountingTimer near = new CountingTimer();
+		wheel.schedule(near, 1045);
+		assertEquals(47, wheel.millisUntilNextDeadline(1003, 100));
+		assertEquals(20, wheel.millisUntilNextDeadline(1003, 20));
+		// the wheel has not been advanced past a due tick yet
+		assertEquals(0, wheel.millisUntilNextDeadline(1061, 100));
+		wheel.advance(1050);
+		assertEquals(1, near.count);
+		assertEquals(100, wheel.millisUntilNextDeadline(1050, 100));
+		wheel.advance(1230);
+		assertEquals(10, wheel.millisUntilNextDeadline(1230, 100));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBucketsNotPowerOfTwo() {
+		new TimerWheel(0, 10, 100);
+	}
+
+	private static class CountingTimer extends TimerWheel.Timer {
+
+		int count;
+
+		long lastMillis;
+
+		@Override
+		protected void onTimeout(long nowMillis) throws Exception {
+			count++;
+			lastMillis = nowMillis;
+		}
+
+	}
+
+}
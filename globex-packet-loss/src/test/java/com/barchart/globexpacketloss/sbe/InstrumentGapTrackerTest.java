@@ -0,0 +1,98 @@
+package com.barchart.globexpacketloss.sbe;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class InstrumentGapTrackerTest {
+
+	@Test
+	public void countsRptSeqGapsPerSecurity() {
+		InstrumentGapTracker tracker = new InstrumentGapTracker(4);
+		tracker.entry(100, 1);
+		tracker.entry(200, 50);
+		tracker.entry(100, 2);
+		tracker.entry(100, 5);
+		tracker.entry(200, 51);
+		tracker.entry(200, 60);
+		tracker.entry(100, 6);
+		assertEquals(2, tracker.getSecurityCount());
+		assertEquals(2, tracker.getAffectedCount());
+		assertEquals(7, tracker.getEntryCount());
+		assertEquals(2, tracker.getIncidentCount());
+		assertEquals(10, tracker.getMissedCount());
+		int[] top = tracker.getMostAffected(5);
+		assertEquals(2, top.length);
+		assertEquals(200, tracker.getSecurityId(top[0]));
+		assertEquals(8, tracker.getMissed(top[0]));
+		assertEquals(100, tracker.getSecurityId(top[1]));
+		assertEquals(2, tracker.getMissed(top[1]));
+		assertEquals(1, tracker.getIncidents(top[1]));
+	}
+
+	@Test
+	public void ignoresRepeatsAndFollowsReset() {
+		InstrumentGapTracker tracker = new InstrumentGapTracker(4);
+		tracker.entry(100, 10);
+		tracker.entry(100, 11);
+		tracker.entry(100, 9);
+		tracker.entry(100, 11);
+		tracker.entry(100, 12);
+		// RptSeq starts over after a channel reset
+		tracker.entry(100, 1);
+		tracker.entry(100, 2);
+		assertEquals(0, tracker.getIncidentCount());
+		assertEquals(0, tracker.getAffectedCount());
+	}
+
+	@Test
+	public void growsPastExpectedSecurities() {
+		InstrumentGapTracker tracker = new InstrumentGapTracker(4);
+		for (int id = 1; id <= 1000; id++) {
+			tracker.entry(id, 1);
+		}
+		for (int id = 1; id <= 1000; id++) {
+			tracker.entry(id, id % 10 == 0 ? 3 : 2);
+		}
+		assertEquals(1000, tracker.getSecurityCount());
+		assertEquals(100, tracker.getAffectedCount());
+		assertEquals(100, tracker.getMissedCount());
+		assertEquals(3, tracker.getMostAffected(3).length);
+	}
+
+	@Test
+	public void copiesOnlyAffectedSecurities() {
+		InstrumentGapTracker tracker = new InstrumentGapTracker(4);
+		for (int id = 1; id <= 100; id++) {
+			tracker.entry(id, 1);
+		}
+		tracker.entry(30, 4);
+		tracker.entry(70, 10);
+		InstrumentGapTracker copy = new InstrumentGapTracker(0);
+		copy.copyFrom(tracker);
+		assertEquals(100, copy.getSecurityCount());
+		assertEquals(2, copy.getAffectedCount());
+		assertEquals(10, copy.getMissedCount());
+		assertArrayEquals(new int[] { 1, 0 }, copy.getMostAffected(5));
+		assertEquals(70, copy.getSecurityId(1));
+		assertEquals(8, copy.getMissed(1));
+		assertEquals(30, copy.getSecurityId(0));
+	}
+
+	@Test
+	public void resetsCountsButKeepsRptSeqs() {
+		InstrumentGapTracker tracker = new InstrumentGapTracker(4);
+		tracker.entry(100, 1);
+		tracker.entry(100, 3);
+		tracker.reset();
+		assertEquals(0, tracker.getAffectedCount());
+		assertEquals(0, tracker.getMissedCount());
+		tracker.entry(100, 4);
+		assertEquals(0, tracker.getIncidentCount());
+		tracker.entry(100, 6);
+		assertEquals(1, tracker.getMissedCount());
+		assertEquals(1, tracker.getIncidents(tracker.getMostAffected(1)[0]));
+	}
+
+}
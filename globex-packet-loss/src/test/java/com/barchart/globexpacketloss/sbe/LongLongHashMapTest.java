@@ -0,0 +1,61 @@
+package com.barchart.globexpacketloss.sbe;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LongLongHashMapTest {
+
+	@Test
+	public void putsAndGets() {
+		LongLongHashMap map = new LongLongHashMap(16, -1);
+		map.put(0, 10);
+		map.put(-5, 20);
+		map.put(Long.MAX_VALUE, 30);
+		assertEquals(10, map.get(0));
+		assertEquals(20, map.get(-5));
+		assertEquals(30, map.get(Long.MAX_VALUE));
+		assertEquals(-1, map.get(1));
+		map.put(-5, 21);
+		assertEquals(21, map.get(-5));
+		assertEquals(3, map.size());
+	}
+
+	@Test
+	public void sizesTableForExpectedEntries() {
+		assertEquals(256, new LongLongHashMap(100, -1).capacity());
+		assertEquals(16, new LongLongHashMap(0, -1).capacity());
+		LongLongHashMap map = new LongLongHashMap(100, -1);
+		for (int i = 0; i < 100; i++) {
+			map.put(i, i);
+		}
+		assertEquals(256, map.capacity());
+	}
+
+	@Test
+	public void growsAndKeepsEntries() {
+		LongLongHashMap map = new LongLongHashMap(4, Long.MIN_VALUE);
+		// security ids sharing low bits probe into each other
+		for (long i = 0; i < 10000; i++) {
+			map.put(i << 20, i);
+		}
+		assertEquals(10000, map.size());
+		assertEquals(32768, map.capacity());
+		for (long i = 0; i < 10000; i++) {
+			assertEquals(i, map.get(i << 20));
+		}
+		assertEquals(Long.MIN_VALUE, map.get(1));
+	}
+
+	@Test
+	public void clearsEntries() {
+		LongLongHashMap map = new LongLongHashMap(16, -1);
+		map.put(1, 2);
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.get(1));
+		map.put(1, 3);
+		assertEquals(3, map.get(1));
+	}
+
+}
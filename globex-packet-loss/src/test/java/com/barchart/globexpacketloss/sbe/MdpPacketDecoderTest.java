@@ -0,0 +1,141 @@
+package com.barchart.globexpacketloss.sbe;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MdpPacketDecoderTest {
+
+	private static final int BOOK = 46;
+
+	private static final int BOOK_BLOCK_LENGTH = 11;
+
+	private static final int BOOK_ENTRY_LENGTH = 32;
+
+	private static final int SECURITY_STATUS = 30;
+
+	private ByteBuffer packet;
+
+	private MessageStats stats;
+
+	private InstrumentGapTracker instruments;
+
+	private MdpPacketDecoder decoder;
+
+	@Before
+	public void setUp() {
+		packet = ByteBuffer.allocate(1500).order(ByteOrder.LITTLE_ENDIAN);
+		packet.position(MdpPacketDecoder.PACKET_HEADER_SIZE);
+		stats = new MessageStats();
+		instruments = new InstrumentGapTracker(16);
+		decoder = new MdpPacketDecoder(stats, instruments);
+	}
+
+	@Test
+	public void countsMessagesAndFeedsEntries() {
+		putBook(BOOK_ENTRY_LENGTH, 1000, 5, 1001, 7);
+		putMessage(SECURITY_STATUS, 30);
+		putBook(BOOK_ENTRY_LENGTH, 1000, 8);
+		packet.flip();
+		assertEquals(3, decoder.decode(packet));
+		assertEquals(2, stats.getTemplateMessages(BOOK));
+		assertEquals(1, stats.getTemplateMessages(SECURITY_STATUS));
+		assertEquals(30, stats.getTemplateBytes(SECURITY_STATUS));
+		assertEquals(0, stats.getMalformedCount());
+		assertEquals(2, instruments.getSecurityCount());
+		assertEquals(3, instruments.getEntryCount());
+		assertEquals(2, instruments.getMissedCount());
+	}
+
+	@Test
+	public void stopsAtTruncatedMessage() {
+		putMessage(SECURITY_STATUS, 30);
+		int truncated = packet.position();
+		putBook(BOOK_ENTRY_LENGTH, 1000, 5);
+		packet.limit(truncated + 20).position(0);
+		assertEquals(1, decoder.decode(packet));
+		assertEquals(1, stats.getMalformedCount());
+		assertEquals(0, instruments.getEntryCount());
+	}
+
+	@Test
+	public void stopsAtMessageShorterThanHeader() {
+		putMessage(SECURITY_STATUS, 30);
+		packet.putShort((short) 4);
+		packet.position(packet.position() + 20);
+		packet.flip();
+		assertEquals(1, decoder.decode(packet));
+		assertEquals(1, stats.getMalformedCount());
+	}
+
+	@Test
+	public void skipsEntriesTooShortForSecurityId() {
+		putBook(16, 1000, 5);
+		packet.flip();
+		assertEquals(1, decoder.decode(packet));
+		assertEquals(0, instruments.getEntryCount());
+	}
+
+	@Test
+	public void readsOnlyEntriesWithinMessage() {
+		int start = packet.position();
+		putBook(BOOK_ENTRY_LENGTH, 1000, 5, 1001, 7);
+		// the message claims two entries but only has room for one
+		packet.putShort(start, (short) (packet.position() - start - BOOK_ENTRY_LENGTH));
+		packet.flip();
+		decoder.decode(packet);
+		assertEquals(1, instruments.getEntryCount());
+		assertEquals(1000, instruments.getSecurityId(0));
+	}
+
+	@Test
+	public void decodesWithoutStatsOrInstruments() {
+		putBook(BOOK_ENTRY_LENGTH, 1000, 5);
+		packet.flip();
+		assertEquals(1, new MdpPacketDecoder(null, null).decode(packet));
+	}
+
+	/**
+	 * Appends a message of a template the decoder only counts.
+	 */
+	private void putMessage(int templateId, int size) {
+		int start = packet.position();
+		putHeader(size, size - SbeMessageFlyweight.HEADER_LENGTH, templateId);
+		packet.position(start + size);
+	}
+
+	/**
+	 * Appends a book update with one entry per SecurityID and RptSeq pair.
+	 */
+	private void putBook(int entryLength, int... securityIdsAndRptSeqs) {
+		int count = securityIdsAndRptSeqs.length / 2;
+		int size = SbeMessageFlyweight.HEADER_LENGTH + BOOK_BLOCK_LENGTH + 3 + count * entryLength;
+		int start = packet.position();
+		putHeader(size, BOOK_BLOCK_LENGTH, BOOK);
+		int group = start + SbeMessageFlyweight.HEADER_LENGTH + BOOK_BLOCK_LENGTH;
+		packet.putShort(group, (short) entryLength);
+		packet.put(group + 2, (byte) count);
+		for (int i = 0; i < count; i++) {
+			int entry = group + 3 + i * entryLength;
+			if (entryLength >= 20) {
+				packet.putInt(entry + 12, securityIdsAndRptSeqs[2 * i]);
+				packet.putInt(entry + 16, securityIdsAndRptSeqs[2 * i + 1]);
+			}
+		}
+		packet.position(start + size);
+	}
+
+	private void putHeader(int size, int blockLength, int templateId) {
+		int start = packet.position();
+		packet.putShort(start, (short) size);
+		packet.putShort(start + 2, (short) blockLength);
+		packet.putShort(start + 4, (short) templateId);
+		packet.putShort(start + 6, (short) 1);
+		packet.putShort(start + 8, (short) 9);
+	}
+
+}